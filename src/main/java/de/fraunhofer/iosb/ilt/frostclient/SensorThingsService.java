@@ -37,25 +37,33 @@ import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
 import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscribe;
 import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscription;
 import de.fraunhofer.iosb.ilt.frostclient.auth.AuthMethod;
+import de.fraunhofer.iosb.ilt.frostclient.dao.AsyncDao;
+import de.fraunhofer.iosb.ilt.frostclient.dao.BaseAsyncDao;
 import de.fraunhofer.iosb.ilt.frostclient.dao.BaseDao;
+import de.fraunhofer.iosb.ilt.frostclient.dao.Batch;
 import de.fraunhofer.iosb.ilt.frostclient.dao.Dao;
+import de.fraunhofer.iosb.ilt.frostclient.dao.NavigationLoader;
 import de.fraunhofer.iosb.ilt.frostclient.exception.MqttException;
 import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
 import de.fraunhofer.iosb.ilt.frostclient.json.deserialize.JsonReader;
 import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
 import de.fraunhofer.iosb.ilt.frostclient.model.EntityType;
 import de.fraunhofer.iosb.ilt.frostclient.model.ModelRegistry;
+import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
 import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationProperty;
+import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationPropertyEntity;
 import de.fraunhofer.iosb.ilt.frostclient.models.DataModel;
 import de.fraunhofer.iosb.ilt.frostclient.query.Query;
 import de.fraunhofer.iosb.ilt.frostclient.utils.MqttConfig;
 import de.fraunhofer.iosb.ilt.frostclient.utils.MqttSubscription;
 import de.fraunhofer.iosb.ilt.frostclient.utils.ParserUtils;
+import de.fraunhofer.iosb.ilt.frostclient.utils.ResponseParser;
 import de.fraunhofer.iosb.ilt.frostclient.utils.ServerInfo;
 import de.fraunhofer.iosb.ilt.frostclient.utils.TokenManager;
 import de.fraunhofer.iosb.ilt.frostclient.utils.Utils;
 import de.fraunhofer.iosb.ilt.settings.Settings;
 import jakarta.json.JsonPatch;
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
@@ -64,33 +72,56 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
 import org.slf4j.LoggerFactory;
 
 /**
  * A SensorThingsService represents the service endpoint of a server.
+ *
+ * The asynchronous http client runs non-daemon threads once it is used. Close
+ * the service when it is no longer needed, to release its http clients and
+ * threads.
  */
-public class SensorThingsService {
+public class SensorThingsService implements Closeable {
 
     /**
      * The logger for this class.
      */
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(SensorThingsService.class);
 
+    /**
+     * The maximum number of pooled connections used in virtual-thread mode,
+     * when no explicit maximum is set.
+     */
+    public static final int VIRTUAL_THREAD_MAX_CONNECTIONS = 1000;
+
     public static final String NULL_URL_BASE;
     public static final URL NULL_URL_V11;
     public static final URL NULL_URL_V20;
@@ -116,6 +147,8 @@ public class SensorThingsService {
 
     private HttpClientBuilder clientBuilder;
     private CloseableHttpClient httpClient;
+    private HttpAsyncClientBuilder asyncClientBuilder;
+    private CloseableHttpAsyncClient asyncHttpClient;
     private MqttConfig mqttConfig;
     private Mqtt5AsyncClient mqttClient;
 
@@ -129,6 +162,41 @@ public class SensorThingsService {
      */
     private int requestTimeoutMs = 120000;
 
+    /**
+     * The maximum number of pooled http connections, both in total and per
+     * route. Values &lt;= 0 leave the defaults of the http client.
+     */
+    private int maxConnections = 0;
+
+    /**
+     * Flag indicating blocking work should be run on virtual threads.
+     */
+    private boolean virtualThreads = false;
+
+    /**
+     * Flag indicating maxConnections was raised by enabling virtual threads,
+     * and is to be restored when they are disabled.
+     */
+    private boolean maxConnectionsRaised = false;
+
+    /**
+     * The executor used to run blocking work off the calling thread.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Flag indicating the executor was created by this service, and is to be
+     * shut down by it.
+     */
+    private boolean ownExecutor = false;
+
+    /**
+     * The last MQTT message dispatch per subscription, in virtual-thread mode.
+     * Messages for one subscription are handled one after the other, in the
+     * order they arrived.
+     */
+    private final Map<MqttSubscription, CompletableFuture<Void>> dispatchTails = new ConcurrentHashMap<>();
+
     private boolean initialised = false;
 
     /**
@@ -193,6 +261,8 @@ public class SensorThingsService {
         }
         getSettings();
         requestTimeoutMs = settings.getRequestTimeoutMs();
+        maxConnections = settings.getMaxConnections();
+        setVirtualThreads(settings.isVirtualThreads());
         if (serverInfo.getModels().isEmpty()) {
             serverInfo.addModels(settings.getModels());
         }
@@ -373,6 +443,199 @@ public class SensorThingsService {
      * @throws IOException in case of problems.
      */
     public CloseableHttpResponse execute(HttpRequestBase request) throws IOException {
+        prepareRequest(request);
+        final CloseableHttpClient client = getHttpClient();
+        return client.execute(request);
+    }
+
+    /**
+     * Execute the given request asynchronously, on the non-blocking HTTP
+     * client, adding a token header if needed. The response is fully buffered
+     * before the returned future completes. Cancelling the returned future
+     * aborts the request.
+     *
+     * Unlike {@link #executeAsync(HttpRequestBase, ResponseParser)} this
+     * always uses the non-blocking client, also when virtual threads are
+     * enabled.
+     *
+     * @param request The request to execute.
+     * @return A future that completes with the response.
+     */
+    public CompletableFuture<HttpResponse> executeAsync(HttpRequestBase request) {
+        final CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        try {
+            prepareRequest(request);
+        } catch (IOException ex) {
+            result.completeExceptionally(ex);
+            return result;
+        }
+        final Future<HttpResponse> inFlight = getAsyncHttpClient().execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                result.complete(response);
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                result.completeExceptionally(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+        result.whenComplete((response, failure) -> {
+            if (result.isCancelled()) {
+                inFlight.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Execute the given request asynchronously, and parse the response using
+     * the given parser. Failures are reported as a
+     * {@link ServiceFailureException}, wrapped in a
+     * {@link CompletionException}.
+     *
+     * When virtual threads are enabled, the request is executed on the
+     * blocking client, on a virtual thread, and the response is parsed while
+     * it is streamed in. Otherwise the non-blocking client is used.
+     *
+     * @param <T> The type of the result.
+     * @param request The request to execute.
+     * @param parser The parser that checks the response and extracts the
+     * result.
+     * @return A future that completes with the parsed result.
+     */
+    public <T> CompletableFuture<T> executeAsync(HttpRequestBase request, ResponseParser<T> parser) {
+        if (virtualThreads) {
+            return submit(() -> {
+                try (CloseableHttpResponse response = execute(request)) {
+                    return parseResponse(request, response, parser);
+                } catch (IOException ex) {
+                    throw new ServiceFailureException("Failed to execute " + request.getMethod() + " on " + request.getURI(), ex);
+                }
+            });
+        }
+        return executeAsync(request)
+                .handle((response, failure) -> {
+                    if (failure != null) {
+                        throw new CompletionException(new ServiceFailureException("Failed to execute " + request.getMethod() + " on " + request.getURI(), unwrap(failure)));
+                    }
+                    try {
+                        return parseResponse(request, response, parser);
+                    } catch (ServiceFailureException ex) {
+                        throw new CompletionException(ex);
+                    }
+                });
+    }
+
+    /**
+     * Parse the response using the given parser, reporting all failures,
+     * including unchecked ones, as ServiceFailureException.
+     */
+    private static <T> T parseResponse(HttpRequestBase request, HttpResponse response, ResponseParser<T> parser) throws ServiceFailureException {
+        try {
+            return parser.parse(response);
+        } catch (IOException | RuntimeException ex) {
+            throw new ServiceFailureException("Failed to handle response of " + request.getMethod() + " on " + request.getURI(), ex);
+        }
+    }
+
+    /**
+     * Run the given blocking task on the executor of this service. Checked
+     * exceptions thrown by the task are wrapped in a
+     * {@link CompletionException}. When virtual threads are enabled, each
+     * task gets its own virtual thread, so tens of thousands of concurrent
+     * blocking reads, like {@link Query#list()} or lazy loading of navigation
+     * properties, do not need a hand-built thread pool.
+     *
+     * @param <T> The type of the result.
+     * @param task The task to run.
+     * @return A future that completes with the result of the task.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }, getExecutor());
+    }
+
+    /**
+     * Get the executor used to run blocking work off the calling thread. When
+     * virtual threads are enabled, and the JVM supports them, this is a
+     * virtual-thread-per-task executor. Otherwise it is a cached pool of daemon
+     * threads.
+     *
+     * @return The executor of this service.
+     */
+    public synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            if (virtualThreads) {
+                executor = createVirtualThreadExecutor();
+            }
+            if (executor == null) {
+                executor = Executors.newCachedThreadPool(runnable -> {
+                    Thread thread = new Thread(runnable, "frost-client-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            ownExecutor = true;
+        }
+        return executor;
+    }
+
+    /**
+     * Set the executor used to run blocking work off the calling thread. If
+     * the service created its own executor before, that executor is shut
+     * down, after it finishes the tasks it already has. An executor set here
+     * is never shut down by the service.
+     *
+     * @param executor The executor to use, or null to use the default.
+     * @return this.
+     */
+    public synchronized SensorThingsService setExecutor(ExecutorService executor) {
+        if (executor != this.executor) {
+            shutdownOwnExecutor();
+        }
+        this.executor = executor;
+        ownExecutor = false;
+        return this;
+    }
+
+    private void shutdownOwnExecutor() {
+        if (ownExecutor && executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        ownExecutor = false;
+    }
+
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            LOGGER.warn("Virtual threads are not supported by this JVM, falling back to platform threads.");
+            return null;
+        }
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            return failure.getCause();
+        }
+        return failure;
+    }
+
+    private void prepareRequest(HttpRequestBase request) throws IOException {
         final String urlString = request.getURI().toString();
         if (!isNullOrEmpty(urlReplace) && urlString.startsWith(urlReplace)) {
             final String newUrlString = serverInfo.getBaseUrl().toString() + urlString.substring(urlReplace.length());
@@ -383,12 +646,10 @@ public class SensorThingsService {
                 throw new IOException("Failed to replace start of URL", ex);
             }
         }
-        final CloseableHttpClient client = getHttpClient();
         setTimeouts(request);
         if (tokenManager != null) {
             tokenManager.addAuthHeader(request);
         }
-        return client.execute(request);
     }
 
     private SensorThingsService setTimeouts(HttpRequestBase request) {
@@ -421,6 +682,27 @@ public class SensorThingsService {
         return new BaseDao(this, type);
     }
 
+    /**
+     * Get a Dao for the given type that executes its requests asynchronously,
+     * without blocking the calling thread.
+     *
+     * @param type the type to get a Dao for.
+     * @return a new AsyncDao for the given type.
+     */
+    public AsyncDao asyncDao(EntityType type) {
+        return new BaseAsyncDao(this, type);
+    }
+
+    /**
+     * Start a new batch, that collects create, update and delete operations
+     * and sends them to this service in one $batch request.
+     *
+     * @return a new, empty Batch.
+     */
+    public Batch batch() {
+        return new Batch(this);
+    }
+
     /**
      * Create the given entity in this service. Executes a POST to the
      * Collection of the entity type. The entity will be updated with the ID of
@@ -434,6 +716,33 @@ public class SensorThingsService {
         return new BaseDao(this, entity.getType()).create(entity);
     }
 
+    /**
+     * Create the given entity in this service, together with all new
+     * entities it links to, in one POST. Afterwards, all created entities in
+     * the graph have their ID set, and are linked to the Service.
+     *
+     * @param entity The root of the entity graph to create in the service.
+     * @return The entity itself, for chaining calls.
+     * @throws ServiceFailureException in case the server rejects the POST.
+     */
+    public Entity createDeep(Entity entity) throws ServiceFailureException {
+        return new BaseDao(this, entity.getType()).createDeep(entity);
+    }
+
+    /**
+     * Load the given navigation property for all given entities, with a few
+     * filtered queries instead of one GET per entity. Linked entities shared
+     * by several of the given entities are only loaded once.
+     *
+     * @param entities The entities to load the navigation property for.
+     * @param npe The navigation property to load.
+     * @return The distinct linked entities that were loaded, by primary key.
+     * @throws ServiceFailureException if loading fails.
+     */
+    public Map<PkValue, Entity> loadNavigation(Collection<Entity> entities, NavigationPropertyEntity npe) throws ServiceFailureException {
+        return new NavigationLoader(this).load(entities, npe);
+    }
+
     /**
      * Patches the entity in the Service.
      *
@@ -496,7 +805,17 @@ public class SensorThingsService {
      */
     public CloseableHttpClient getHttpClient() {
         if (httpClient == null) {
-            httpClient = getClientBuilder().build();
+            final HttpClientBuilder builder = getClientBuilder();
+            if (maxConnections > 0) {
+                // Only for this build, the builder is shared with the user.
+                builder.setMaxConnTotal(maxConnections)
+                        .setMaxConnPerRoute(maxConnections);
+                httpClient = builder.build();
+                builder.setMaxConnTotal(0)
+                        .setMaxConnPerRoute(0);
+            } else {
+                httpClient = builder.build();
+            }
             if (tokenManager != null) {
                 tokenManager.setHttpClient(httpClient);
             }
@@ -522,11 +841,89 @@ public class SensorThingsService {
     }
 
     /**
-     * Triggers a rebuild of the httpClient, using the latest changes to the
-     * clientBuilder.
+     * Get the non-blocking httpclient used for asynchronous requests. The
+     * client is started when it is first requested.
+     *
+     * @return the asynchronous client
+     */
+    public synchronized CloseableHttpAsyncClient getAsyncHttpClient() {
+        if (asyncHttpClient == null) {
+            final HttpAsyncClientBuilder builder = getAsyncClientBuilder();
+            if (maxConnections > 0) {
+                // Only for this build, the builder is shared with the user.
+                builder.setMaxConnTotal(maxConnections)
+                        .setMaxConnPerRoute(maxConnections);
+                asyncHttpClient = builder.build();
+                builder.setMaxConnTotal(0)
+                        .setMaxConnPerRoute(0);
+            } else {
+                asyncHttpClient = builder.build();
+            }
+            asyncHttpClient.start();
+        }
+        return asyncHttpClient;
+    }
+
+    /**
+     * Get the Builder used to generate the asynchronous httpClient. If changes
+     * are made to the builder after the client is already generated, call
+     * {@link #rebuildHttpClient()} to trigger the client to be built anew.
+     *
+     * The builder is initialised using: {@code HttpAsyncClients.custom().useSystemProperties()
+     * }
+     *
+     * @return The client Builder used to generate the asynchronous client.
+     */
+    public synchronized HttpAsyncClientBuilder getAsyncClientBuilder() {
+        if (asyncClientBuilder == null) {
+            asyncClientBuilder = HttpAsyncClients.custom().useSystemProperties();
+        }
+        return asyncClientBuilder;
+    }
+
+    /**
+     * Triggers a rebuild of the httpClient and the asynchronous httpClient,
+     * using the latest changes to the clientBuilders.
      */
     public void rebuildHttpClient() {
         httpClient = null;
+        synchronized (this) {
+            if (asyncHttpClient != null) {
+                try {
+                    asyncHttpClient.close();
+                } catch (IOException ex) {
+                    LOGGER.warn("Failed to close asynchronous http client.", ex);
+                }
+                asyncHttpClient = null;
+            }
+        }
+    }
+
+    /**
+     * Close the http clients, disconnect from MQTT, and shut down the executor
+     * if the service created it. An executor set with
+     * {@link #setExecutor(ExecutorService)} is not shut down. If the service
+     * is used again after closing, new clients and a new executor are
+     * created.
+     */
+    @Override
+    public void close() {
+        final CloseableHttpClient client = httpClient;
+        httpClient = null;
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException ex) {
+                LOGGER.warn("Failed to close http client.", ex);
+            }
+        }
+        rebuildHttpClient();
+        if (mqttClient != null) {
+            cleanupMqtt();
+        }
+        synchronized (this) {
+            shutdownOwnExecutor();
+        }
     }
 
     public List<DataModel> getModels() {
@@ -562,6 +959,71 @@ public class SensorThingsService {
         return this;
     }
 
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Set the maximum number of pooled http connections, both in total and per
+     * route. Call {@link #rebuildHttpClient()} if the clients have already
+     * been built. The maximum is applied to the client builders only while
+     * the clients are built, after which the pool size of the builders is
+     * unset again. When set, it replaces a pool size set directly on the
+     * builders.
+     *
+     * @param maxConnections The maximum number of connections, values &lt;= 0
+     * use the defaults of the http client.
+     * @return this.
+     */
+    public synchronized SensorThingsService setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        maxConnectionsRaised = false;
+        return this;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Enable or disable the virtual-thread execution mode. In this mode
+     * asynchronous requests like {@link Query#listAsync()} run on the blocking
+     * client on virtual threads, EntitySet pages are prefetched on virtual
+     * threads, and MQTT handlers are dispatched on virtual threads, in order
+     * per subscription.
+     *
+     * Calls like {@link Query#list()}, iterating over further pages, and lazy
+     * loading of navigation properties still block the calling thread. To fan
+     * them out, run them with {@link #submit(Callable)}: on a virtual thread
+     * they do not hold on to a platform thread while waiting.
+     *
+     * If no maximum number of connections is set, it is raised to
+     * {@link #VIRTUAL_THREAD_MAX_CONNECTIONS} until the mode is disabled
+     * again. Requests still wait at most the request timeout for a pooled
+     * connection. Call {@link #rebuildHttpClient()} if the clients have already been
+     * built. An executor created by the service is shut down when the mode
+     * changes, an executor set with {@link #setExecutor(ExecutorService)} is
+     * kept.
+     *
+     * @param virtualThreads true to run blocking work on virtual threads.
+     * @return this.
+     */
+    public synchronized SensorThingsService setVirtualThreads(boolean virtualThreads) {
+        if (this.virtualThreads == virtualThreads) {
+            return this;
+        }
+        this.virtualThreads = virtualThreads;
+        shutdownOwnExecutor();
+        if (virtualThreads && maxConnections <= 0) {
+            maxConnections = VIRTUAL_THREAD_MAX_CONNECTIONS;
+            maxConnectionsRaised = true;
+        } else if (!virtualThreads && maxConnectionsRaised) {
+            maxConnections = 0;
+            maxConnectionsRaised = false;
+        }
+        return this;
+    }
+
     public MqttConfig getMqttConfig() {
         return mqttConfig;
     }
@@ -630,6 +1092,7 @@ public class SensorThingsService {
                 return;
             }
             if (subSet.remove(sub)) {
+                dispatchTails.remove(sub);
                 if (subSet.isEmpty()) {
                     // Last subscription for this topic removed.
                     mqttSubscriptions.remove(topic);
@@ -674,7 +1137,7 @@ public class SensorThingsService {
                 entity.setService(this);
                 Predicate<Entity> filter = sub.getFilter();
                 if (filter == null || filter.test(entity)) {
-                    sub.getHandler().accept(entity);
+                    dispatch(sub, entity);
                 }
             } catch (IOException | RuntimeException ex) {
                 LOGGER.error("Exception while handling message.", ex);
@@ -682,6 +1145,25 @@ public class SensorThingsService {
         }
     }
 
+    private void dispatch(MqttSubscription sub, Entity entity) {
+        final Consumer<Entity> handler = sub.getHandler();
+        if (!virtualThreads) {
+            handler.accept(entity);
+            return;
+        }
+        final Runnable task = () -> {
+            try {
+                handler.accept(entity);
+            } catch (RuntimeException ex) {
+                LOGGER.error("Exception while handling message.", ex);
+            }
+        };
+        final ExecutorService taskExecutor = getExecutor();
+        dispatchTails.compute(sub, (s, tail) -> tail == null
+                ? CompletableFuture.runAsync(task, taskExecutor)
+                : tail.thenRunAsync(task, taskExecutor));
+    }
+
     public boolean isMqttConnected() {
         return mqttClient != null && mqttClient.getState().isConnected();
     }
@@ -29,6 +29,7 @@ import de.fraunhofer.iosb.ilt.settings.CachedSettings;
 import de.fraunhofer.iosb.ilt.settings.ConfigProvider;
 import de.fraunhofer.iosb.ilt.settings.Settings;
 import de.fraunhofer.iosb.ilt.settings.annotation.DefaultValue;
+import de.fraunhofer.iosb.ilt.settings.annotation.DefaultValueBoolean;
 import de.fraunhofer.iosb.ilt.settings.annotation.DefaultValueInt;
 import java.util.ArrayList;
 import java.util.List;
@@ -53,6 +54,12 @@ public class ServiceSettings extends ConfigProvider<ServiceSettings> {
     @DefaultValueInt(120000)
     public static final String TAG_SERVICE_HTTP_REQUEST_TIMEOUT = "requestTimeoutMs";
 
+    @DefaultValueInt(0)
+    public static final String TAG_SERVICE_HTTP_MAX_CONNECTIONS = "maxConnections";
+
+    @DefaultValueBoolean(false)
+    public static final String TAG_SERVICE_VIRTUAL_THREADS = "virtualThreads";
+
     final AuthSettings authSettings;
 
     public ServiceSettings() {
@@ -77,6 +84,14 @@ public class ServiceSettings extends ConfigProvider<ServiceSettings> {
         return getInt(TAG_SERVICE_HTTP_REQUEST_TIMEOUT);
     }
 
+    public int getMaxConnections() {
+        return getInt(TAG_SERVICE_HTTP_MAX_CONNECTIONS);
+    }
+
+    public boolean isVirtualThreads() {
+        return getSettings().getBoolean(TAG_SERVICE_VIRTUAL_THREADS, getClass());
+    }
+
     public List<DataModel> getModels() {
         List<DataModel> result = new ArrayList<>();
         String classes = get(TAG_SERVICE_MODEL_CLASS_LIST);
@@ -38,12 +38,14 @@ import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import javax.net.ssl.SSLContext;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
 import org.apache.http.ssl.SSLContextBuilder;
 import org.slf4j.LoggerFactory;
 
@@ -103,10 +105,14 @@ public class AuthBasic implements AnnotatedConfigurable<Void, Void>, AuthMethod,
 
             HttpClientBuilder clientBuilder = service.getClientBuilder()
                     .setDefaultCredentialsProvider(credsProvider);
+            HttpAsyncClientBuilder asyncClientBuilder = service.getAsyncClientBuilder()
+                    .setDefaultCredentialsProvider(credsProvider);
 
             if (ignoreSslErrors) {
-                SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(new SSLContextBuilder().loadTrustMaterial((X509Certificate[] chain, String authType) -> true).build());
+                SSLContext sslContext = new SSLContextBuilder().loadTrustMaterial((X509Certificate[] chain, String authType) -> true).build();
+                SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(sslContext);
                 clientBuilder.setSSLSocketFactory(sslsf);
+                asyncClientBuilder.setSSLContext(sslContext);
             }
 
             service.rebuildHttpClient();
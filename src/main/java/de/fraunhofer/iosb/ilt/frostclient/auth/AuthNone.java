@@ -33,6 +33,7 @@ import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import javax.net.ssl.SSLContext;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.ssl.SSLContextBuilder;
@@ -73,11 +74,12 @@ public class AuthNone implements AnnotatedConfigurable<Void, Void>, AuthMethod {
             HttpClientBuilder clientBuilder = service.getClientBuilder();
 
             if (ignoreSslErrors) {
-                SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(
-                        new SSLContextBuilder()
-                                .loadTrustMaterial((X509Certificate[] chain, String authType) -> true)
-                                .build());
+                SSLContext sslContext = new SSLContextBuilder()
+                        .loadTrustMaterial((X509Certificate[] chain, String authType) -> true)
+                        .build();
+                SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(sslContext);
                 clientBuilder.setSSLSocketFactory(sslsf);
+                service.getAsyncClientBuilder().setSSLContext(sslContext);
             }
 
             service.rebuildHttpClient();
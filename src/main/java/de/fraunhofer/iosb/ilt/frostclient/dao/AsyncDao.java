@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.dao;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
+import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationPropertyEntity;
+import de.fraunhofer.iosb.ilt.frostclient.query.Query;
+import jakarta.json.JsonPatch;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking CRUD operations for Entity Types. All operations return
+ * immediately. Failures are reported by completing the returned future
+ * exceptionally, with a
+ * {@link de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException}
+ * wrapped in a {@link java.util.concurrent.CompletionException}.
+ */
+public interface AsyncDao {
+
+    /**
+     * Get the EntityType this Dao operates on.
+     *
+     * @return the EntityType this Dao operates on.
+     */
+    public EntityType getEntityType();
+
+    /**
+     * Create a new entity.
+     *
+     * @param entity the entity to create
+     * @return A future that completes with the entity itself, once the primary
+     * key of the entity has been set.
+     */
+    public CompletableFuture<Entity> create(Entity entity);
+
+    /**
+     * Find an entity.
+     *
+     * @param primaryKeyValues the values for the entity's unique id
+     * @return A future that completes with the entity.
+     */
+    public CompletableFuture<Entity> find(PkValue primaryKeyValues);
+
+    /**
+     * Find the entity related to the given parent, like the Thing for a
+     * Datastream.
+     *
+     * @param parent The parent to find the singular entity for.
+     * @param npe The navigation property to load.
+     * @return A future that completes with the singular entity linked from the
+     * parent.
+     */
+    public CompletableFuture<Entity> find(Entity parent, NavigationPropertyEntity npe);
+
+    /**
+     * Find an entity.
+     *
+     * @param uri the entity's URI
+     * @return A future that completes with the entity.
+     */
+    public CompletableFuture<Entity> find(URI uri);
+
+    /**
+     * Update an entity.
+     *
+     * @param entity the entity to update
+     * @return A future that completes when the update is done.
+     */
+    public CompletableFuture<Void> update(Entity entity);
+
+    /**
+     * Update the given entity with the given patch. Does not update the entity
+     * object itself. To see the result, fetch it anew from the server.
+     *
+     * @param entity The entity to update on the server.
+     * @param patch The patch to apply to the entity.
+     * @return A future that completes when the patch is done.
+     */
+    public CompletableFuture<Void> patch(Entity entity, JsonPatch patch);
+
+    /**
+     * Delete an entity.
+     *
+     * @param entity the entity to delete
+     * @return A future that completes when the delete is done.
+     */
+    public CompletableFuture<Void> delete(Entity entity);
+
+    /**
+     * Start a query to find an entity collection. Use
+     * {@link Query#listAsync()} to execute the query without blocking.
+     *
+     * @return the query
+     */
+    public Query query();
+
+    /**
+     * Get the service that this dao fetches data from.
+     *
+     * @return The service that backs this dao.
+     */
+    public SensorThingsService getService();
+}
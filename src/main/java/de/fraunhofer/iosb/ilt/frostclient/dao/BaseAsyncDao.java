@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.dao;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
+import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationPropertyEntity;
+import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationPropertyEntitySet;
+import de.fraunhofer.iosb.ilt.frostclient.query.Query;
+import jakarta.json.JsonPatch;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+
+/**
+ * The implementation of a non-blocking data access object. Requests are built
+ * and responses are handled in the same way as the {@link BaseDao}, but they
+ * are executed on the asynchronous http client of the service.
+ */
+public class BaseAsyncDao implements AsyncDao {
+
+    private final BaseDao dao;
+
+    /**
+     * Constructor.
+     *
+     * @param service the service to operate on
+     * @param entityType the type of entity to deal with.
+     */
+    public BaseAsyncDao(SensorThingsService service, EntityType entityType) {
+        this.dao = new BaseDao(service, entityType);
+    }
+
+    public BaseAsyncDao(SensorThingsService service, Entity parent, NavigationPropertyEntitySet navigationLink) {
+        this.dao = new BaseDao(service, parent, navigationLink);
+    }
+
+    @Override
+    public EntityType getEntityType() {
+        return dao.getEntityType();
+    }
+
+    @Override
+    public CompletableFuture<Entity> create(Entity entity) {
+        final HttpPost httpPost;
+        try {
+            httpPost = dao.buildCreateRequest(entity);
+        } catch (ServiceFailureException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        return getService().executeAsync(httpPost, response -> dao.handleCreateResponse(httpPost, response, entity));
+    }
+
+    @Override
+    public CompletableFuture<Entity> find(PkValue primaryKeyValues) {
+        try {
+            return find(dao.buildUri(primaryKeyValues));
+        } catch (URISyntaxException ex) {
+            return CompletableFuture.failedFuture(new ServiceFailureException(ex));
+        } catch (ServiceFailureException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Entity> find(Entity parent, NavigationPropertyEntity npe) {
+        try {
+            return find(dao.buildFindUri(parent, npe));
+        } catch (ServiceFailureException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Entity> find(URI uri) {
+        final HttpGet httpGet = dao.buildFindRequest(uri);
+        return getService().executeAsync(httpGet, response -> dao.handleFindResponse(httpGet, response));
+    }
+
+    @Override
+    public CompletableFuture<Void> update(Entity entity) {
+        if (!entity.hasChanges()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final HttpPatch httpPatch;
+        try {
+            httpPatch = dao.buildUpdateRequest(entity);
+        } catch (ServiceFailureException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        return getService().executeAsync(httpPatch, response -> {
+            BaseDao.handleEmptyResponse(httpPatch, response);
+            entity.clearChanges();
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> patch(Entity entity, JsonPatch patch) {
+        final HttpPatch httpPatch;
+        try {
+            httpPatch = dao.buildPatchRequest(entity, patch);
+        } catch (ServiceFailureException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        return getService().executeAsync(httpPatch, response -> {
+            BaseDao.handleEmptyResponse(httpPatch, response);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(Entity entity) {
+        final HttpDelete httpDelete;
+        try {
+            httpDelete = dao.buildDeleteRequest(entity);
+        } catch (ServiceFailureException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        return getService().executeAsync(httpDelete, response -> {
+            BaseDao.handleEmptyResponse(httpDelete, response);
+            return null;
+        });
+    }
+
+    @Override
+    public Query query() {
+        return dao.query();
+    }
+
+    @Override
+    public SensorThingsService getService() {
+        return dao.getService();
+    }
+
+}
@@ -44,12 +44,14 @@ import java.util.List;
 import org.apache.commons.lang3.NotImplementedException;
 import org.apache.http.Consts;
 import org.apache.http.Header;
+import org.apache.http.HttpResponse;
 import org.apache.http.ParseException;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPatch;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
@@ -101,7 +103,7 @@ public class BaseDao implements Dao {
         return entityType;
     }
 
-    private URL getSetPath() throws ServiceFailureException {
+    URL getSetPath() throws ServiceFailureException {
         if (parent == null) {
             return service.getFullPath(entityType);
         }
@@ -110,6 +112,15 @@ public class BaseDao implements Dao {
 
     @Override
     public Entity create(Entity entity) throws ServiceFailureException {
+        HttpPost httpPost = buildCreateRequest(entity);
+        try (CloseableHttpResponse response = service.execute(httpPost)) {
+            return handleCreateResponse(httpPost, response, entity);
+        } catch (IOException exc) {
+            throw new ServiceFailureException("Failed to create entity.", exc);
+        }
+    }
+
+    HttpPost buildCreateRequest(Entity entity) throws ServiceFailureException {
         URIBuilder uriBuilder;
         String json;
         HttpPost httpPost;
@@ -123,25 +134,36 @@ public class BaseDao implements Dao {
 
         LOGGER.debug("Posting to: {}", httpPost.getURI());
         httpPost.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+        return httpPost;
+    }
 
-        try (CloseableHttpResponse response = service.execute(httpPost)) {
-            Utils.throwIfNotOkOrNoContent(httpPost, response);
-            Header locationHeader = response.getLastHeader("location");
-            EntityUtils.consumeQuietly(response.getEntity());
-            if (locationHeader == null) {
-                throw new IllegalStateException("Server did not send a location header for the new entitiy.");
-            }
-            String newLocation = locationHeader.getValue();
-            int pos1 = newLocation.indexOf('(') + 1;
-            int pos2 = newLocation.indexOf(')', pos1);
-            String stringPkValue = newLocation.substring(pos1, pos2);
-            entity.setPrimaryKeyValues(ParserUtils.tryToParse(stringPkValue));
-            entity.setService(service);
-            return entity;
-        } catch (IOException exc) {
-            throw new ServiceFailureException("Failed to create entity.", exc);
+    Entity handleCreateResponse(HttpPost httpPost, HttpResponse response, Entity entity) throws ServiceFailureException {
+        Utils.throwIfNotOkOrNoContent(httpPost, response);
+        Header locationHeader = response.getLastHeader("location");
+        EntityUtils.consumeQuietly(response.getEntity());
+        if (locationHeader == null) {
+            throw new IllegalStateException("Server did not send a location header for the new entitiy.");
         }
+        return applyLocation(entity, locationHeader.getValue());
+    }
 
+    /**
+     * Sets the primary key of the given entity from the location of the newly
+     * created entity, and links it to the service.
+     *
+     * @param entity The entity that was created.
+     * @param newLocation The location of the created entity, as returned by
+     * the server.
+     * @return The entity itself.
+     */
+    Entity applyLocation(Entity entity, String newLocation) {
+        int pos1 = newLocation.indexOf('(') + 1;
+        int pos2 = newLocation.indexOf(')', pos1);
+        String stringPkValue = newLocation.substring(pos1, pos2);
+        entity.setPrimaryKeyValues(ParserUtils.tryToParse(stringPkValue));
+        entity.setService(service);
+        entity.clearChanges();
+        return entity;
     }
 
     @Override
@@ -156,11 +178,15 @@ public class BaseDao implements Dao {
 
     @Override
     public Entity find(Entity parent, NavigationPropertyEntity npe) throws ServiceFailureException {
+        return find(buildFindUri(parent, npe));
+    }
+
+    URI buildFindUri(Entity parent, NavigationPropertyEntity npe) throws ServiceFailureException {
         if (!parent.getType().getNavigationEntities().contains(npe)) {
             throw new IllegalArgumentException("Entities of type " + parent + " don't have nav prop " + npe);
         }
         try {
-            return find(service.getFullPath(parent, npe).toURI());
+            return service.getFullPath(parent, npe).toURI();
         } catch (URISyntaxException ex) {
             throw new ServiceFailureException(ex);
         }
@@ -168,28 +194,49 @@ public class BaseDao implements Dao {
 
     @Override
     public Entity find(URI uri) throws ServiceFailureException {
-        HttpGet httpGet = new HttpGet(uri);
-        LOGGER.debug("Fetching: {}", uri);
-        httpGet.addHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
-
+        HttpGet httpGet = buildFindRequest(uri);
         try (CloseableHttpResponse response = service.execute(httpGet)) {
-            Utils.throwIfNotOkOrNoContent(httpGet, response);
-            String returnContent = EntityUtils.toString(response.getEntity(), Consts.UTF_8);
-            Entity entity = service.getJsonReader().parseEntity(entityType, returnContent);
-            entity.setService(service);
-            return entity;
+            return handleFindResponse(httpGet, response);
         } catch (IOException | ParseException ex) {
             throw new ServiceFailureException(ex);
         }
     }
 
+    HttpGet buildFindRequest(URI uri) {
+        HttpGet httpGet = new HttpGet(uri);
+        LOGGER.debug("Fetching: {}", uri);
+        httpGet.addHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
+        return httpGet;
+    }
+
+    Entity handleFindResponse(HttpGet httpGet, HttpResponse response) throws IOException, ServiceFailureException {
+        Utils.throwIfNotOkOrNoContent(httpGet, response);
+        Entity entity = service.getJsonReader().parseEntity(entityType, response.getEntity().getContent());
+        entity.setService(service);
+        return entity;
+    }
+
     @Override
     public void update(Entity entity) throws ServiceFailureException {
+        if (!entity.hasChanges()) {
+            LOGGER.debug("Not updating {}, no changes.", entity);
+            return;
+        }
+        HttpPatch httpPatch = buildUpdateRequest(entity);
+        try (CloseableHttpResponse response = service.execute(httpPatch)) {
+            handleEmptyResponse(httpPatch, response);
+            entity.clearChanges();
+        } catch (IOException ex) {
+            throw new ServiceFailureException(ex);
+        }
+    }
+
+    HttpPatch buildUpdateRequest(Entity entity) throws ServiceFailureException {
         HttpPatch httpPatch;
         String json;
         try {
             final URI uri = buildUri(entity.getPrimaryKeyValues());
-            json = JsonWriter.writeEntity(service.getVersion(), entity);
+            json = JsonWriter.writeEntity(service.getVersion(), entity.withOnlyChanges());
             httpPatch = new HttpPatch(uri);
         } catch (JacksonException | URISyntaxException ex) {
             throw new ServiceFailureException(ex);
@@ -197,17 +244,20 @@ public class BaseDao implements Dao {
 
         LOGGER.debug("Patching: {}", httpPatch.getURI());
         httpPatch.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+        return httpPatch;
+    }
 
+    @Override
+    public void patch(Entity entity, JsonPatch patch) throws ServiceFailureException {
+        HttpPatch httpPatch = buildPatchRequest(entity, patch);
         try (CloseableHttpResponse response = service.execute(httpPatch)) {
-            Utils.throwIfNotOkOrNoContent(httpPatch, response);
-            EntityUtils.consumeQuietly(response.getEntity());
+            handleEmptyResponse(httpPatch, response);
         } catch (IOException ex) {
             throw new ServiceFailureException(ex);
         }
     }
 
-    @Override
-    public void patch(Entity entity, JsonPatch patch) throws ServiceFailureException {
+    HttpPatch buildPatchRequest(Entity entity, JsonPatch patch) throws ServiceFailureException {
         HttpPatch httpPatch;
         String json;
         try {
@@ -220,17 +270,20 @@ public class BaseDao implements Dao {
 
         LOGGER.debug("Patching: {} with patch {}", httpPatch.getURI(), patch);
         httpPatch.setEntity(new StringEntity(json, APPLICATION_JSON_PATCH));
+        return httpPatch;
+    }
 
-        try (CloseableHttpResponse response = service.execute(httpPatch)) {
-            Utils.throwIfNotOkOrNoContent(httpPatch, response);
-            EntityUtils.consumeQuietly(response.getEntity());
+    @Override
+    public void delete(Entity entity) throws ServiceFailureException {
+        HttpDelete httpDelete = buildDeleteRequest(entity);
+        try (CloseableHttpResponse response = service.execute(httpDelete)) {
+            handleEmptyResponse(httpDelete, response);
         } catch (IOException ex) {
             throw new ServiceFailureException(ex);
         }
     }
 
-    @Override
-    public void delete(Entity entity) throws ServiceFailureException {
+    HttpDelete buildDeleteRequest(Entity entity) throws ServiceFailureException {
         HttpDelete httpDelete;
         try {
             final URI uri = buildUri(entity.getPrimaryKeyValues());
@@ -239,13 +292,12 @@ public class BaseDao implements Dao {
             throw new ServiceFailureException(ex);
         }
         LOGGER.debug("Deleting: {}", httpDelete.getURI());
+        return httpDelete;
+    }
 
-        try (CloseableHttpResponse response = service.execute(httpDelete)) {
-            Utils.throwIfNotOkOrNoContent(httpDelete, response);
-            EntityUtils.consumeQuietly(response.getEntity());
-        } catch (IOException ex) {
-            throw new ServiceFailureException(ex);
-        }
+    static void handleEmptyResponse(HttpRequestBase request, HttpResponse response) throws ServiceFailureException {
+        Utils.throwIfNotOkOrNoContent(request, response);
+        EntityUtils.consumeQuietly(response.getEntity());
     }
 
     @Override
@@ -307,7 +359,7 @@ public class BaseDao implements Dao {
         return new Query(service, parent, navigationLink);
     }
 
-    private URI buildUri(PkValue pkValues) throws NotImplementedException, URISyntaxException, ServiceFailureException {
+    URI buildUri(PkValue pkValues) throws NotImplementedException, URISyntaxException, ServiceFailureException {
         URIBuilder uriBuilder;
         uriBuilder = new URIBuilder(getSetPath() + "(" + StringHelper.formatKeyValuesForUrl(entityType.getPrimaryKey(), pkValues) + ")");
         final URI uri = uriBuilder.build();
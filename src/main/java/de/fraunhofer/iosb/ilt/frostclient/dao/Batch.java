@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.dao;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.exception.StatusCodeException;
+import de.fraunhofer.iosb.ilt.frostclient.json.SimpleJsonMapper;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.utils.Utils;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.http.Consts;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.node.ArrayNode;
+import tools.jackson.databind.node.ObjectNode;
+
+/**
+ * Collects create, update and delete operations, possibly from several Daos,
+ * and sends them to the service in one OData JSON $batch request.
+ *
+ * Operations added between {@link #beginChangeSet()} and
+ * {@link #endChangeSet()} form an atomicity group, that the server either
+ * applies completely or not at all. After {@link #execute()}, created
+ * entities have their primary key set from the location the server returned
+ * for them.
+ */
+public class Batch {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Batch.class);
+    private static final String BATCH_PATH = "$batch";
+
+    private final SensorThingsService service;
+    private final List<Operation> operations = new ArrayList<>();
+    private String currentGroup;
+    private int groupCount;
+
+    /**
+     * Creates a new, empty batch for the given service.
+     *
+     * @param service The service to send the batch to.
+     */
+    public Batch(SensorThingsService service) {
+        this.service = service;
+    }
+
+    /**
+     * Add the creation of the given entity to the batch, in the main
+     * collection of its type.
+     *
+     * @param entity The entity to create.
+     * @return this.
+     * @throws ServiceFailureException if building the request fails.
+     */
+    public Batch create(Entity entity) throws ServiceFailureException {
+        return create(service.dao(entity.getType()), entity);
+    }
+
+    /**
+     * Add the creation of the given entity to the batch, in the collection
+     * the given Dao operates on.
+     *
+     * @param dao The Dao to create the entity with.
+     * @param entity The entity to create.
+     * @return this.
+     * @throws ServiceFailureException if building the request fails.
+     */
+    public Batch create(Dao dao, Entity entity) throws ServiceFailureException {
+        final BaseDao baseDao = toBaseDao(dao);
+        return add(new Operation(OperationType.CREATE, baseDao, entity, baseDao.buildCreateRequest(entity)));
+    }
+
+    /**
+     * Add an update of the given entity to the batch. Entities without
+     * changes are not added.
+     *
+     * @param entity The entity to update.
+     * @return this.
+     * @throws ServiceFailureException if building the request fails.
+     */
+    public Batch update(Entity entity) throws ServiceFailureException {
+        return update(service.dao(entity.getType()), entity);
+    }
+
+    /**
+     * Add an update of the given entity to the batch. Entities without
+     * changes are not added. When the update succeeds, the changes of the
+     * entity are cleared.
+     *
+     * @param dao The Dao to update the entity with.
+     * @param entity The entity to update.
+     * @return this.
+     * @throws ServiceFailureException if building the request fails.
+     */
+    public Batch update(Dao dao, Entity entity) throws ServiceFailureException {
+        if (!entity.hasChanges()) {
+            LOGGER.debug("Not adding update of {}, no changes.", entity);
+            return this;
+        }
+        final BaseDao baseDao = toBaseDao(dao);
+        return add(new Operation(OperationType.UPDATE, baseDao, entity, baseDao.buildUpdateRequest(entity)));
+    }
+
+    /**
+     * Add the deletion of the given entity to the batch.
+     *
+     * @param entity The entity to delete.
+     * @return this.
+     * @throws ServiceFailureException if building the request fails.
+     */
+    public Batch delete(Entity entity) throws ServiceFailureException {
+        return delete(service.dao(entity.getType()), entity);
+    }
+
+    /**
+     * Add the deletion of the given entity to the batch.
+     *
+     * @param dao The Dao to delete the entity with.
+     * @param entity The entity to delete.
+     * @return this.
+     * @throws ServiceFailureException if building the request fails.
+     */
+    public Batch delete(Dao dao, Entity entity) throws ServiceFailureException {
+        final BaseDao baseDao = toBaseDao(dao);
+        return add(new Operation(OperationType.DELETE, baseDao, entity, baseDao.buildDeleteRequest(entity)));
+    }
+
+    /**
+     * Start a change set. All operations added until
+     * {@link #endChangeSet()} is called are executed atomically.
+     *
+     * @return this.
+     */
+    public Batch beginChangeSet() {
+        if (currentGroup != null) {
+            throw new IllegalStateException("A change set is already open.");
+        }
+        groupCount++;
+        currentGroup = "changeset" + groupCount;
+        return this;
+    }
+
+    /**
+     * End the current change set.
+     *
+     * @return this.
+     */
+    public Batch endChangeSet() {
+        if (currentGroup == null) {
+            throw new IllegalStateException("No change set is open.");
+        }
+        currentGroup = null;
+        return this;
+    }
+
+    /**
+     * The number of operations in this batch.
+     *
+     * @return The number of operations in this batch.
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    private Batch add(Operation operation) {
+        operation.group = currentGroup;
+        operations.add(operation);
+        return this;
+    }
+
+    private static BaseDao toBaseDao(Dao dao) {
+        if (dao instanceof BaseDao baseDao) {
+            return baseDao;
+        }
+        throw new IllegalArgumentException("Batches only support BaseDao instances, got " + dao.getClass().getName());
+    }
+
+    /**
+     * Send all operations in one $batch request, and map the responses back
+     * onto the operations. Failures of individual operations do not cause an
+     * exception, they are reported in the returned results.
+     *
+     * @return The results of the operations, in the order they were added.
+     * @throws ServiceFailureException if the $batch request itself fails.
+     */
+    public List<Result> execute() throws ServiceFailureException {
+        if (operations.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (currentGroup != null) {
+            throw new IllegalStateException("Change set " + currentGroup + " is not closed.");
+        }
+        final ObjectMapper mapper = SimpleJsonMapper.getSimpleObjectMapper();
+        final HttpPost httpPost = new HttpPost(service.getBaseUrl().toString() + BATCH_PATH);
+        httpPost.addHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
+        try {
+            final String json = mapper.writeValueAsString(buildBody(mapper));
+            httpPost.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+        } catch (IOException | JacksonException ex) {
+            throw new ServiceFailureException("Failed to build batch request.", ex);
+        }
+        LOGGER.debug("Posting batch of {} operations to: {}", operations.size(), httpPost.getURI());
+        try (CloseableHttpResponse response = service.execute(httpPost)) {
+            Utils.throwIfNotOk(httpPost, response);
+            final JsonNode tree = mapper.readTree(response.getEntity().getContent());
+            return handleResponses(tree.path("responses"));
+        } catch (IOException | JacksonException ex) {
+            throw new ServiceFailureException("Failed to execute batch request.", ex);
+        }
+    }
+
+    private ObjectNode buildBody(ObjectMapper mapper) throws IOException {
+        final String baseUrl = service.getBaseUrl().toString();
+        final ObjectNode body = mapper.createObjectNode();
+        final ArrayNode requests = body.putArray("requests");
+        for (int i = 0; i < operations.size(); i++) {
+            final Operation operation = operations.get(i);
+            final HttpRequestBase request = operation.request;
+            String url = request.getURI().toString();
+            if (url.startsWith(baseUrl)) {
+                url = url.substring(baseUrl.length());
+            }
+            final ObjectNode item = requests.addObject()
+                    .put("id", Integer.toString(i))
+                    .put("method", request.getMethod().toLowerCase(Locale.ROOT))
+                    .put("url", url);
+            if (operation.group != null) {
+                item.put("atomicityGroup", operation.group);
+            }
+            if (request instanceof HttpEntityEnclosingRequestBase withBody) {
+                final HttpEntity entity = withBody.getEntity();
+                item.putObject("headers").put("content-type", entity.getContentType().getValue());
+                item.set("body", mapper.readTree(EntityUtils.toString(entity, Consts.UTF_8)));
+            }
+        }
+        return body;
+    }
+
+    private List<Result> handleResponses(JsonNode responses) {
+        final Map<String, JsonNode> byId = new HashMap<>();
+        for (JsonNode response : responses) {
+            byId.put(response.path("id").asString(), response);
+        }
+        final List<Result> results = new ArrayList<>(operations.size());
+        for (int i = 0; i < operations.size(); i++) {
+            final Operation operation = operations.get(i);
+            final JsonNode response = byId.get(Integer.toString(i));
+            if (response == null) {
+                final String url = operation.request.getURI().toString();
+                results.add(new Result(operation.entity, 0, new StatusCodeException(url, 0, "No response in batch", "")));
+                continue;
+            }
+            results.add(handleResponse(operation, response));
+        }
+        return results;
+    }
+
+    private Result handleResponse(Operation operation, JsonNode response) {
+        final int status = response.path("status").asInt();
+        if (status < 200 || status >= 300) {
+            final String url = operation.request.getURI().toString();
+            final JsonNode body = response.get("body");
+            final String content = body == null ? "" : body.toString();
+            return new Result(operation.entity, status, new StatusCodeException(url, status, "Batch operation failed", content));
+        }
+        if (operation.type == OperationType.CREATE) {
+            final String location = findHeader(response.path("headers"), "location");
+            if (location == null) {
+                final String url = operation.request.getURI().toString();
+                return new Result(operation.entity, status, new ServiceFailureException("Server did not send a location header for the new entity at " + url));
+            }
+            operation.dao.applyLocation(operation.entity, location);
+        } else if (operation.type == OperationType.UPDATE) {
+            operation.entity.clearChanges();
+        }
+        return new Result(operation.entity, status, null);
+    }
+
+    private static String findHeader(JsonNode headers, String name) {
+        for (Map.Entry<String, JsonNode> header : headers.properties()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue().asString();
+            }
+        }
+        return null;
+    }
+
+    private enum OperationType {
+        CREATE,
+        UPDATE,
+        DELETE
+    }
+
+    private static class Operation {
+
+        private final OperationType type;
+        private final BaseDao dao;
+        private final Entity entity;
+        private final HttpRequestBase request;
+        private String group;
+
+        public Operation(OperationType type, BaseDao dao, Entity entity, HttpRequestBase request) {
+            this.type = type;
+            this.dao = dao;
+            this.entity = entity;
+            this.request = request;
+        }
+    }
+
+    /**
+     * The result of one operation in a batch.
+     */
+    public static class Result {
+
+        private final Entity entity;
+        private final int status;
+        private final ServiceFailureException failure;
+
+        public Result(Entity entity, int status, ServiceFailureException failure) {
+            this.entity = entity;
+            this.status = status;
+            this.failure = failure;
+        }
+
+        /**
+         * The entity the operation was executed on. For successful creates,
+         * the primary key of the entity is set.
+         *
+         * @return The entity the operation was executed on.
+         */
+        public Entity getEntity() {
+            return entity;
+        }
+
+        /**
+         * The HTTP status code the server returned for the operation, or 0 if
+         * the server did not return a response for it.
+         *
+         * @return The status code of the operation.
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        public boolean isSuccess() {
+            return failure == null;
+        }
+
+        public ServiceFailureException getFailure() {
+            return failure;
+        }
+
+        /**
+         * Throw the failure of the operation, if it failed.
+         *
+         * @return this, if the operation succeeded.
+         * @throws ServiceFailureException the failure of the operation.
+         */
+        public Result throwIfFailed() throws ServiceFailureException {
+            if (failure != null) {
+                throw failure;
+            }
+            return this;
+        }
+    }
+
+}
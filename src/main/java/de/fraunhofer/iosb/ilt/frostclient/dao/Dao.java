@@ -56,6 +56,20 @@ public interface Dao {
      */
     Entity create(Entity entity) throws ServiceFailureException;
 
+    /**
+     * Create a new entity, together with all new entities it links to, in one
+     * request. Afterwards, the primary keys of all created entities in the
+     * graph are set. The default implementation uses {@link #create(Entity)}
+     * and {@link #find(URI)}.
+     *
+     * @param entity the root of the entity graph to create
+     * @return The entity itself, for chaining calls.
+     * @throws ServiceFailureException the operation failed
+     */
+    public default Entity createDeep(Entity entity) throws ServiceFailureException {
+        return new DeepInsert(this).create(entity);
+    }
+
     /**
      * Find an entity.
      *
@@ -86,7 +100,9 @@ public interface Dao {
     Entity find(URI uri) throws ServiceFailureException;
 
     /**
-     * Update an entity.
+     * Update an entity. Only the properties that changed since the entity was
+     * loaded from, or last written to, the server are sent. If nothing changed,
+     * no request is made.
      *
      * @param entity the entity to update
      * @throws ServiceFailureException the operation failed
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.dao;
+
+import static de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing.EP_PARAMETERS;
+import static de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing.EP_PHENOMENONTIME;
+import static de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing.EP_RESULT;
+import static de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing.EP_RESULTQUALITY;
+import static de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing.EP_RESULTTIME;
+import static de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing.EP_VALIDTIME;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
+import de.fraunhofer.iosb.ilt.frostclient.model.property.EntityPropertyMain;
+import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationPropertyEntity;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11MultiDatastream;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import de.fraunhofer.iosb.ilt.frostclient.utils.Utils;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.node.ArrayNode;
+import tools.jackson.databind.node.NullNode;
+import tools.jackson.databind.node.ObjectNode;
+
+/**
+ * Uploads many Observations in one request, using the dataArray format of the
+ * CreateObservations extension of SensorThings API v1.x. Observations are
+ * grouped per Datastream or MultiDatastream, and only the properties that
+ * are set on at least one Observation of a group are sent. After
+ * {@link #upload()}, the created Observations have their primary key set
+ * from the self-links returned by the server.
+ *
+ * Instances are not thread-safe.
+ */
+public class DataArrayUploader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataArrayUploader.class);
+    private static final String PATH_CREATE_OBSERVATIONS = "CreateObservations";
+    private static final String NAME_COMPONENTS = "components";
+    private static final String NAME_DATA_ARRAY = "dataArray";
+    private static final String NAME_DATA_ARRAY_COUNT = "dataArray@iot.count";
+    private static final String NAME_FOI_ID = "FeatureOfInterest/id";
+    private static final String RESPONSE_ERROR = "error";
+
+    private static final List<EntityPropertyMain<?>> COMPONENTS = Arrays.asList(
+            EP_PHENOMENONTIME,
+            EP_RESULT,
+            EP_RESULTTIME,
+            EP_RESULTQUALITY,
+            EP_VALIDTIME,
+            EP_PARAMETERS);
+
+    private final SensorThingsService service;
+    private final BaseDao observationDao;
+    private final NavigationPropertyEntity npDatastream;
+    private final NavigationPropertyEntity npMultiDatastream;
+    private final NavigationPropertyEntity npFeatureOfInterest;
+
+    /**
+     * The pending Observations, per (Multi)Datastream.
+     */
+    private final Map<Entity, Group> groups = new LinkedHashMap<>();
+    private int size;
+
+    /**
+     * Creates a new uploader. The service must have the SensorThings v1.1
+     * Sensing model, the MultiDatastream model is used if present.
+     *
+     * @param service The service to upload to.
+     */
+    public DataArrayUploader(SensorThingsService service) {
+        this.service = service;
+        final SensorThingsV11Sensing sensing = service.getModel(SensorThingsV11Sensing.class);
+        if (sensing == null) {
+            throw new IllegalArgumentException("The service does not have the " + SensorThingsV11Sensing.class.getSimpleName() + " model.");
+        }
+        this.observationDao = new BaseDao(service, sensing.etObservation);
+        this.npDatastream = sensing.npObservationDatastream;
+        this.npFeatureOfInterest = sensing.npObservationFeatureofinterest;
+        final SensorThingsV11MultiDatastream multiDatastream = service.getModel(SensorThingsV11MultiDatastream.class);
+        this.npMultiDatastream = multiDatastream == null ? null : multiDatastream.npObservationMultidatastream;
+    }
+
+    /**
+     * Add an Observation to be uploaded. The Observation must link to a
+     * Datastream or MultiDatastream that exists in the service.
+     *
+     * @param observation The Observation to add.
+     * @return this.
+     * @throws ServiceFailureException never, the linked entities are not
+     * loaded.
+     */
+    public DataArrayUploader add(Entity observation) throws ServiceFailureException {
+        NavigationPropertyEntity parentLink = npDatastream;
+        Entity parent = observation.getProperty(npDatastream, false);
+        if (parent == null && npMultiDatastream != null) {
+            parentLink = npMultiDatastream;
+            parent = observation.getProperty(npMultiDatastream, false);
+        }
+        if (parent == null || !parent.getPrimaryKeyValues().isFullySet()) {
+            throw new IllegalArgumentException("Observation must link to a Datastream or MultiDatastream with a primary key.");
+        }
+        final NavigationPropertyEntity link = parentLink;
+        groups.computeIfAbsent(parent, p -> new Group(link, p)).observations.add(observation);
+        size++;
+        return this;
+    }
+
+    /**
+     * Add several Observations to be uploaded.
+     *
+     * @param observations The Observations to add.
+     * @return this.
+     * @throws ServiceFailureException never, the linked entities are not
+     * loaded.
+     */
+    public DataArrayUploader addAll(Iterable<Entity> observations) throws ServiceFailureException {
+        for (Entity observation : observations) {
+            add(observation);
+        }
+        return this;
+    }
+
+    /**
+     * The number of Observations waiting to be uploaded.
+     *
+     * @return The number of pending Observations.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Upload all pending Observations in one request. The pending list is
+     * cleared, also when the upload fails.
+     *
+     * @return The Observations that the server rejected.
+     * @throws ServiceFailureException if the request itself fails.
+     */
+    public List<Entity> upload() throws ServiceFailureException {
+        if (groups.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<Group> toSend = new ArrayList<>(groups.values());
+        groups.clear();
+        size = 0;
+
+        final ObjectMapper mapper = service.getVersion().getObjectMapper();
+        final HttpPost httpPost = new HttpPost(service.getBaseUrl().toString() + PATH_CREATE_OBSERVATIONS);
+        httpPost.addHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
+        final List<Entity> sent = new ArrayList<>();
+        try {
+            final ArrayNode body = mapper.createArrayNode();
+            for (Group group : toSend) {
+                body.add(group.toJson(mapper));
+                sent.addAll(group.observations);
+            }
+            httpPost.setEntity(new StringEntity(mapper.writeValueAsString(body), ContentType.APPLICATION_JSON));
+        } catch (JacksonException ex) {
+            throw new ServiceFailureException("Failed to serialise Observations.", ex);
+        }
+        LOGGER.debug("Posting {} Observations in {} groups to: {}", sent.size(), toSend.size(), httpPost.getURI());
+        try (CloseableHttpResponse response = service.execute(httpPost)) {
+            Utils.throwIfNotOk(httpPost, response);
+            final JsonNode links = mapper.readTree(response.getEntity().getContent());
+            return handleResponse(sent, links);
+        } catch (IOException | JacksonException ex) {
+            throw new ServiceFailureException("Failed to upload Observations.", ex);
+        }
+    }
+
+    private List<Entity> handleResponse(List<Entity> sent, JsonNode links) throws ServiceFailureException {
+        if (!links.isArray() || links.size() != sent.size()) {
+            throw new ServiceFailureException("Expected " + sent.size() + " links in response, got " + links.size());
+        }
+        final List<Entity> failed = new ArrayList<>();
+        for (int i = 0; i < sent.size(); i++) {
+            final String link = links.get(i).asString();
+            final Entity observation = sent.get(i);
+            if (RESPONSE_ERROR.equals(link) || link.indexOf('(') < 0) {
+                failed.add(observation);
+            } else {
+                observationDao.applyLocation(observation, link);
+            }
+        }
+        if (!failed.isEmpty()) {
+            LOGGER.warn("Server rejected {} of {} Observations.", failed.size(), sent.size());
+        }
+        return failed;
+    }
+
+    private class Group {
+
+        private final NavigationPropertyEntity link;
+        private final Entity parent;
+        private final List<Entity> observations = new ArrayList<>();
+
+        public Group(NavigationPropertyEntity link, Entity parent) {
+            this.link = link;
+            this.parent = parent;
+        }
+
+        public ObjectNode toJson(ObjectMapper mapper) throws ServiceFailureException {
+            final List<EntityPropertyMain<?>> components = new ArrayList<>();
+            for (EntityPropertyMain<?> component : COMPONENTS) {
+                if (anySet(component)) {
+                    components.add(component);
+                }
+            }
+            boolean hasFoi = false;
+            for (Entity observation : observations) {
+                if (observation.getProperty(npFeatureOfInterest, false) != null) {
+                    hasFoi = true;
+                    break;
+                }
+            }
+
+            final ObjectNode node = mapper.createObjectNode();
+            node.putObject(link.getJsonName())
+                    .set(service.getVersion().getIdName(), idToJson(mapper, parent.getPrimaryKeyValues()));
+            final ArrayNode componentNames = node.putArray(NAME_COMPONENTS);
+            for (EntityPropertyMain<?> component : components) {
+                componentNames.add(component.getJsonName());
+            }
+            if (hasFoi) {
+                componentNames.add(NAME_FOI_ID);
+            }
+            node.put(NAME_DATA_ARRAY_COUNT, observations.size());
+            final ArrayNode dataArray = node.putArray(NAME_DATA_ARRAY);
+            for (Entity observation : observations) {
+                final ArrayNode row = dataArray.addArray();
+                for (EntityPropertyMain<?> component : components) {
+                    row.add(mapper.<JsonNode>valueToTree(observation.getProperty(component)));
+                }
+                if (hasFoi) {
+                    final Entity foi = observation.getProperty(npFeatureOfInterest, false);
+                    row.add(foi == null ? NullNode.getInstance() : idToJson(mapper, foi.getPrimaryKeyValues()));
+                }
+            }
+            return node;
+        }
+
+        private boolean anySet(EntityPropertyMain<?> property) {
+            for (Entity observation : observations) {
+                if (observation.isSetProperty(property)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private JsonNode idToJson(ObjectMapper mapper, PkValue pk) {
+            return mapper.valueToTree(pk.get(0));
+        }
+    }
+
+}
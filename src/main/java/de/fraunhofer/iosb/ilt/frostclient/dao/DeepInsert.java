@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.dao;
+
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.json.SimpleJsonMapper;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.model.EntityReference;
+import de.fraunhofer.iosb.ilt.frostclient.model.EntitySet;
+import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
+import de.fraunhofer.iosb.ilt.frostclient.model.property.EntityPropertyMain;
+import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationProperty;
+import de.fraunhofer.iosb.ilt.frostclient.models.ext.MapValue;
+import de.fraunhofer.iosb.ilt.frostclient.query.Expand;
+import de.fraunhofer.iosb.ilt.frostclient.query.Expand.ExpandItem;
+import de.fraunhofer.iosb.ilt.frostclient.utils.StringHelper;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.apache.http.client.utils.URIBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * Creates an entity together with all new entities it links to, in one POST,
+ * and then resolves the primary keys of the nested entities with one GET that
+ * expands exactly the created part of the graph.
+ *
+ * Nested entities are new if they are not linked to a service and do not
+ * have a primary key. Other linked entities are sent as references. New
+ * entities in a collection are matched to the returned entities on all their
+ * set, writable properties. Numbers are compared on their value, maps and
+ * lists element by element. A new entity that matches more than one returned
+ * entity is ambiguous, and does not get a primary key.
+ */
+class DeepInsert {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeepInsert.class);
+
+    private static final Comparator<JsonNode> NUMERIC_NODE_COMPARATOR = (n1, n2) -> {
+        if (n1.isNumber() && n2.isNumber()) {
+            return n1.decimalValue().compareTo(n2.decimalValue());
+        }
+        return n1.equals(n2) ? 0 : 1;
+    };
+
+    private final Dao dao;
+    /**
+     * The nested entities that are created, determined before the POST:
+     * afterwards, reading a collection of the created entity links all its
+     * members to the service, and they no longer look new.
+     */
+    private final Set<Entity> newEntities = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    DeepInsert(Dao dao) {
+        this.dao = dao;
+    }
+
+    Entity create(Entity entity) throws ServiceFailureException {
+        final Expand expand = new Expand().setOnType(entity.getType());
+        addCreatedItems(expand, entity);
+        dao.create(entity);
+        if (expand.getItems().isEmpty()) {
+            return entity;
+        }
+        final Entity created;
+        try {
+            final String path = dao.getService().getFullPath(entity.getType())
+                    + "(" + StringHelper.formatKeyValuesForUrl(entity.getType().getPrimaryKey(), entity.getPrimaryKeyValues()) + ")";
+            final URI uri = new URIBuilder(path)
+                    .addParameter("$expand", expand.toUrl())
+                    .build();
+            created = dao.find(uri);
+        } catch (URISyntaxException ex) {
+            throw new ServiceFailureException("Failed to fetch created entity graph.", ex);
+        }
+        copyKeys(entity, created);
+        return entity;
+    }
+
+    private static boolean isNew(Entity entity) {
+        return !(entity instanceof EntityReference) && !entity.hasService() && !entity.primaryKeyFullySet();
+    }
+
+    /**
+     * Adds an expand item for each navigation property of the entity that
+     * holds new entities, recursively.
+     */
+    private void addCreatedItems(Expand expand, Entity entity) {
+        for (NavigationProperty np : entity.getType().getNavigationProperties()) {
+            final Object value = entity.getProperty(np, false);
+            if (value instanceof Entity child) {
+                if (isNew(child)) {
+                    addCreatedItem(expand, np, child);
+                }
+            } else if (value instanceof EntitySet set) {
+                int count = 0;
+                for (Entity child : set.toList()) {
+                    if (isNew(child)) {
+                        addCreatedItem(expand, np, child);
+                        count++;
+                    }
+                }
+                if (count > 0) {
+                    final ExpandItem item = expand.getOrCreateItemFor(np);
+                    item.top(Math.max(item.getTop(), set.size()));
+                }
+            }
+        }
+    }
+
+    private void addCreatedItem(Expand expand, NavigationProperty np, Entity child) {
+        newEntities.add(child);
+        final ExpandItem item = expand.getOrCreateItemFor(np);
+        final Expand subExpand = item.getExpand() == null ? new Expand() : item.getExpand();
+        addCreatedItems(subExpand, child);
+        if (item.getExpand() == null && !subExpand.getItems().isEmpty()) {
+            item.expand(subExpand);
+        }
+    }
+
+    /**
+     * Copies the primary keys of the returned entities to the new entities
+     * of the local graph, recursively.
+     */
+    private void copyKeys(Entity local, Entity remote) {
+        for (NavigationProperty np : local.getType().getNavigationProperties()) {
+            final Object localValue = local.getProperty(np, false);
+            final Object remoteValue = remote.getProperty(np, false);
+            if (localValue instanceof Entity localChild && newEntities.contains(localChild)) {
+                if (remoteValue instanceof Entity remoteChild) {
+                    copyKey(localChild, remoteChild);
+                } else {
+                    LOGGER.warn("Server did not return {} of created {}.", np.getName(), local.getType());
+                }
+            } else if (localValue instanceof EntitySet localSet && remoteValue instanceof EntitySet remoteSet) {
+                copyKeys(np, localSet, remoteSet);
+            }
+        }
+    }
+
+    private void copyKeys(NavigationProperty np, EntitySet localSet, EntitySet remoteSet) {
+        final Set<PkValue> knownKeys = new HashSet<>();
+        final List<Entity> newChildren = new ArrayList<>();
+        for (Entity child : localSet.toList()) {
+            if (newEntities.contains(child)) {
+                newChildren.add(child);
+            } else {
+                knownKeys.add(child.getPrimaryKeyValues());
+            }
+        }
+        final List<Entity> candidates = new ArrayList<>();
+        for (Entity remoteChild : remoteSet.toList()) {
+            if (!knownKeys.contains(remoteChild.getPrimaryKeyValues())) {
+                candidates.add(remoteChild);
+            }
+        }
+        for (Entity localChild : newChildren) {
+            final Entity match = takeMatch(localChild, candidates);
+            if (match == null) {
+                LOGGER.warn("Could not find created entity in {} for {}.", np.getName(), localChild);
+            } else {
+                copyKey(localChild, match);
+            }
+        }
+    }
+
+    private void copyKey(Entity local, Entity remote) {
+        local.setPrimaryKeyValues(remote.getPrimaryKeyValues());
+        copyKeys(local, remote);
+        local.setService(dao.getService());
+        local.clearChanges();
+    }
+
+    /**
+     * Find the candidate that matches the local entity, and remove it from
+     * the candidates. If several candidates match, the server order decides
+     * nothing, so none is taken.
+     */
+    private static Entity takeMatch(Entity local, List<Entity> candidates) {
+        Entity match = null;
+        for (Entity candidate : candidates) {
+            if (!matches(local, candidate)) {
+                continue;
+            }
+            if (match != null) {
+                LOGGER.warn("Created {} matches several returned entities, can not determine its primary key: {}", local.getType(), local);
+                return null;
+            }
+            match = candidate;
+        }
+        if (match != null) {
+            candidates.remove(match);
+        }
+        return match;
+    }
+
+    private static boolean matches(Entity local, Entity remote) {
+        for (EntityPropertyMain ep : local.getType().getEntityProperties()) {
+            if (ep.isReadOnly() || ep.isKeyPart() || !local.isSetProperty(ep)) {
+                continue;
+            }
+            if (!valuesEqual(local.getProperty(ep, false), remote.getProperty(ep, false))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare a local value with a value parsed from the server. Numbers are
+     * compared on their value, since the parsed type can differ from the
+     * local type. Maps, including the content of MapValues, Lists and json
+     * trees are compared element by element, everything else with equals.
+     */
+    private static boolean valuesEqual(Object local, Object remote) {
+        if (local instanceof MapValue localMapValue) {
+            return valuesEqual(localMapValue.getContent(), remote);
+        }
+        if (remote instanceof MapValue remoteMapValue) {
+            return valuesEqual(local, remoteMapValue.getContent());
+        }
+        if (local instanceof JsonNode || remote instanceof JsonNode) {
+            // Nested values of open types can be parsed as json trees.
+            final ObjectMapper mapper = SimpleJsonMapper.getSimpleObjectMapper();
+            final JsonNode localTree = mapper.valueToTree(local);
+            return localTree.equals(NUMERIC_NODE_COMPARATOR, mapper.valueToTree(remote));
+        }
+        if (local instanceof Number localNumber && remote instanceof Number remoteNumber) {
+            return new BigDecimal(localNumber.toString()).compareTo(new BigDecimal(remoteNumber.toString())) == 0;
+        }
+        if (local instanceof Map<?, ?> localMap && remote instanceof Map<?, ?> remoteMap) {
+            if (localMap.size() != remoteMap.size()) {
+                return false;
+            }
+            for (Map.Entry<?, ?> entry : localMap.entrySet()) {
+                if (!remoteMap.containsKey(entry.getKey()) || !valuesEqual(entry.getValue(), remoteMap.get(entry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (local instanceof List<?> localList && remote instanceof List<?> remoteList) {
+            if (localList.size() != remoteList.size()) {
+                return false;
+            }
+            for (int i = 0; i < localList.size(); i++) {
+                if (!valuesEqual(localList.get(i), remoteList.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return Objects.equals(local, remote);
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.dao;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.model.EntitySet;
+import de.fraunhofer.iosb.ilt.frostclient.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
+import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationProperty;
+import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationPropertyEntity;
+import de.fraunhofer.iosb.ilt.frostclient.query.Expand.ExpandItem;
+import de.fraunhofer.iosb.ilt.frostclient.query.Query;
+import de.fraunhofer.iosb.ilt.frostclient.utils.StringHelper;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads a navigation property for many entities at once, instead of with one
+ * GET per entity.
+ *
+ * The linked entities are fetched in chunks, with one $filter query per
+ * chunk. If the navigation property has an inverse, the linked collection is
+ * queried on the inverse, expanding only the ids of the requested entities.
+ * Otherwise the source collection is queried on the ids, expanding the
+ * navigation property. Linked entities that are shared by several source
+ * entities are loaded once, and the same instance is attached to all of them.
+ */
+public class NavigationLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NavigationLoader.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    private final SensorThingsService service;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    public NavigationLoader(SensorThingsService service) {
+        this.service = service;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Set the maximum number of source entities that are handled in one
+     * query. Larger chunks mean fewer requests, but longer filters.
+     *
+     * @param chunkSize The number of source entities per query.
+     * @return this.
+     */
+    public NavigationLoader setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be larger than 0, got " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Load the given navigation property for all given entities, and attach
+     * the results to the entities. Entities that already have the navigation
+     * property set, or that do not have a primary key, are skipped.
+     *
+     * @param entities The entities to load the navigation property for.
+     * @param npe The navigation property to load.
+     * @return The distinct linked entities that were loaded, by primary key.
+     * @throws ServiceFailureException if loading fails.
+     */
+    public Map<PkValue, Entity> load(Collection<Entity> entities, NavigationPropertyEntity npe) throws ServiceFailureException {
+        final Map<PkValue, Entity> sources = new LinkedHashMap<>();
+        EntityType sourceType = null;
+        for (Entity entity : entities) {
+            if (!entity.getType().getNavigationEntities().contains(npe)) {
+                throw new IllegalArgumentException("Entities of type " + entity.getType() + " don't have nav prop " + npe);
+            }
+            if (sourceType == null) {
+                sourceType = entity.getType();
+            } else if (sourceType != entity.getType()) {
+                throw new IllegalArgumentException("All entities must have the same type, found " + sourceType + " and " + entity.getType());
+            }
+            final PkValue pk = entity.getPrimaryKeyValues();
+            if (entity.getProperty(npe, false) == null && pk.isFullySet()) {
+                sources.put(pk, entity);
+            }
+        }
+        if (sources.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final Map<PkValue, Entity> loaded = new LinkedHashMap<>();
+        final List<PkValue> pks = new ArrayList<>(sources.keySet());
+        for (int start = 0; start < pks.size(); start += chunkSize) {
+            final List<PkValue> chunk = pks.subList(start, Math.min(start + chunkSize, pks.size()));
+            final Map<PkValue, Entity> links;
+            if (npe.getInverse() == null) {
+                links = loadBySource(sourceType, npe, chunk);
+            } else {
+                links = loadByInverse(sourceType, npe, chunk);
+            }
+            for (PkValue pk : chunk) {
+                final Entity link = links.get(pk);
+                if (link == null) {
+                    continue;
+                }
+                final Entity shared = loaded.computeIfAbsent(link.getPrimaryKeyValues(), k -> link);
+                sources.get(pk).setLoadedProperty(npe, shared);
+            }
+        }
+        LOGGER.debug("Loaded {} distinct {} for {} {}", loaded.size(), npe, sources.size(), sourceType);
+        return loaded;
+    }
+
+    /**
+     * Queries the linked collection on the inverse navigation property,
+     * expanding the ids of the source entities in the chunk.
+     */
+    private Map<PkValue, Entity> loadByInverse(EntityType sourceType, NavigationPropertyEntity npe, List<PkValue> chunk) throws ServiceFailureException {
+        final NavigationProperty inverse = npe.getInverse();
+        final String keyName = keyName(sourceType);
+        final Query query = service.query(npe.getEntityType())
+                .filter(buildFilter(inverse.getName() + "/" + keyName, sourceType, chunk))
+                .top(chunk.size())
+                .addExpandItem(new ExpandItem(inverse)
+                        .select(keyName)
+                        .filter(buildFilter(keyName, sourceType, chunk))
+                        .top(chunk.size()));
+        final Map<PkValue, Entity> links = new LinkedHashMap<>();
+        for (Entity target : query.list()) {
+            final Object expanded = target.getProperty(inverse, false);
+            if (expanded instanceof EntitySet set) {
+                for (Entity source : set.toList()) {
+                    links.put(source.getPrimaryKeyValues(), target);
+                }
+            } else if (expanded instanceof Entity source) {
+                links.put(source.getPrimaryKeyValues(), target);
+            }
+            // The expanded inverse only holds the requested part, don't keep it.
+            target.unsetProperty(inverse);
+            target.clearChanges();
+        }
+        return links;
+    }
+
+    /**
+     * Queries the source collection on the ids in the chunk, expanding the
+     * navigation property.
+     */
+    private Map<PkValue, Entity> loadBySource(EntityType sourceType, NavigationPropertyEntity npe, List<PkValue> chunk) throws ServiceFailureException {
+        final String keyName = keyName(sourceType);
+        final Query query = service.query(sourceType)
+                .filter(buildFilter(keyName, sourceType, chunk))
+                .select(keyName)
+                .top(chunk.size())
+                .addExpandItem(new ExpandItem(npe));
+        final Map<PkValue, Entity> links = new LinkedHashMap<>();
+        for (Entity source : query.list()) {
+            final Entity target = source.getProperty(npe, false);
+            if (target != null) {
+                links.put(source.getPrimaryKeyValues(), target);
+            }
+        }
+        return links;
+    }
+
+    private static String keyName(EntityType type) {
+        return type.getPrimaryKey().getKeyProperties().get(0).getName();
+    }
+
+    private static String buildFilter(String path, EntityType type, List<PkValue> pks) {
+        final StringBuilder filter = new StringBuilder();
+        for (PkValue pk : pks) {
+            if (filter.length() > 0) {
+                filter.append(" or ");
+            }
+            filter.append(path)
+                    .append(" eq ")
+                    .append(StringHelper.formatKeyValuesForUrl(type.getPrimaryKey(), pk));
+        }
+        return filter.toString();
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.dao;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A write-behind buffer for creating Observations. Calls to
+ * {@link #create(Entity)} only put the Observation in a bounded queue, and
+ * background workers send the queued Observations when a batch is full, when
+ * the oldest Observation of a batch reaches the maximum age, or when
+ * {@link #flush()} is called.
+ *
+ * Batches are sent using the dataArray format, see
+ * {@link DataArrayUploader}, or one by one through the Observation Dao.
+ * Since creation happens in the background, failures are reported to the
+ * failure handler, together with the Observations that were not created.
+ *
+ * Configure the buffer before the first Observation is added, and close it
+ * when done, to send the remaining Observations and stop the workers.
+ */
+public class ObservationBuffer implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObservationBuffer.class);
+
+    public static final int DEFAULT_CAPACITY = 10_000;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_MAX_AGE_MS = 1000;
+    public static final int DEFAULT_CONCURRENCY = 1;
+
+    private final SensorThingsService service;
+    private final Dao observationDao;
+
+    private int capacity = DEFAULT_CAPACITY;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long maxAgeMs = DEFAULT_MAX_AGE_MS;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private boolean useDataArray = true;
+    private BiConsumer<List<Entity>, Exception> failureHandler = (observations, ex) -> LOGGER.error("Failed to create {} Observations.", observations.size(), ex);
+
+    private BlockingQueue<Entity> queue;
+    /**
+     * The number of Observations that are queued or being sent. Guarded by
+     * this.
+     */
+    private int pending;
+    private int running;
+    private volatile boolean started;
+    private volatile boolean closed;
+
+    /**
+     * Creates a new buffer for the given service. The service must have the
+     * SensorThings v1.1 Sensing model.
+     *
+     * @param service The service to create the Observations in.
+     */
+    public ObservationBuffer(SensorThingsService service) {
+        this.service = service;
+        final SensorThingsV11Sensing sensing = service.getModel(SensorThingsV11Sensing.class);
+        if (sensing == null) {
+            throw new IllegalArgumentException("The service does not have the " + SensorThingsV11Sensing.class.getSimpleName() + " model.");
+        }
+        this.observationDao = service.dao(sensing.etObservation);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Set the maximum number of Observations to hold in the queue. When the
+     * queue is full, {@link #create(Entity)} blocks until there is space.
+     *
+     * @param capacity The maximum number of queued Observations.
+     * @return this.
+     */
+    public ObservationBuffer setCapacity(int capacity) {
+        checkNotStarted();
+        this.capacity = requirePositive("capacity", capacity);
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the number of Observations after which a batch is sent.
+     *
+     * @param batchSize The maximum number of Observations in a batch.
+     * @return this.
+     */
+    public ObservationBuffer setBatchSize(int batchSize) {
+        checkNotStarted();
+        this.batchSize = requirePositive("batchSize", batchSize);
+        return this;
+    }
+
+    public long getMaxAgeMs() {
+        return maxAgeMs;
+    }
+
+    /**
+     * Set the maximum time an Observation waits for its batch to fill up
+     * before the batch is sent anyway.
+     *
+     * @param maxAgeMs The maximum age of a batch, in milliseconds.
+     * @return this.
+     */
+    public ObservationBuffer setMaxAgeMs(long maxAgeMs) {
+        checkNotStarted();
+        if (maxAgeMs <= 0) {
+            throw new IllegalArgumentException("maxAgeMs must be > 0, got " + maxAgeMs);
+        }
+        this.maxAgeMs = maxAgeMs;
+        return this;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Set the number of workers that send batches concurrently.
+     *
+     * @param concurrency The number of workers.
+     * @return this.
+     */
+    public ObservationBuffer setConcurrency(int concurrency) {
+        checkNotStarted();
+        this.concurrency = requirePositive("concurrency", concurrency);
+        return this;
+    }
+
+    public boolean isUseDataArray() {
+        return useDataArray;
+    }
+
+    /**
+     * Set whether batches are sent in the dataArray format, or one by one
+     * through the Observation Dao, for servers that do not support the
+     * CreateObservations extension.
+     *
+     * @param useDataArray true to use the dataArray format.
+     * @return this.
+     */
+    public ObservationBuffer setUseDataArray(boolean useDataArray) {
+        checkNotStarted();
+        this.useDataArray = useDataArray;
+        return this;
+    }
+
+    /**
+     * Set the handler that is called with the Observations that could not be
+     * created, and the reason. The handler is called on a worker thread.
+     *
+     * @param failureHandler The handler for failures.
+     * @return this.
+     */
+    public ObservationBuffer setFailureHandler(BiConsumer<List<Entity>, Exception> failureHandler) {
+        this.failureHandler = failureHandler;
+        return this;
+    }
+
+    /**
+     * Queue the given Observation for creation. Returns immediately, unless
+     * the queue is full, in which case it blocks until there is space.
+     *
+     * @param observation The Observation to create.
+     * @throws InterruptedException if interrupted while waiting for space.
+     */
+    public void create(Entity observation) throws InterruptedException {
+        reserve();
+        try {
+            queue.put(observation);
+        } catch (InterruptedException ex) {
+            addPending(-1);
+            throw ex;
+        }
+    }
+
+    /**
+     * Queue the given Observation for creation, if the queue is not full.
+     *
+     * @param observation The Observation to create.
+     * @return true if the Observation was queued, false if the queue is full.
+     */
+    public boolean offer(Entity observation) {
+        reserve();
+        if (queue.offer(observation)) {
+            return true;
+        }
+        addPending(-1);
+        return false;
+    }
+
+    /**
+     * The number of Observations that are queued or being sent.
+     *
+     * @return The number of Observations not yet created.
+     */
+    public synchronized int getPending() {
+        return pending;
+    }
+
+    /**
+     * Send all queued Observations, and wait until they and all batches that
+     * are being sent are done. A batch a worker is still collecting is sent
+     * once it is full or reaches the maximum age.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void flush() throws InterruptedException {
+        if (!started) {
+            return;
+        }
+        sendQueued();
+        synchronized (this) {
+            while (pending > 0) {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * Send all queued Observations and stop the workers. Observations can no
+     * longer be added after the buffer is closed.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (!started) {
+            return;
+        }
+        // Adds that passed checkOpen before closed was set may still be
+        // putting their Observation in the queue, and workers stop taking
+        // from the queue, so keep draining until nothing is pending.
+        while (true) {
+            sendQueued();
+            synchronized (this) {
+                if (pending == 0) {
+                    break;
+                }
+                wait(maxAgeMs);
+            }
+        }
+        synchronized (this) {
+            while (running > 0) {
+                wait();
+            }
+        }
+    }
+
+    private void sendQueued() {
+        List<Entity> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            send(batch);
+            batch = new ArrayList<>(batchSize);
+        }
+    }
+
+    /**
+     * Checks the buffer is open, and counts one more pending Observation,
+     * under the same lock close uses to close the buffer.
+     */
+    private synchronized void reserve() {
+        checkOpen();
+        ensureStarted();
+        pending++;
+    }
+
+    private synchronized void ensureStarted() {
+        if (started) {
+            return;
+        }
+        queue = new LinkedBlockingQueue<>(capacity);
+        running = concurrency;
+        for (int i = 0; i < concurrency; i++) {
+            service.getExecutor().execute(this::work);
+        }
+        started = true;
+    }
+
+    private void work() {
+        List<Entity> batch = new ArrayList<>(batchSize);
+        try {
+            while (!closed) {
+                collectBatch(batch);
+                if (!batch.isEmpty()) {
+                    send(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        } catch (InterruptedException ex) {
+            LOGGER.warn("Observation buffer worker interrupted.");
+            handBack(batch, ex);
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                running--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the Observations of a batch that a worker collected but did not
+     * send to the queue, or to the failure handler if the queue is full.
+     */
+    private void handBack(List<Entity> batch, Exception reason) {
+        final List<Entity> rejected = new ArrayList<>();
+        for (Entity observation : batch) {
+            if (!queue.offer(observation)) {
+                rejected.add(observation);
+            }
+        }
+        if (!rejected.isEmpty()) {
+            reportFailure(rejected, reason);
+            addPending(-rejected.size());
+        }
+    }
+
+    /**
+     * Waits for the first Observation, and then collects more into the given
+     * batch until it is full or the maximum age is reached.
+     */
+    private void collectBatch(List<Entity> batch) throws InterruptedException {
+        final Entity first = queue.poll(maxAgeMs, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+        while (batch.size() < batchSize && !closed) {
+            queue.drainTo(batch, batchSize - batch.size());
+            if (batch.size() >= batchSize) {
+                break;
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            final Entity next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void send(List<Entity> batch) {
+        try {
+            if (useDataArray) {
+                final List<Entity> failed = new DataArrayUploader(service)
+                        .addAll(batch)
+                        .upload();
+                if (!failed.isEmpty()) {
+                    reportFailure(failed, new ServiceFailureException("Server rejected " + failed.size() + " of " + batch.size() + " Observations."));
+                }
+            } else {
+                sendOneByOne(batch);
+            }
+        } catch (ServiceFailureException | RuntimeException ex) {
+            reportFailure(batch, ex);
+        } finally {
+            addPending(-batch.size());
+        }
+    }
+
+    private void sendOneByOne(List<Entity> batch) {
+        for (Entity observation : batch) {
+            try {
+                observationDao.create(observation);
+            } catch (ServiceFailureException | RuntimeException ex) {
+                reportFailure(Collections.singletonList(observation), ex);
+            }
+        }
+    }
+
+    private void reportFailure(List<Entity> observations, Exception ex) {
+        try {
+            failureHandler.accept(observations, ex);
+        } catch (RuntimeException handlerEx) {
+            LOGGER.error("Failure handler threw an exception.", handlerEx);
+        }
+    }
+
+    private synchronized void addPending(int delta) {
+        pending += delta;
+        if (pending == 0) {
+            notifyAll();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Observation buffer is closed.");
+        }
+    }
+
+    private void checkNotStarted() {
+        if (started) {
+            throw new IllegalStateException("Observation buffer is already started.");
+        }
+    }
+
+    private static int requirePositive(String name, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " must be > 0, got " + value);
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.dao;
+
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Creates entities with up to a fixed number of create requests in flight at
+ * the same time. When the window is full, {@link #create(Entity)} blocks
+ * until one of the requests in flight completes, so a fast producer can not
+ * overwhelm the server.
+ *
+ * When ordered, the futures returned by {@link #create(Entity)} complete in
+ * the order the entities were submitted, also when the server answers out of
+ * order. This allows a consumer to create children of an entity as soon as
+ * the future of the parent completes. Results that wait for an earlier
+ * result count against the window, so one slow request can hold back at most
+ * window - 1 later results.
+ */
+public class PipelinedWriter implements AutoCloseable {
+
+    private final Function<Entity, CompletableFuture<Entity>> creator;
+    private final int window;
+    private final boolean ordered;
+    private final Semaphore permits;
+
+    /**
+     * The delivered future of the last submitted entity, used to chain
+     * ordered completions.
+     */
+    private CompletableFuture<?> lastDelivered = CompletableFuture.completedFuture(null);
+
+    /**
+     * Creates a writer that uses the given non-blocking Dao.
+     *
+     * @param dao The Dao to create the entities with.
+     * @param window The maximum number of requests in flight.
+     * @param ordered Whether completions are delivered in submission order.
+     */
+    public PipelinedWriter(AsyncDao dao, int window, boolean ordered) {
+        this(dao::create, window, ordered);
+    }
+
+    /**
+     * Creates a writer that uses the given blocking Dao, running each create
+     * request on the executor of the service.
+     *
+     * @param dao The Dao to create the entities with.
+     * @param window The maximum number of requests in flight.
+     * @param ordered Whether completions are delivered in submission order.
+     */
+    public PipelinedWriter(Dao dao, int window, boolean ordered) {
+        this(entity -> dao.getService().submit(() -> dao.create(entity)), window, ordered);
+    }
+
+    private PipelinedWriter(Function<Entity, CompletableFuture<Entity>> creator, int window, boolean ordered) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be > 0, got " + window);
+        }
+        this.creator = creator;
+        this.window = window;
+        this.ordered = ordered;
+        this.permits = new Semaphore(window);
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * The number of create requests currently in flight. When ordered, this
+     * includes completed requests whose results wait for the delivery of an
+     * earlier result.
+     *
+     * @return The number of create requests in flight.
+     */
+    public int getInFlight() {
+        return window - permits.availablePermits();
+    }
+
+    /**
+     * Send a create request for the given entity. Blocks while the window is
+     * full.
+     *
+     * @param entity The entity to create.
+     * @return A future that completes with the created entity. Failures are
+     * reported as in {@link AsyncDao#create(Entity)}.
+     * @throws InterruptedException if interrupted while waiting for a free
+     * slot in the window.
+     */
+    public CompletableFuture<Entity> create(Entity entity) throws InterruptedException {
+        permits.acquire();
+        synchronized (this) {
+            final CompletableFuture<Entity> request;
+            try {
+                request = creator.apply(entity);
+            } catch (RuntimeException ex) {
+                permits.release();
+                throw ex;
+            }
+            if (!ordered) {
+                request.whenComplete((result, failure) -> permits.release());
+                return request;
+            }
+            // The permit is held until the result is delivered, so results
+            // that wait for an earlier, slower request count against the
+            // window.
+            final CompletableFuture<Entity> delivered = lastDelivered
+                    .handle((result, failure) -> null)
+                    .thenCompose(ignored -> request);
+            delivered.whenComplete((result, failure) -> permits.release());
+            lastDelivered = delivered;
+            return delivered;
+        }
+    }
+
+    /**
+     * Wait until all submitted create requests are completed, successfully or
+     * not.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void awaitAll() throws InterruptedException {
+        permits.acquire(window);
+        permits.release(window);
+        final CompletableFuture<?> current;
+        synchronized (this) {
+            current = lastDelivered;
+        }
+        current.handle((result, failure) -> null).join();
+    }
+
+    /**
+     * Wait until all submitted create requests are completed.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        awaitAll();
+    }
+
+}
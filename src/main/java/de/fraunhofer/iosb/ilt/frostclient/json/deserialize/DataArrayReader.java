@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.json.deserialize;
+
+import de.fraunhofer.iosb.ilt.frostclient.models.ext.DataArrayBatch;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonParser.NumberType;
+import tools.jackson.core.JsonToken;
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * Reads a page of Observations in the dataArray result format, streaming,
+ * into one {@link DataArrayBatch} per Datastream or MultiDatastream.
+ */
+public class DataArrayReader {
+
+    private static final String FIELD_VALUE = "value";
+    private static final String FIELD_COMPONENTS = "components";
+    private static final String FIELD_DATA_ARRAY = "dataArray";
+    private static final String PREFIX_MULTI_DATASTREAM = "MultiDatastream@";
+    private static final String PREFIX_DATASTREAM = "Datastream@";
+
+    private final ObjectMapper mapper;
+
+    public DataArrayReader(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Read one page in the dataArray format from the given stream, and add
+     * the batches in it to the given list. The stream is closed when parsing
+     * is done.
+     *
+     * @param value The stream to read the JSON from.
+     * @param batches The list to add the batches to.
+     * @return The nextLink of the page, or null if there is none.
+     * @throws IOException If reading or parsing fails.
+     */
+    public String readPage(InputStream value, List<DataArrayBatch> batches) throws IOException {
+        try (final JsonParser parser = mapper.createParser(value)) {
+            return readPage(parser, batches);
+        }
+    }
+
+    private String readPage(JsonParser parser, List<DataArrayBatch> batches) throws JacksonException {
+        String nextLink = null;
+        JsonToken token = parser.nextToken();
+        if (token != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Expected an object, found " + token);
+        }
+        token = parser.nextToken();
+        while (token == JsonToken.PROPERTY_NAME) {
+            final String fieldName = parser.currentName();
+            token = parser.nextToken();
+            if (FIELD_VALUE.equals(fieldName) && token == JsonToken.START_ARRAY) {
+                token = parser.nextToken();
+                while (token == JsonToken.START_OBJECT) {
+                    batches.add(readBatch(parser));
+                    token = parser.nextToken();
+                }
+            } else if (fieldName.endsWith("@iot.nextLink") || fieldName.endsWith("@nextLink")) {
+                nextLink = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+            token = parser.nextToken();
+        }
+        return nextLink;
+    }
+
+    private DataArrayBatch readBatch(JsonParser parser) throws JacksonException {
+        String navigationLink = null;
+        boolean multiDatastream = false;
+        final List<String> components = new ArrayList<>();
+        DataArrayBatch batch = null;
+        JsonToken token = parser.nextToken();
+        while (token == JsonToken.PROPERTY_NAME) {
+            final String fieldName = parser.currentName();
+            token = parser.nextToken();
+            if (FIELD_COMPONENTS.equals(fieldName) && token == JsonToken.START_ARRAY) {
+                token = parser.nextToken();
+                while (token == JsonToken.VALUE_STRING) {
+                    components.add(parser.getValueAsString());
+                    token = parser.nextToken();
+                }
+            } else if (FIELD_DATA_ARRAY.equals(fieldName) && token == JsonToken.START_ARRAY) {
+                batch = new DataArrayBatch(navigationLink, multiDatastream, components);
+                token = parser.nextToken();
+                while (token == JsonToken.START_ARRAY) {
+                    readRow(parser, batch);
+                    token = parser.nextToken();
+                }
+            } else if (fieldName.startsWith(PREFIX_MULTI_DATASTREAM) && token == JsonToken.VALUE_STRING) {
+                navigationLink = parser.getValueAsString();
+                multiDatastream = true;
+            } else if (fieldName.startsWith(PREFIX_DATASTREAM) && token == JsonToken.VALUE_STRING) {
+                navigationLink = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+            token = parser.nextToken();
+        }
+        if (batch == null) {
+            return new DataArrayBatch(navigationLink, multiDatastream, components);
+        }
+        if (Objects.equals(batch.getNavigationLink(), navigationLink) && batch.isMultiDatastream() == multiDatastream) {
+            return batch;
+        }
+        // The navigationLink came after the dataArray.
+        return new DataArrayBatch(navigationLink, multiDatastream, components).addAll(batch);
+    }
+
+    private void readRow(JsonParser parser, DataArrayBatch batch) throws JacksonException {
+        JsonToken token = parser.nextToken();
+        while (token != null && token != JsonToken.END_ARRAY) {
+            readValue(parser, token, batch);
+            token = parser.nextToken();
+        }
+        batch.endRow();
+    }
+
+    private void readValue(JsonParser parser, JsonToken token, DataArrayBatch batch) throws JacksonException {
+        switch (token) {
+            case VALUE_STRING:
+                batch.addValue(parser.getValueAsString());
+                break;
+            case VALUE_NUMBER_INT:
+                if (parser.getNumberType() == NumberType.BIG_INTEGER) {
+                    batch.addValue(parser.getBigIntegerValue());
+                } else {
+                    batch.addLong(parser.getLongValue());
+                }
+                break;
+            case VALUE_NUMBER_FLOAT:
+                batch.addDouble(parser.getDoubleValue());
+                break;
+            case VALUE_TRUE:
+                batch.addValue(Boolean.TRUE);
+                break;
+            case VALUE_FALSE:
+                batch.addValue(Boolean.FALSE);
+                break;
+            case VALUE_NULL:
+                batch.addValue(null);
+                break;
+            default:
+                batch.addValue(parser.readValueAs(Object.class));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.json.deserialize;
+
+import de.fraunhofer.iosb.ilt.frostclient.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostclient.model.ModelRegistry;
+import java.util.HashMap;
+import java.util.Map;
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * The object mapper and the entity (set) deserialisers for one
+ * ModelRegistry. Created once, when the registry is finalised, and held by
+ * the registry, so it lives exactly as long as the registry does.
+ *
+ * All fields are final and never modified after construction, so lookups
+ * are safe from any thread without locking.
+ */
+public class DeserializerRegistry {
+
+    private final ModelRegistry modelRegistry;
+    private final ObjectMapper mapper;
+    private final Map<EntityType, EntityDeserializer> entityDeserializers;
+    private final Map<EntityType, EntitySetDeserializer> entitySetDeserializers;
+
+    public DeserializerRegistry(ModelRegistry modelRegistry) {
+        this.modelRegistry = modelRegistry;
+        final Map<EntityType, EntityDeserializer> entityDesers = new HashMap<>();
+        final Map<EntityType, EntitySetDeserializer> entitySetDesers = new HashMap<>();
+        for (EntityType entityType : modelRegistry.getEntityTypes()) {
+            entityDesers.put(entityType, new EntityDeserializer(modelRegistry, entityType));
+            entitySetDesers.put(entityType, new EntitySetDeserializer(modelRegistry, entityType));
+        }
+        for (EntityDeserializer deserializer : entityDesers.values()) {
+            deserializer.resolve(entityDesers::get);
+        }
+        this.entityDeserializers = entityDesers;
+        this.entitySetDeserializers = entitySetDesers;
+        this.mapper = JsonReader.createObjectMapper();
+    }
+
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Get the deserialiser for entities of the given type. Types that are not
+     * part of the registry get a new, uncached deserialiser.
+     *
+     * @param entityType The type to get the deserialiser for.
+     * @return The deserialiser for the given type.
+     */
+    public EntityDeserializer getEntityDeserializer(EntityType entityType) {
+        final EntityDeserializer deserializer = entityDeserializers.get(entityType);
+        if (deserializer == null) {
+            return new EntityDeserializer(modelRegistry, entityType);
+        }
+        return deserializer;
+    }
+
+    /**
+     * Get the deserialiser for entity sets of the given type. Types that are
+     * not part of the registry get a new, uncached deserialiser.
+     *
+     * @param entityType The type to get the deserialiser for.
+     * @return The deserialiser for the given type.
+     */
+    public EntitySetDeserializer getEntitySetDeserializer(EntityType entityType) {
+        final EntitySetDeserializer deserializer = entitySetDeserializers.get(entityType);
+        if (deserializer == null) {
+            return new EntitySetDeserializer(modelRegistry, entityType);
+        }
+        return deserializer;
+    }
+}
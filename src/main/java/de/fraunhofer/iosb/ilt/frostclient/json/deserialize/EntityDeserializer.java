@@ -27,20 +27,22 @@ import de.fraunhofer.iosb.ilt.frostclient.model.EntitySet;
 import de.fraunhofer.iosb.ilt.frostclient.model.EntityType;
 import de.fraunhofer.iosb.ilt.frostclient.model.ModelRegistry;
 import de.fraunhofer.iosb.ilt.frostclient.model.Property;
-import de.fraunhofer.iosb.ilt.frostclient.model.PropertyType;
 import de.fraunhofer.iosb.ilt.frostclient.model.property.EntityPropertyMain;
 import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationProperty;
 import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationPropertyEntitySet;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
 import tools.jackson.core.JacksonException;
 import tools.jackson.core.JsonParser;
 import tools.jackson.core.JsonToken;
 import tools.jackson.databind.DeserializationContext;
 import tools.jackson.databind.DeserializationFeature;
 import tools.jackson.databind.ValueDeserializer;
-import tools.jackson.databind.ValueSerializer;
 import tools.jackson.databind.exc.UnrecognizedPropertyException;
 
 /**
@@ -48,48 +50,92 @@ import tools.jackson.databind.exc.UnrecognizedPropertyException;
  */
 public class EntityDeserializer extends ValueDeserializer<Entity> {
 
-    private static final Map<ModelRegistry, Map<EntityType, EntityDeserializer>> instancePerModelAndType = new HashMap<>();
-
     public static EntityDeserializer getInstance(final ModelRegistry modelRegistry, final EntityType entityType) {
-        return instancePerModelAndType
-                .computeIfAbsent(
-                        modelRegistry,
-                        t -> new HashMap<>())
-                .computeIfAbsent(entityType,
-                        t -> new EntityDeserializer(modelRegistry, t));
+        return modelRegistry.getDeserializers().getEntityDeserializer(entityType);
     }
 
+    /**
+     * The suffixes of the annotations that hold the count of an entity set.
+     */
+    private static final String[] COUNT_SUFFIXES = {"@iot.count", "@count"};
+    /**
+     * The suffixes of the annotations that hold the nextLink of an entity set.
+     */
+    private static final String[] NEXT_LINK_SUFFIXES = {"@iot.nextLink", "@nextLink"};
+
     private final EntityType entityType;
     private final ModelRegistry modelRegistry;
-    private final Map<String, PropertyData> propertyByName = new HashMap<>();
+    /**
+     * The reader for each json field name that can appear in an entity of
+     * this type, including the count and nextLink annotations of entity sets.
+     */
+    private final Map<String, PropertyReader> readerByName = new HashMap<>();
+    private final Set<String> propertyNames = new TreeSet<>();
+    /**
+     * The deserialisers of the navigation properties, bound by resolve.
+     */
+    private final List<Target> targets = new ArrayList<>();
 
     public EntityDeserializer(ModelRegistry modelRegistry, EntityType entityType) {
         this.modelRegistry = modelRegistry;
         this.entityType = entityType;
-        final Set<Property> propertySet;
-        propertySet = entityType.getPropertySet();
-
-        for (Property property : propertySet) {
-            if (property instanceof EntityPropertyMain) {
-                final PropertyType type = property.getType();
-                final PropertyData propertyData = new PropertyData(
-                        property,
-                        false,
-                        type.getDeserializer(),
-                        type.getSerializer());
-                for (String alias : ((EntityPropertyMain<?>) property).getAliases()) {
-                    propertyByName.put(alias, propertyData);
+        for (Property property : entityType.getPropertySet()) {
+            if (property instanceof EntityPropertyMain<?> epm) {
+                final PropertyReader reader = createReader(epm);
+                for (String alias : epm.getAliases()) {
+                    readerByName.put(alias, reader);
+                    propertyNames.add(alias);
+                }
+            } else if (property instanceof NavigationPropertyEntitySet npes) {
+                final String jsonName = npes.getJsonName();
+                final Target target = addTarget(npes.getEntityType());
+                readerByName.put(jsonName, (parser, ctxt, result) -> deserialiseEntitySet(parser, ctxt, target.get(), result.getOrCreateEntitySet(npes)));
+                propertyNames.add(jsonName);
+                for (String suffix : COUNT_SUFFIXES) {
+                    readerByName.put(jsonName + suffix, (parser, ctxt, result) -> result.getOrCreateEntitySet(npes).setCount(parser.getLongValue()));
+                }
+                for (String suffix : NEXT_LINK_SUFFIXES) {
+                    readerByName.put(jsonName + suffix, (parser, ctxt, result) -> result.getOrCreateEntitySet(npes).setNextLink(parser.getValueAsString()));
                 }
             } else if (property instanceof NavigationProperty np) {
-                propertyByName.put(
-                        property.getJsonName(),
-                        new PropertyData(
-                                property,
-                                np.isEntitySet()));
+                final Target target = addTarget(np.getEntityType());
+                readerByName.put(np.getJsonName(), (parser, ctxt, result) -> result.setProperty(np, target.get().deserialize(parser, ctxt)));
+                propertyNames.add(np.getJsonName());
             }
         }
     }
 
+    private Target addTarget(EntityType targetType) {
+        final Target target = new Target(targetType);
+        targets.add(target);
+        return target;
+    }
+
+    /**
+     * Binds the deserialisers of the entities of all navigation properties,
+     * so nested entities are read without looking up their deserialiser.
+     * Called once, when the DeserializerRegistry is created.
+     *
+     * @param lookup The lookup for the deserialiser of an entity type.
+     */
+    void resolve(Function<EntityType, EntityDeserializer> lookup) {
+        for (Target target : targets) {
+            target.deserializer = lookup.apply(target.entityType);
+        }
+    }
+
+    /**
+     * Creates the reader for the given entity property, binding the value
+     * deserialiser of the property type once, instead of for each value.
+     */
+    private static PropertyReader createReader(EntityPropertyMain property) {
+        final ValueDeserializer deserializer = property.getType().getDeserializer();
+        if (deserializer == null) {
+            return (parser, ctxt, result) -> result.setProperty(property, parser.readValueAs(Object.class));
+        }
+        return (parser, ctxt, result) -> result.setProperty(property, deserializer.deserialize(parser, ctxt));
+    }
+
     /**
      * Deserialises an Entity, consuming the Object start and end tokens.
      *
@@ -109,104 +155,37 @@ public class EntityDeserializer extends ValueDeserializer<Entity> {
     public Entity deserialize(JsonParser parser, DeserializationContext ctxt) throws JacksonException {
         Entity result = new Entity(entityType);
 
-        boolean failOnUnknown = ctxt.isEnabled(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
-
         JsonToken currentToken = parser.nextToken();
         while (currentToken == JsonToken.PROPERTY_NAME) {
             String fieldName = parser.currentName();
             parser.nextValue();
-            if (fieldName.endsWith("@iot.count") || fieldName.endsWith("@count")) {
-                deserialiseEntitySetCount(parser, fieldName, result);
-            } else if (fieldName.endsWith("@iot.nextLink") || fieldName.endsWith("@nextLink")) {
-                deserialiseEntitySetNextLink(parser, fieldName, result);
+            PropertyReader reader = readerByName.get(fieldName);
+            if (reader == null) {
+                handleUnknown(parser, ctxt, fieldName);
             } else {
-                PropertyData propertyData = propertyByName.get(fieldName);
-                if (propertyData == null) {
-                    if (failOnUnknown) {
-                        final String message = "Unknown field: " + fieldName + " on " + entityType.name + " expected one of: " + propertyByName.keySet();
-                        throw new UnrecognizedPropertyException(parser, message, parser.currentLocation(), Entity.class, fieldName, null);
-                    } else {
-                        parser.readValueAsTree();
-                    }
-                } else {
-                    deserializeProperty(parser, ctxt, result, propertyData);
-                }
+                reader.read(parser, ctxt, result);
             }
             currentToken = parser.nextToken();
         }
 
-        return result;
-    }
-
-    private void deserializeProperty(JsonParser parser, DeserializationContext ctxt, Entity result, PropertyData propertyData) throws JacksonException {
-        if (propertyData.property instanceof EntityPropertyMain) {
-            deserializeEntityProperty(parser, ctxt, propertyData, result);
-        } else if (propertyData.property instanceof NavigationProperty) {
-            deserializeNavigationProperty(propertyData, result, parser, ctxt);
-        }
-    }
-
-    private void deserializeNavigationProperty(PropertyData propertyData, Entity result, JsonParser parser, DeserializationContext ctxt) throws JacksonException {
-        NavigationProperty navPropertyMain = (NavigationProperty) propertyData.property;
-        if (propertyData.isEntitySet) {
-            deserialiseEntitySet(parser, ctxt, (NavigationPropertyEntitySet) navPropertyMain, result);
-        } else {
-            final EntityType targetEntityType = navPropertyMain.getEntityType();
-            Object value = getInstance(modelRegistry, targetEntityType)
-                    .deserialize(parser, ctxt);
-            result.setProperty(navPropertyMain, value);
-        }
-    }
-
-    private void deserializeEntityProperty(JsonParser parser, DeserializationContext ctxt, PropertyData propertyData, Entity result) throws JacksonException {
-        EntityPropertyMain entityPropertyMain = (EntityPropertyMain) propertyData.property;
-        if (propertyData.deserializer == null) {
-            Object value = parser.readValueAs(Object.class);
-            result.setProperty(entityPropertyMain, value);
-        } else {
-            Object value = propertyData.deserializer.deserialize(parser, ctxt);
-            result.setProperty(entityPropertyMain, value);
-        }
-    }
-
-    private void deserialiseEntitySetCount(JsonParser parser, String fieldName, Entity result) throws JacksonException {
-        PropertyData propertyData = propertyByName.get(fieldName.substring(0, fieldName.indexOf('@')));
-        if (propertyData == null) {
-            return;
-        }
-        if (propertyData.property instanceof NavigationPropertyEntitySet npes) {
-            EntitySet entitySet = result.getProperty(npes);
-            if (entitySet == null) {
-                entitySet = new EntitySet(result, npes);
-                result.setProperty(npes, entitySet);
-            }
-            entitySet.setCount(parser.getLongValue());
-        }
+        return result.clearChanges();
     }
 
-    private void deserialiseEntitySetNextLink(JsonParser parser, String fieldName, Entity result) throws JacksonException {
-        PropertyData propertyData = propertyByName.get(fieldName.substring(0, fieldName.indexOf('@')));
-        if (propertyData == null) {
+    private void handleUnknown(JsonParser parser, DeserializationContext ctxt, String fieldName) throws JacksonException {
+        final boolean isAnnotation = fieldName.endsWith("@iot.count") || fieldName.endsWith("@count")
+                || fieldName.endsWith("@iot.nextLink") || fieldName.endsWith("@nextLink");
+        if (isAnnotation) {
+            // Annotation on an unknown entity set.
             return;
         }
-        if (propertyData.property instanceof NavigationPropertyEntitySet npes) {
-            EntitySet entitySet = result.getProperty(npes);
-            if (entitySet == null) {
-                entitySet = new EntitySet(result, npes);
-                result.setProperty(npes, entitySet);
-            }
-            entitySet.setNextLink(parser.getValueAsString());
+        if (ctxt.isEnabled(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)) {
+            final String message = "Unknown field: " + fieldName + " on " + entityType.name + " expected one of: " + propertyNames;
+            throw new UnrecognizedPropertyException(parser, message, parser.currentLocation(), Entity.class, fieldName, null);
         }
+        parser.readValueAsTree();
     }
 
-    private void deserialiseEntitySet(JsonParser parser, DeserializationContext ctxt, NavigationPropertyEntitySet navProperty, Entity result) throws JacksonException {
-        final EntityType setType = navProperty.getEntityType();
-        EntitySet entitySet = result.getProperty(navProperty);
-        if (entitySet == null) {
-            entitySet = new EntitySet(result, navProperty);
-            result.setProperty(navProperty, entitySet);
-        }
-        EntityDeserializer setEntityDeser = getInstance(modelRegistry, setType);
+    private static void deserialiseEntitySet(JsonParser parser, DeserializationContext ctxt, EntityDeserializer setEntityDeser, EntitySet entitySet) throws JacksonException {
         JsonToken curToken = parser.nextToken();
         while (curToken != null && curToken != JsonToken.END_ARRAY) {
             entitySet.add(setEntityDeser.deserialize(parser, ctxt));
@@ -214,23 +193,38 @@ public class EntityDeserializer extends ValueDeserializer<Entity> {
         }
     }
 
-    private static class PropertyData {
+    /**
+     * The deserialiser for the entities of one navigation property. Bound by
+     * {@link #resolve(Function)}, or looked up on first use for deserialisers
+     * that are not part of a DeserializerRegistry.
+     */
+    private class Target {
 
-        final Property property;
-        final boolean isEntitySet;
-        final ValueDeserializer deserializer;
-        final ValueSerializer serializer;
+        private final EntityType entityType;
+        private EntityDeserializer deserializer;
 
-        public PropertyData(Property property, boolean isEntitySet) {
-            this(property, isEntitySet, null, null);
+        private Target(EntityType entityType) {
+            this.entityType = entityType;
         }
 
-        public PropertyData(Property property, boolean isEntitySet, ValueDeserializer deserializer, ValueSerializer serializer) {
-            this.property = property;
-            this.isEntitySet = isEntitySet;
-            this.deserializer = deserializer;
-            this.serializer = serializer;
+        private EntityDeserializer get() {
+            EntityDeserializer result = deserializer;
+            if (result == null) {
+                result = getInstance(modelRegistry, entityType);
+                deserializer = result;
+            }
+            return result;
         }
+    }
+
+    /**
+     * Reads the value of one property from the parser into the entity. The
+     * reader for each property is chosen once, when the deserialiser is
+     * created, so parsing a field takes a single map lookup.
+     */
+    @FunctionalInterface
+    private interface PropertyReader {
 
+        void read(JsonParser parser, DeserializationContext ctxt, Entity result) throws JacksonException;
     }
 }
@@ -22,12 +22,12 @@
  */
 package de.fraunhofer.iosb.ilt.frostclient.json.deserialize;
 
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
 import de.fraunhofer.iosb.ilt.frostclient.model.EntitySet;
 import de.fraunhofer.iosb.ilt.frostclient.model.EntityType;
 import de.fraunhofer.iosb.ilt.frostclient.model.ModelRegistry;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.function.Consumer;
 import tools.jackson.core.JacksonException;
 import tools.jackson.core.JsonParser;
 import tools.jackson.core.JsonToken;
@@ -41,15 +41,8 @@ import tools.jackson.databind.exc.UnrecognizedPropertyException;
  */
 public class EntitySetDeserializer extends ValueDeserializer<EntitySet> {
 
-    private static final Map<ModelRegistry, Map<EntityType, EntitySetDeserializer>> instancePerModelAndType = new HashMap<>();
-
     public static EntitySetDeserializer getInstance(final ModelRegistry modelRegistry, final EntityType entityType) {
-        return instancePerModelAndType
-                .computeIfAbsent(
-                        modelRegistry,
-                        t -> new HashMap<>())
-                .computeIfAbsent(entityType,
-                        t -> new EntitySetDeserializer(modelRegistry, t));
+        return modelRegistry.getDeserializers().getEntitySetDeserializer(entityType);
     }
 
     private final EntityType entityType;
@@ -76,9 +69,34 @@ public class EntitySetDeserializer extends ValueDeserializer<EntitySet> {
         return result;
     }
 
+    /**
+     * Deserialises an EntitySet result, consuming the Object start and end
+     * tokens, and passing each Entity to the given consumer as soon as it is
+     * parsed, instead of adding it to the result.
+     *
+     * @param parser The parser to fetch tokens from.
+     * @param ctxt The context to fetch settings from.
+     * @param consumer The consumer that receives the entities.
+     * @return The deserialised EntitySet, holding only the count and
+     * nextLink.
+     * @throws IOException If deserialisation fails.
+     */
+    public EntitySet deserializeFull(JsonParser parser, DeserializationContext ctxt, Consumer<Entity> consumer) throws IOException {
+        parser.nextToken();
+        EntitySet result = new EntitySet(entityType);
+        deserialize(parser, ctxt, result, consumer);
+        parser.nextToken();
+        return result;
+    }
+
     @Override
     public EntitySet deserialize(JsonParser parser, DeserializationContext ctxt) throws JacksonException {
         EntitySet result = new EntitySet(entityType);
+        deserialize(parser, ctxt, result, result::add);
+        return result;
+    }
+
+    private void deserialize(JsonParser parser, DeserializationContext ctxt, EntitySet result, Consumer<Entity> consumer) throws JacksonException {
 
         boolean failOnUnknown = ctxt.isEnabled(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
 
@@ -91,22 +109,20 @@ public class EntitySetDeserializer extends ValueDeserializer<EntitySet> {
             } else if (fieldName.endsWith("nextLink")) {
                 result.setNextLink(parser.readValueAs(String.class));
             } else if ("value".equals(fieldName)) {
-                deserialiseEntitySet(parser, ctxt, result);
+                deserialiseEntitySet(parser, ctxt, consumer);
             } else if (failOnUnknown) {
                 final String message = "Unknown field: " + fieldName + " on " + entityType.name + " set.";
                 throw new UnrecognizedPropertyException(parser, message, parser.currentLocation(), EntitySet.class, fieldName, null);
             }
             currentToken = parser.nextToken();
         }
-
-        return result;
     }
 
-    private void deserialiseEntitySet(JsonParser parser, DeserializationContext ctxt, EntitySet targetSet) throws JacksonException {
-        EntityDeserializer entityDeser = EntityDeserializer.getInstance(modelRegistry, targetSet.getEntityType());
+    private void deserialiseEntitySet(JsonParser parser, DeserializationContext ctxt, Consumer<Entity> consumer) throws JacksonException {
+        EntityDeserializer entityDeser = EntityDeserializer.getInstance(modelRegistry, entityType);
         JsonToken curToken = parser.nextToken();
         while (curToken != null && curToken != JsonToken.END_ARRAY) {
-            targetSet.add(entityDeser.deserialize(parser, ctxt));
+            consumer.accept(entityDeser.deserialize(parser, ctxt));
             curToken = parser.nextToken();
         }
     }
@@ -30,9 +30,9 @@ import de.fraunhofer.iosb.ilt.frostclient.models.ext.TimeInstant;
 import de.fraunhofer.iosb.ilt.frostclient.models.ext.TimeInterval;
 import de.fraunhofer.iosb.ilt.frostclient.models.ext.TimeValue;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.function.Consumer;
 import net.time4j.Moment;
 import tools.jackson.core.JsonParser;
 import tools.jackson.core.type.TypeReference;
@@ -50,33 +50,12 @@ import tools.jackson.databind.module.SimpleModule;
 public class JsonReader {
 
     /**
-     * The mappers to use for normal users.
-     */
-    private static final Map<ModelRegistry, ObjectMapper> mappers = new HashMap<>();
-
-    /**
-     * Get an object mapper for the given id Class. If the id class is the same
-     * as for the first call, the cached mapper is returned.
+     * Create a new object mapper. Each ModelRegistry holds its own mapper, see
+     * {@link ModelRegistry#getDeserializers()}.
      *
-     * @param modelRegistry The modelRegistry holding the data model to get a
-     * mapper for.
-     * @return The cached or created object mapper.
-     */
-    private static ObjectMapper getObjectMapper(ModelRegistry modelRegistry) {
-        return mappers.computeIfAbsent(modelRegistry, mr -> createObjectMapper(mr));
-    }
-
-    /**
-     * Create a new object mapper for the given model Registry.
-     *
-     * @param modelRegistry The modelRegistry holding the data model to create a
-     * mapper for.
      * @return The created object mapper.
      */
-    private static ObjectMapper createObjectMapper(ModelRegistry modelRegistry) {
-        for (EntityType entityType : modelRegistry.getEntityTypes()) {
-            EntityDeserializer.getInstance(modelRegistry, entityType);
-        }
+    static ObjectMapper createObjectMapper() {
         SimpleModule module = new SimpleModule()
                 .addDeserializer(TimeInstant.class, new TimeInstantDeserializer())
                 .addDeserializer(TimeInterval.class, new TimeIntervalDeserializer())
@@ -104,11 +83,13 @@ public class JsonReader {
     /**
      * Create a JsonReader.
      *
-     * @param modelRegistry the model registry to create the json reader for.
+     * @param modelRegistry the model registry to create the json reader for,
+     * must be finalised.
+     * @throws IllegalStateException if the registry is not finalised.
      */
     public JsonReader(ModelRegistry modelRegistry) {
         this.modelRegistry = modelRegistry;
-        mapper = getObjectMapper(modelRegistry);
+        mapper = modelRegistry.getDeserializers().getMapper();
     }
 
     public ObjectMapper getMapper() {
@@ -139,6 +120,23 @@ public class JsonReader {
         }
     }
 
+    /**
+     * Parse an entity directly from the given stream, without buffering the
+     * content as text first. The stream is closed when parsing is done.
+     *
+     * @param entityType The type of the entity.
+     * @param value The stream to read the JSON from.
+     * @return The parsed entity.
+     * @throws IOException If reading or parsing fails.
+     */
+    public Entity parseEntity(EntityType entityType, InputStream value) throws IOException {
+        try (final JsonParser parser = mapper.createParser(value)) {
+            return parseEntity(parser, entityType);
+        } catch (StackOverflowError err) {
+            throw new IOException("Json is too deeply nested.");
+        }
+    }
+
     private Entity parseEntity(final JsonParser parser, EntityType entityType) throws IOException {
         DeserializationContext dsc = mapper._deserializationContext();
         return EntityDeserializer.getInstance(modelRegistry, entityType)
@@ -165,6 +163,47 @@ public class JsonReader {
         }
     }
 
+    /**
+     * Parse an entity set directly from the given stream, without buffering
+     * the content as text first. The stream is closed when parsing is done.
+     *
+     * @param entityType The type of the entities in the set.
+     * @param value The stream to read the JSON from.
+     * @return The parsed entity set.
+     * @throws IOException If reading or parsing fails.
+     */
+    public EntitySet parseEntitySet(EntityType entityType, InputStream value) throws IOException {
+        try (final JsonParser parser = mapper.createParser(value)) {
+            DeserializationContext dsc = mapper._deserializationContext();
+            return EntitySetDeserializer.getInstance(modelRegistry, entityType)
+                    .deserializeFull(parser, dsc);
+        } catch (StackOverflowError err) {
+            throw new IOException("Json is too deeply nested.");
+        }
+    }
+
+    /**
+     * Parse an entity set directly from the given stream, handing each entity
+     * to the given consumer as soon as it is parsed. The entities are not
+     * added to the returned set, that only holds the count and nextLink. The
+     * stream is closed when parsing is done.
+     *
+     * @param entityType The type of the entities in the set.
+     * @param value The stream to read the JSON from.
+     * @param consumer The consumer that receives the entities.
+     * @return The parsed entity set, without entities.
+     * @throws IOException If reading or parsing fails.
+     */
+    public EntitySet parseEntitySet(EntityType entityType, InputStream value, Consumer<Entity> consumer) throws IOException {
+        try (final JsonParser parser = mapper.createParser(value)) {
+            DeserializationContext dsc = mapper._deserializationContext();
+            return EntitySetDeserializer.getInstance(modelRegistry, entityType)
+                    .deserializeFull(parser, dsc, consumer);
+        } catch (StackOverflowError err) {
+            throw new IOException("Json is too deeply nested.");
+        }
+    }
+
     public <T> T parseObject(Class<T> clazz, String value) throws IOException {
         return mapper.readValue(value, clazz);
     }
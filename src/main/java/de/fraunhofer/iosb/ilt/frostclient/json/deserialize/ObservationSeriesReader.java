@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.json.deserialize;
+
+import static de.fraunhofer.iosb.ilt.frostclient.model.property.type.TypeComplex.NAME_INTERVAL_END;
+import static de.fraunhofer.iosb.ilt.frostclient.model.property.type.TypeComplex.NAME_INTERVAL_START;
+import static de.fraunhofer.iosb.ilt.frostclient.models.ext.ObservationSeries.NO_TIME;
+
+import de.fraunhofer.iosb.ilt.frostclient.models.ext.ObservationSeries;
+import java.io.IOException;
+import java.io.InputStream;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * Reads a page of Observations directly into an {@link ObservationSeries},
+ * without creating an Entity, or time objects, per Observation. Only the
+ * phenomenonTime, resultTime and result fields are read, all other fields are
+ * skipped.
+ */
+public class ObservationSeriesReader {
+
+    private static final String FIELD_VALUE = "value";
+    private static final String FIELD_PHENOMENON_TIME = "phenomenonTime";
+    private static final String FIELD_RESULT_TIME = "resultTime";
+    private static final String FIELD_RESULT = "result";
+
+    private final ObjectMapper mapper;
+
+    public ObservationSeriesReader(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Read one page of Observations from the given stream, and add them to the
+     * given series. The stream is closed when parsing is done.
+     *
+     * @param value The stream to read the JSON from.
+     * @param series The series to add the Observations to.
+     * @return The nextLink of the page, or null if there is none.
+     * @throws IOException If reading or parsing fails.
+     */
+    public String readPage(InputStream value, ObservationSeries series) throws IOException {
+        try (final JsonParser parser = mapper.createParser(value)) {
+            return readPage(parser, series);
+        }
+    }
+
+    private String readPage(JsonParser parser, ObservationSeries series) throws JacksonException {
+        String nextLink = null;
+        JsonToken token = parser.nextToken();
+        if (token != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Expected an object, found " + token);
+        }
+        token = parser.nextToken();
+        while (token == JsonToken.PROPERTY_NAME) {
+            final String fieldName = parser.currentName();
+            token = parser.nextToken();
+            if (FIELD_VALUE.equals(fieldName) && token == JsonToken.START_ARRAY) {
+                token = parser.nextToken();
+                while (token == JsonToken.START_OBJECT) {
+                    readObservation(parser, series);
+                    token = parser.nextToken();
+                }
+            } else if (fieldName.endsWith("@iot.nextLink") || fieldName.endsWith("@nextLink")) {
+                nextLink = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+            token = parser.nextToken();
+        }
+        return nextLink;
+    }
+
+    private void readObservation(JsonParser parser, ObservationSeries series) throws JacksonException {
+        long ptStart = NO_TIME;
+        long ptEnd = NO_TIME;
+        long resultTime = NO_TIME;
+        double result = Double.NaN;
+        JsonToken token = parser.nextToken();
+        while (token == JsonToken.PROPERTY_NAME) {
+            final String fieldName = parser.currentName();
+            token = parser.nextToken();
+            switch (fieldName) {
+                case FIELD_PHENOMENON_TIME:
+                    if (token == JsonToken.VALUE_STRING) {
+                        final long[] interval = ObservationSeries.parseTimeValue(parser.getValueAsString());
+                        ptStart = interval[0];
+                        ptEnd = interval[1];
+                    } else if (token == JsonToken.START_OBJECT) {
+                        final long[] interval = readIntervalObject(parser);
+                        ptStart = interval[0];
+                        ptEnd = interval[1] == NO_TIME ? interval[0] : interval[1];
+                    }
+                    break;
+
+                case FIELD_RESULT_TIME:
+                    if (token == JsonToken.VALUE_STRING) {
+                        resultTime = ObservationSeries.parseEpochNanos(parser.getValueAsString());
+                    }
+                    break;
+
+                case FIELD_RESULT:
+                    if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+                        result = parser.getDoubleValue();
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+
+                default:
+                    parser.skipChildren();
+            }
+            token = parser.nextToken();
+        }
+        series.add(ptStart, ptEnd, resultTime, result);
+    }
+
+    private long[] readIntervalObject(JsonParser parser) throws JacksonException {
+        final long[] interval = {NO_TIME, NO_TIME};
+        JsonToken token = parser.nextToken();
+        while (token == JsonToken.PROPERTY_NAME) {
+            final String fieldName = parser.currentName();
+            token = parser.nextToken();
+            if (token == JsonToken.VALUE_STRING && NAME_INTERVAL_START.equals(fieldName)) {
+                interval[0] = ObservationSeries.parseEpochNanos(parser.getValueAsString());
+            } else if (token == JsonToken.VALUE_STRING && NAME_INTERVAL_END.equals(fieldName)) {
+                interval[1] = ObservationSeries.parseEpochNanos(parser.getValueAsString());
+            } else {
+                parser.skipChildren();
+            }
+            token = parser.nextToken();
+        }
+        return interval;
+    }
+}
@@ -38,8 +38,11 @@ import de.fraunhofer.iosb.ilt.frostclient.query.Query;
 import de.fraunhofer.iosb.ilt.frostclient.utils.MqttSubscription;
 import de.fraunhofer.iosb.ilt.frostclient.utils.ParserUtils;
 import de.fraunhofer.iosb.ilt.frostclient.utils.StringHelper;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -54,10 +57,31 @@ public class Entity implements ComplexValue<Entity> {
 
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(Entity.class.getName());
 
+    /**
+     * Stored in a slot for a property that is set to null, to distinguish it
+     * from a property that is not set.
+     */
+    private static final Object NULL_VALUE = new Object();
+    private static final Object[] NO_VALUES = new Object[0];
+
     private EntityType entityType;
-    private final Map<EntityPropertyMain, Object> entityProperties = new HashMap<>();
-    private final Map<NavigationProperty, Object> navProperties = new HashMap<>();
-    private final Set<Property> setProperties = new HashSet<>();
+    /**
+     * The property values, in the slots assigned by the EntityType. A slot is
+     * null if the property is not set.
+     */
+    private Object[] values;
+    /**
+     * The slots of the properties that changed since the entity was loaded
+     * from, or last written to, the service. Null if nothing changed.
+     */
+    private BitSet changedSlots;
+    /**
+     * The hashCodes of the mutable property values (maps, collections and
+     * complex values) when the changes were last cleared, as pairs of slot and
+     * hashCode. Used to detect changes made to these values in place. Null if
+     * there are no such values.
+     */
+    private int[] snapshot;
 
     /**
      * The STA service this entity is loaded from.
@@ -75,6 +99,7 @@ public class Entity implements ComplexValue<Entity> {
 
     public Entity(EntityType entityType) {
         this.entityType = entityType;
+        this.values = entityType == null ? NO_VALUES : new Object[entityType.getSlotCount()];
     }
 
     /**
@@ -173,14 +198,58 @@ public class Entity implements ComplexValue<Entity> {
             throw new IllegalArgumentException("the type of this entity is alread yet to " + this.entityType.name);
         }
         this.entityType = entityType;
+        this.values = new Object[entityType.getSlotCount()];
         return this;
     }
 
+    /**
+     * Find the slot of the given property, growing the value array if the
+     * property was registered on the type after this entity was created.
+     *
+     * @param property The property to find the slot for.
+     * @return the slot, or -1 if the type does not have the property.
+     */
+    private int slotOf(Property property) {
+        final int slot = entityType.getSlot(property);
+        if (slot >= values.length) {
+            values = Arrays.copyOf(values, entityType.getSlotCount());
+        }
+        return slot;
+    }
+
+    private int requireSlot(Property property) {
+        final int slot = slotOf(property);
+        if (slot < 0) {
+            throw new IllegalArgumentException(entityType.name + " has no property " + property.getName());
+        }
+        return slot;
+    }
+
+    /**
+     * Get the value of the given property, or null if it is not set.
+     */
+    private Object rawValue(Property property) {
+        final int slot = slotOf(property);
+        if (slot < 0) {
+            return null;
+        }
+        final Object value = values[slot];
+        return value == NULL_VALUE ? null : value;
+    }
+
+    private void markChangedSlot(int slot) {
+        if (changedSlots == null) {
+            changedSlots = new BitSet(values.length);
+        }
+        changedSlots.set(slot);
+    }
+
     public boolean isSetProperty(Property property) {
         if (property == ModelRegistry.EP_SELFLINK) {
             return true;
         }
-        return setProperties.contains(property);
+        final int slot = slotOf(property);
+        return slot >= 0 && values[slot] != null;
     }
 
     @Override
@@ -193,11 +262,11 @@ public class Entity implements ComplexValue<Entity> {
     }
 
     public Entity getProperty(NavigationPropertyEntity npe, boolean autoLoad) throws ServiceFailureException {
-        Entity entity = (Entity) navProperties.get(npe);
+        Entity entity = (Entity) rawValue(npe);
         if (entity == null && autoLoad && service != null) {
             try {
                 entity = service.dao(npe.getEntityType()).find(this, npe);
-                setProperty(npe, entity);
+                setLoadedProperty(npe, entity);
             } catch (StatusCodeException ex) {
                 final int statusCode = ex.getStatusCode();
                 if (statusCode == 404 || statusCode == 204) {
@@ -223,8 +292,8 @@ public class Entity implements ComplexValue<Entity> {
         if (!entityType.hasProperty(property)) {
             throw new IllegalArgumentException(entityType.name + " has no property " + property.getName());
         }
-        if (property instanceof EntityPropertyMain epm) {
-            return (P) entityProperties.get(epm);
+        if (property instanceof EntityPropertyMain) {
+            return (P) rawValue(property);
         }
         if (property instanceof NavigationPropertyEntity npe) {
             try {
@@ -235,7 +304,7 @@ public class Entity implements ComplexValue<Entity> {
             }
         }
         if (property instanceof NavigationPropertyEntitySet npes) {
-            EntitySet entitySet = (EntitySet) navProperties.get(npes);
+            EntitySet entitySet = (EntitySet) rawValue(npes);
             if (entitySet == null && autoLoad) {
                 entitySet = new EntitySet(this, npes);
                 if (autoLoad && service != null) {
@@ -244,7 +313,7 @@ public class Entity implements ComplexValue<Entity> {
                     entitySet.setNextLink(startLink);
                     entitySet.setExpandItem(getExpandItemFor(npes));
                 }
-                setProperty(npes, entitySet);
+                setLoadedProperty(npes, entitySet);
             }
             if (entitySet != null && service != null && entitySet.getService() == null) {
                 entitySet.setService(service);
@@ -270,33 +339,196 @@ public class Entity implements ComplexValue<Entity> {
             setSelfLink(String.valueOf(value));
             return this;
         }
-        if (!entityType.hasProperty(property)) {
-            throw new IllegalArgumentException(entityType.name + " has no property " + property.getName());
-        }
-        if (property instanceof EntityPropertyMain epm) {
-            entityProperties.put(epm, value);
-            setProperties.add(property);
-        } else if (property instanceof NavigationProperty np) {
-            navProperties.put(np, value);
-            if (value == null) {
-                setProperties.remove(property);
-            } else {
-                setProperties.add(property);
-            }
+        final int slot = requireSlot(property);
+        if (property instanceof EntityPropertyMain) {
+            values[slot] = value == null ? NULL_VALUE : value;
+            markChangedSlot(slot);
+        } else if (property instanceof NavigationProperty) {
+            // A navigation property set to null is not set.
+            values[slot] = value;
+            markChangedSlot(slot);
         }
         return this;
     }
 
+    /**
+     * Set the given navigation property to a value loaded from the service.
+     * Unlike setProperty, this does not mark the property as changed.
+     *
+     * @param np The navigation property to set.
+     * @param value The value loaded from the service.
+     * @return this.
+     */
+    public Entity setLoadedProperty(NavigationProperty np, Object value) {
+        values[requireSlot(np)] = value;
+        return this;
+    }
+
+    /**
+     * Get the EntitySet of the given navigation property, creating an empty
+     * set if the property is not set yet. Unlike getProperty, this never
+     * loads anything from the service, and does not mark the property as
+     * changed.
+     *
+     * @param npes The navigation property to get the EntitySet of.
+     * @return The EntitySet of the navigation property.
+     */
+    public EntitySet getOrCreateEntitySet(NavigationPropertyEntitySet npes) {
+        final int slot = requireSlot(npes);
+        EntitySet entitySet = (EntitySet) values[slot];
+        if (entitySet == null) {
+            entitySet = new EntitySet(this, npes);
+            values[slot] = entitySet;
+        }
+        return entitySet;
+    }
+
     public Entity unsetProperty(Property property) {
-        if (property instanceof EntityPropertyMain epm) {
-            entityProperties.remove(epm);
-        } else if (property instanceof NavigationProperty np) {
-            navProperties.remove(np);
+        final int slot = slotOf(property);
+        if (slot < 0) {
+            return this;
+        }
+        values[slot] = null;
+        if (changedSlots != null) {
+            changedSlots.clear(slot);
+        }
+        return this;
+    }
+
+    /**
+     * Check if the given property changed since the entity was loaded from,
+     * or last written to, the service.
+     *
+     * @param property The property to check.
+     * @return true if the property changed.
+     */
+    public boolean isChanged(Property property) {
+        detectInPlaceChanges();
+        if (changedSlots == null) {
+            return false;
+        }
+        final int slot = entityType.getSlot(property);
+        return slot >= 0 && changedSlots.get(slot);
+    }
+
+    /**
+     * Check if any property changed since the entity was loaded from, or last
+     * written to, the service.
+     *
+     * @return true if any property changed.
+     */
+    public boolean hasChanges() {
+        detectInPlaceChanges();
+        return changedSlots != null && !changedSlots.isEmpty();
+    }
+
+    public Set<Property> getChangedProperties() {
+        detectInPlaceChanges();
+        if (changedSlots == null) {
+            return Collections.emptySet();
+        }
+        final Set<Property> changed = new LinkedHashSet<>();
+        for (int slot = changedSlots.nextSetBit(0); slot >= 0; slot = changedSlots.nextSetBit(slot + 1)) {
+            changed.add(entityType.getPropertyForSlot(slot));
         }
-        setProperties.remove(property);
+        return Collections.unmodifiableSet(changed);
+    }
+
+    /**
+     * Mark the given property as changed. Changes made in place to a map,
+     * collection or complex value, like adding an entry to a properties map,
+     * are detected by comparing the hashCode of the value to the one it had
+     * when the entity was loaded. Changes to other mutable values, or changes
+     * that do not alter the hashCode, must be marked using this method.
+     *
+     * @param property The property to mark as changed.
+     * @return this.
+     */
+    public Entity markChanged(Property property) {
+        markChangedSlot(requireSlot(property));
         return this;
     }
 
+    /**
+     * Mark all properties as unchanged. Called after the entity is loaded
+     * from, or written to, the service.
+     *
+     * @return this.
+     */
+    public Entity clearChanges() {
+        changedSlots = null;
+        takeSnapshot();
+        return this;
+    }
+
+    private void takeSnapshot() {
+        int[] pairs = null;
+        int count = 0;
+        for (int slot = 0; slot < values.length; slot++) {
+            final Object value = values[slot];
+            if (!isMutableValue(slot, value)) {
+                continue;
+            }
+            if (pairs == null) {
+                pairs = new int[4];
+            } else if (count == pairs.length) {
+                pairs = Arrays.copyOf(pairs, count * 2);
+            }
+            pairs[count++] = slot;
+            pairs[count++] = value.hashCode();
+        }
+        snapshot = pairs == null ? null : Arrays.copyOf(pairs, count);
+    }
+
+    /**
+     * Mark the mutable values that were changed in place since the snapshot
+     * as changed.
+     */
+    private void detectInPlaceChanges() {
+        if (snapshot == null) {
+            return;
+        }
+        for (int idx = 0; idx < snapshot.length; idx += 2) {
+            final int slot = snapshot[idx];
+            final Object value = values[slot];
+            if (isMutableValue(slot, value) && value.hashCode() != snapshot[idx + 1]) {
+                markChangedSlot(slot);
+            }
+        }
+    }
+
+    private boolean isMutableValue(int slot, Object value) {
+        if (value instanceof Map || value instanceof Collection) {
+            return true;
+        }
+        return value instanceof ComplexValue
+                && !(value instanceof Entity)
+                && entityType.getPropertyForSlot(slot) instanceof EntityPropertyMain;
+    }
+
+    /**
+     * Creates a copy of the entity, with only the Primary Key field(s) and the
+     * changed properties set. Used to send minimal updates to the service.
+     *
+     * @return a copy with only the Primary Key and changed fields set.
+     */
+    public Entity withOnlyChanges() {
+        detectInPlaceChanges();
+        Entity copy = new Entity(entityType)
+                .setPrimaryKeyValues(getPrimaryKeyValues())
+                .setService(service);
+        if (changedSlots == null) {
+            return copy;
+        }
+        for (int slot = changedSlots.nextSetBit(0); slot >= 0; slot = changedSlots.nextSetBit(slot + 1)) {
+            final Object value = values[slot];
+            if (value != null) {
+                copy.setProperty(entityType.getPropertyForSlot(slot), value == NULL_VALUE ? null : value);
+            }
+        }
+        return copy;
+    }
+
     public Entity addNavigationEntity(NavigationPropertyEntitySet navProperty, Entity linkedEntity) {
         EntitySet entitySet = getProperty(navProperty);
         if (entitySet == null) {
@@ -304,6 +536,7 @@ public class Entity implements ComplexValue<Entity> {
             setProperty(navProperty, entitySet);
         }
         entitySet.add(linkedEntity);
+        markChangedSlot(requireSlot(navProperty));
         return this;
     }
 
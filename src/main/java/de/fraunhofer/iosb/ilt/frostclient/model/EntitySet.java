@@ -27,25 +27,32 @@ import static de.fraunhofer.iosb.ilt.frostclient.utils.StringHelper.cleanForLogg
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
 import de.fraunhofer.iosb.ilt.frostclient.exception.StatusCodeException;
-import de.fraunhofer.iosb.ilt.frostclient.json.deserialize.JsonReader;
 import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationPropertyEntitySet;
 import de.fraunhofer.iosb.ilt.frostclient.query.Expand;
 import de.fraunhofer.iosb.ilt.frostclient.query.Expand.ExpandItem;
 import de.fraunhofer.iosb.ilt.frostclient.utils.StringHelper;
 import de.fraunhofer.iosb.ilt.frostclient.utils.Utils;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
-import org.apache.http.Consts;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.apache.http.ParseException;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.entity.ContentType;
-import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -63,6 +70,20 @@ public class EntitySet implements Iterable<Entity> {
     protected String nextLink;
     protected ExpandItem expandItem;
 
+    /**
+     * The number of pages to fetch in the background, while the current page
+     * is consumed. 0 disables prefetching.
+     */
+    @JsonIgnore
+    private int readAhead = 0;
+
+    /**
+     * If true, failing to fetch a further page throws an exception from the
+     * iterator, instead of ending the iteration.
+     */
+    @JsonIgnore
+    private boolean failOnError = false;
+
     @JsonIgnore
     private final EntityType type;
     @JsonIgnore
@@ -117,11 +138,82 @@ public class EntitySet implements Iterable<Entity> {
         return data.isEmpty();
     }
 
+    /**
+     * Get an iterator over all entities in this set, following nextLinks as
+     * needed. If a read-ahead depth is set, the next pages are fetched in the
+     * background while the current page is consumed.
+     *
+     * @return an iterator over all entities in this set.
+     */
     @Override
     public Iterator<Entity> iterator() {
+        if (readAhead > 0 && service != null) {
+            return new PrefetchingIteratorImpl(this, readAhead);
+        }
         return new IteratorImpl(this);
     }
 
+    /**
+     * Get a Spliterator over all entities in this set, following nextLinks as
+     * needed. The Spliterator splits at page boundaries, so when used in a
+     * parallel stream, the next page is fetched while the previous pages are
+     * being processed.
+     *
+     * @return a Spliterator over all entities in this set.
+     */
+    @Override
+    public Spliterator<Entity> spliterator() {
+        return new PageSpliterator(this);
+    }
+
+    /**
+     * Get a Stream over all entities in this set, following nextLinks as
+     * needed. The stream can be made parallel, in which case it splits at page
+     * boundaries.
+     *
+     * @return a Stream over all entities in this set.
+     */
+    public Stream<Entity> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Set the number of pages to fetch and parse in the background, on the
+     * executor of the service, while the current page is consumed by an
+     * iterator. At most this many pages are buffered per iterator.
+     *
+     * @param readAhead The read-ahead depth, 0 to disable prefetching.
+     * @return this.
+     */
+    public EntitySet setReadAhead(int readAhead) {
+        if (readAhead < 0) {
+            throw new IllegalArgumentException("readAhead must be >= 0, got " + readAhead);
+        }
+        this.readAhead = readAhead;
+        return this;
+    }
+
+    public boolean isFailOnError() {
+        return failOnError;
+    }
+
+    /**
+     * Set whether failing to fetch a further page ends the iteration, after
+     * logging the failure, or throws an IllegalStateException from the
+     * iterator, stream or {@link #fetchNext()}.
+     *
+     * @param failOnError true to throw when fetching a page fails.
+     * @return this.
+     */
+    public EntitySet setFailOnError(boolean failOnError) {
+        this.failOnError = failOnError;
+        return this;
+    }
+
     public EntitySet reset() {
         nextLink = initialLink;
         this.data = new ArrayList<>();
@@ -157,29 +249,44 @@ public class EntitySet implements Iterable<Entity> {
             data = Collections.emptyList();
             return this;
         }
-        HttpGet httpGet = new HttpGet(nextLink);
+        Page page = fetchPage(this, nextLink);
+        data = page.data;
+        nextLink = page.nextLink;
+        return this;
+    }
+
+    /**
+     * Fetches and parses the page behind the given link. Failures are logged,
+     * and result in an empty page without a nextLink, or in an
+     * IllegalStateException if the set is set to fail on errors.
+     *
+     * @param set The set the page belongs to.
+     * @param link The link to fetch.
+     * @return The fetched page.
+     */
+    private static Page fetchPage(EntitySet set, String link) {
+        HttpGet httpGet = new HttpGet(link);
         httpGet.addHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
         LOGGER.debug("Fetching: {}", httpGet.getURI());
-        try (CloseableHttpResponse response = service.execute(httpGet)) {
+        try (CloseableHttpResponse response = set.service.execute(httpGet)) {
             Utils.throwIfNotOkOrNoContent(httpGet, response);
-            String json = EntityUtils.toString(response.getEntity(), Consts.UTF_8);
-            JsonReader reader = new JsonReader(service.getModelRegistry());
-            EntitySet nextSet = reader.parseEntitySet(type, json)
-                    .setService(service)
-                    .setExpandItem(expandItem);
-            data = nextSet.toList();
-            nextLink = nextSet.getNextLink();
+            EntitySet nextSet = set.service.getJsonReader().parseEntitySet(set.type, response.getEntity().getContent())
+                    .setService(set.service)
+                    .setExpandItem(set.expandItem);
+            return new Page(nextSet.toList(), nextSet.getNextLink());
         } catch (IOException | ParseException exc) {
             LOGGER.error("Failed deserializing collection.", exc);
-            nextLink = null;
-            data = new ArrayList<>();
+            if (set.failOnError) {
+                throw new IllegalStateException("Failed deserializing collection from " + link, exc);
+            }
         } catch (StatusCodeException exc) {
-            LOGGER.error("Failed follow nextlink: {} - '{}' - {}", exc.getStatusCode(), nextLink, cleanForLogging(exc.getReturnedContent(), 100));
+            LOGGER.error("Failed follow nextlink: {} - '{}' - {}", exc.getStatusCode(), link, cleanForLogging(exc.getReturnedContent(), 100));
             LOGGER.debug("Response: {}", exc.getReturnedContent());
-            nextLink = null;
-            data = new ArrayList<>();
+            if (set.failOnError) {
+                throw new IllegalStateException("Failed follow nextlink: " + exc.getStatusCode() + " - " + link, exc);
+            }
         }
-        return this;
+        return new Page(new ArrayList<>(), null);
     }
 
     public void add(Entity e) {
@@ -305,28 +412,187 @@ public class EntitySet implements Iterable<Entity> {
                 data = Collections.emptyList();
                 return;
             }
-            HttpGet httpGet = new HttpGet(nextLink);
-            httpGet.addHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
-            LOGGER.debug("Fetching: {}", httpGet.getURI());
-            try (CloseableHttpResponse response = parent.service.execute(httpGet)) {
-                Utils.throwIfNotOkOrNoContent(httpGet, response);
-                String json = EntityUtils.toString(response.getEntity(), Consts.UTF_8);
-                JsonReader reader = new JsonReader(parent.service.getModelRegistry());
-                EntitySet nextSet = reader.parseEntitySet(parent.type, json)
-                        .setService(parent.service)
-                        .setExpandItem(parent.expandItem);
-                data = nextSet.toList();
-                nextLink = nextSet.getNextLink();
-            } catch (IOException | ParseException exc) {
-                LOGGER.error("Failed deserializing collection.", exc);
-                nextLink = null;
-                data = new ArrayList<>();
-            } catch (StatusCodeException exc) {
-                LOGGER.error("Failed follow nextlink: {} - '{}' - {}", exc.getStatusCode(), nextLink, cleanForLogging(exc.getReturnedContent(), 100));
-                LOGGER.debug("Response: {}", exc.getReturnedContent());
-                nextLink = null;
-                data = new ArrayList<>();
+            Page page = fetchPage(parent, nextLink);
+            data = page.data;
+            nextLink = page.nextLink;
+        }
+    }
+
+    /**
+     * Spliterator that walks the nextLink chain. Splitting hands off the
+     * remainder of the current page, and the next page is only fetched when
+     * the remaining chain is used. The last page is split in halves. The
+     * characteristics do not change while the chain is walked; the size is
+     * only exact once the last page is reached.
+     */
+    private static class PageSpliterator implements Spliterator<Entity> {
+
+        private static final int CHARACTERISTICS = Spliterator.ORDERED | Spliterator.NONNULL;
+
+        private final EntitySet parent;
+        private List<Entity> page;
+        private int index;
+        private String nextLink;
+
+        public PageSpliterator(EntitySet parent) {
+            this.parent = parent;
+            if (parent.dataIsInitial) {
+                this.page = parent.data;
+                this.nextLink = parent.getNextLink();
+            } else {
+                this.page = Collections.emptyList();
+                this.nextLink = parent.initialLink;
+            }
+        }
+
+        private boolean ensurePage() {
+            while (index >= page.size()) {
+                if (nextLink == null) {
+                    return false;
+                }
+                Page next = fetchPage(parent, nextLink);
+                page = next.data;
+                nextLink = next.nextLink;
+                index = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Entity> action) {
+            if (!ensurePage()) {
+                return false;
+            }
+            action.accept(page.get(index++));
+            return true;
+        }
+
+        @Override
+        public Spliterator<Entity> trySplit() {
+            if (!ensurePage()) {
+                return null;
+            }
+            final int size = page.size();
+            int splitEnd = size;
+            if (nextLink == null) {
+                splitEnd = index + (size - index) / 2;
+                if (splitEnd == index) {
+                    return null;
+                }
+            }
+            final Spliterator<Entity> prefix = Spliterators.spliterator(page.subList(index, splitEnd).toArray(), CHARACTERISTICS);
+            index = splitEnd;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            if (nextLink == null) {
+                return page.size() - (long) index;
+            }
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return CHARACTERISTICS;
+        }
+    }
+
+    /**
+     * A single page of a paged entity set.
+     */
+    private static class Page {
+
+        private static final Page END = new Page(Collections.emptyList(), null);
+
+        private final List<Entity> data;
+        private final String nextLink;
+
+        public Page(List<Entity> data, String nextLink) {
+            this.data = data;
+            this.nextLink = nextLink;
+        }
+    }
+
+    /**
+     * Iterator that fetches up to readAhead pages in the background, while the
+     * current page is being consumed. Since each page holds the link to the
+     * next, the fetches are chained, but they overlap with the consumer.
+     */
+    private static class PrefetchingIteratorImpl implements Iterator<Entity> {
+
+        private final EntitySet parent;
+        private final int readAhead;
+        private final Deque<CompletableFuture<Page>> pending = new ArrayDeque<>();
+        private CompletableFuture<Page> last;
+        private Iterator<Entity> currentIterator;
+        private boolean finished;
+
+        public PrefetchingIteratorImpl(EntitySet parent, int readAhead) {
+            this.parent = parent;
+            this.readAhead = readAhead;
+            final String firstLink;
+            if (parent.dataIsInitial) {
+                currentIterator = parent.data.iterator();
+                firstLink = parent.getNextLink();
+            } else {
+                currentIterator = Collections.emptyIterator();
+                firstLink = parent.initialLink;
+            }
+            finished = firstLink == null;
+            last = CompletableFuture.completedFuture(new Page(Collections.emptyList(), firstLink));
+            fill();
+        }
+
+        private void fill() {
+            if (finished) {
+                return;
+            }
+            final Executor executor = parent.service.getExecutor();
+            while (pending.size() < readAhead) {
+                last = last.thenApplyAsync(
+                        previous -> previous.nextLink == null ? Page.END : fetchPage(parent, previous.nextLink),
+                        executor);
+                pending.add(last);
             }
         }
+
+        @Override
+        public boolean hasNext() {
+            while (!currentIterator.hasNext()) {
+                final CompletableFuture<Page> next = pending.poll();
+                if (finished || next == null) {
+                    return false;
+                }
+                final Page page;
+                try {
+                    page = next.join();
+                } catch (CompletionException ex) {
+                    pending.clear();
+                    finished = true;
+                    if (ex.getCause() instanceof RuntimeException cause) {
+                        throw cause;
+                    }
+                    throw ex;
+                }
+                currentIterator = page.data.iterator();
+                if (page.nextLink == null) {
+                    finished = true;
+                    pending.clear();
+                } else {
+                    fill();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Entity next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return currentIterator.next();
+        }
     }
 }
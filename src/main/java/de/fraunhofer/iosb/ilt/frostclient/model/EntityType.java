@@ -31,8 +31,12 @@ import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationProperty;
 import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationPropertyAbstract;
 import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationPropertyEntity;
 import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationPropertyEntitySet;
+import de.fraunhofer.iosb.ilt.frostclient.model.property.PropertyAbstract;
 import de.fraunhofer.iosb.ilt.frostclient.model.property.type.TypePrimitive;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -49,6 +53,11 @@ public class EntityType implements Comparable<EntityType>, ContainerType<EntityT
 
     private static final Logger LOGGER = LoggerFactory.getLogger(EntityType.class.getName());
 
+    /**
+     * The initial number of entries of the slot table.
+     */
+    private static final int MIN_SLOT_TABLE_SIZE = 16;
+
     /**
      * The name of this entity type as used in URLs.
      */
@@ -102,6 +111,28 @@ public class EntityType implements Comparable<EntityType>, ContainerType<EntityT
      */
     private final Set<NavigationPropertyEntitySet> navigationSets = new LinkedHashSet<>();
 
+    /**
+     * The slot of each property in the value array of Entities of this type,
+     * as an open-addressing hash table keyed by the id of the property. Entry
+     * i holds the property id at 2i, or -1 if the entry is empty, and the slot
+     * at 2i+1. At most half the entries are used. Slots are assigned in
+     * registration order, and never change, so Entities created before a
+     * property was registered stay valid. Replaced, not modified, when a
+     * property is registered.
+     */
+    private volatile int[] slotTable = emptySlotTable(MIN_SLOT_TABLE_SIZE);
+
+    /**
+     * The slots of properties that are not a PropertyAbstract, and thus have
+     * no id. Replaced, not modified, when such a property is registered.
+     */
+    private volatile Map<Property, Integer> otherSlots = Collections.emptyMap();
+
+    /**
+     * The properties by their slot.
+     */
+    private volatile Property[] propertyBySlot = new Property[0];
+
     /**
      * The ModelRegistry this EntityType is registered on.
      */
@@ -158,7 +189,9 @@ public class EntityType implements Comparable<EntityType>, ContainerType<EntityT
 
     @Override
     public EntityType registerProperty(Property property) {
-        properties.add(property);
+        if (properties.add(property)) {
+            addSlot(property);
+        }
         propertiesByName.put(property.getName(), property);
         if (property instanceof EntityPropertyMain) {
             EntityPropertyMain<?> propertyMain = (EntityPropertyMain<?>) property;
@@ -169,6 +202,116 @@ public class EntityType implements Comparable<EntityType>, ContainerType<EntityT
         return this;
     }
 
+    private synchronized void addSlot(Property property) {
+        final int slot = propertyBySlot.length;
+        if (property instanceof PropertyAbstract<?> pa) {
+            int size = slotTable.length >> 1;
+            while (size < 2 * (slot + 1)) {
+                size <<= 1;
+            }
+            final int[] newTable = emptySlotTable(size);
+            for (int i = 0; i < slot; i++) {
+                if (propertyBySlot[i] instanceof PropertyAbstract<?> other) {
+                    putSlot(newTable, other.getId(), i);
+                }
+            }
+            putSlot(newTable, pa.assignId(), slot);
+            slotTable = newTable;
+        } else {
+            final Map<Property, Integer> newSlots = new HashMap<>(otherSlots);
+            newSlots.put(property, slot);
+            otherSlots = newSlots;
+        }
+        final Property[] newProperties = Arrays.copyOf(propertyBySlot, slot + 1);
+        newProperties[slot] = property;
+        propertyBySlot = newProperties;
+    }
+
+    private static int[] emptySlotTable(int size) {
+        final int[] table = new int[2 * size];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    private static void putSlot(int[] table, int id, int slot) {
+        final int mask = (table.length >> 1) - 1;
+        int idx = id & mask;
+        while (table[2 * idx] != -1) {
+            idx = (idx + 1) & mask;
+        }
+        table[2 * idx] = id;
+        table[2 * idx + 1] = slot;
+    }
+
+    /**
+     * Get the slot of the given property in the value array of Entities of
+     * this type. Properties are found by their id first. Properties are equal
+     * when their names are equal, so a property instance that is not the one
+     * registered on this type, like a static constant used with a type that
+     * was loaded from a CSDL document, is found by its name.
+     *
+     * @param property The property to get the slot for.
+     * @return The slot of the property, or -1 if this type does not have the
+     * property.
+     */
+    public int getSlot(Property property) {
+        if (property instanceof PropertyAbstract<?> pa) {
+            final int slot = getSlotById(pa.getId());
+            if (slot >= 0) {
+                return slot;
+            }
+            return getSlotByName(property);
+        }
+        final Integer slot = otherSlots.get(property);
+        return slot == null ? getSlotByName(property) : slot;
+    }
+
+    private int getSlotById(int id) {
+        if (id < 0) {
+            return -1;
+        }
+        final int[] table = slotTable;
+        final int mask = (table.length >> 1) - 1;
+        int idx = id & mask;
+        while (true) {
+            final int key = table[2 * idx];
+            if (key == id) {
+                return table[2 * idx + 1];
+            }
+            if (key == -1) {
+                return -1;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    private int getSlotByName(Property property) {
+        final Property registered = propertiesByName.get(property.getName());
+        if (registered == null || registered == property || !registered.equals(property)) {
+            return -1;
+        }
+        return getSlot(registered);
+    }
+
+    /**
+     * Get the property in the given slot.
+     *
+     * @param slot The slot to get the property for.
+     * @return The property in the given slot.
+     */
+    public Property getPropertyForSlot(int slot) {
+        return propertyBySlot[slot];
+    }
+
+    /**
+     * The number of slots Entities of this type need for their values.
+     *
+     * @return The number of properties of this type.
+     */
+    public int getSlotCount() {
+        return propertyBySlot.length;
+    }
+
     public void init() {
         if (initialised) {
             LOGGER.error("Re-Init of EntityType!");
@@ -296,7 +439,7 @@ public class EntityType implements Comparable<EntityType>, ContainerType<EntityT
     }
 
     public boolean hasProperty(Property property) {
-        return properties.contains(property);
+        return getSlot(property) >= 0;
     }
 
     public boolean hasProperty(String propertyName) {
@@ -26,6 +26,7 @@ import static de.fraunhofer.iosb.ilt.frostclient.model.property.type.TypePrimiti
 import static de.fraunhofer.iosb.ilt.frostclient.utils.SpecialNames.AT_IOT_SELF_LINK;
 
 import de.fraunhofer.iosb.ilt.frostclient.exception.Exceptions;
+import de.fraunhofer.iosb.ilt.frostclient.json.deserialize.DeserializerRegistry;
 import de.fraunhofer.iosb.ilt.frostclient.model.property.EntityPropertyMain;
 import de.fraunhofer.iosb.ilt.frostclient.model.property.type.TypeComplex;
 import de.fraunhofer.iosb.ilt.frostclient.model.property.type.TypePrimitive;
@@ -83,6 +84,12 @@ public class ModelRegistry {
 
     private boolean initialised;
 
+    /**
+     * The json mapper and deserialisers for this registry, created when the
+     * registry is finalised.
+     */
+    private volatile DeserializerRegistry deserializers;
+
     private String ensureNamespace(PropertyType type) {
         String namespace = type.getNamespace();
         if (StringHelper.isNullOrEmpty(namespace)) {
@@ -258,6 +265,7 @@ public class ModelRegistry {
             }
         }
         initialised = true;
+        deserializers = new DeserializerRegistry(this);
         return this;
     }
 
@@ -265,6 +273,21 @@ public class ModelRegistry {
         return initialised;
     }
 
+    /**
+     * Get the json mapper and deserialisers for this registry. They are
+     * created by {@link #initFinalise()}.
+     *
+     * @return the json mapper and deserialisers for this registry.
+     * @throws IllegalStateException if the registry is not finalised yet.
+     */
+    public DeserializerRegistry getDeserializers() {
+        final DeserializerRegistry result = deserializers;
+        if (result == null) {
+            throw new IllegalStateException("ModelRegistry is not finalised, call initFinalise() first.");
+        }
+        return result;
+    }
+
     public static final String fullName(String namespace, String name) {
         return namespace == null ? name : namespace + '.' + name;
     }
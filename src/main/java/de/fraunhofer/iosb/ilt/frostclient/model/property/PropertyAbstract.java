@@ -27,9 +27,22 @@ import de.fraunhofer.iosb.ilt.frostclient.model.PropertyType;
 import de.fraunhofer.iosb.ilt.frostclient.model.csdl.annotation.Annotation;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class PropertyAbstract<P> implements Property<P> {
 
+    /**
+     * The source of the ids of all properties.
+     */
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    /**
+     * The id of this property, assigned when the property is first registered
+     * on an EntityType, -1 before that. EntityTypes use it as key in their
+     * slot table.
+     */
+    private volatile int id = -1;
+
     private String name;
     private PropertyType type;
 
@@ -57,6 +70,29 @@ public abstract class PropertyAbstract<P> implements Property<P> {
         this.nullable = nullable;
     }
 
+    /**
+     * The id of this property, or -1 if it was never registered on an
+     * EntityType.
+     *
+     * @return The id of this property.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Assign the id of this property, if it does not have one yet. Called
+     * by EntityType when the property is registered.
+     *
+     * @return The id of this property.
+     */
+    public synchronized int assignId() {
+        if (id < 0) {
+            id = NEXT_ID.getAndIncrement();
+        }
+        return id;
+    }
+
     @Override
     public String getName() {
         return name;
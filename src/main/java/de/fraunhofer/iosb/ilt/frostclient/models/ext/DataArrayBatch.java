@@ -0,0 +1,466 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.models.ext;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The Observations of one Datastream or MultiDatastream, as returned in the
+ * dataArray result format: a list of component names and one column of
+ * values per component.
+ *
+ * Columns that only hold integers are stored as a long[], columns that only
+ * hold numbers as a double[]. A column switches to boxed values when the
+ * first value that is not a number is added.
+ */
+public class DataArrayBatch {
+
+    public static final String COMPONENT_PHENOMENON_TIME = "phenomenonTime";
+    public static final String COMPONENT_RESULT_TIME = "resultTime";
+    public static final String COMPONENT_RESULT = "result";
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final String navigationLink;
+    private final boolean multiDatastream;
+    private final List<String> components;
+    private final Column[] columns;
+    private int capacity = DEFAULT_CAPACITY;
+    private int size;
+    /**
+     * The index of the next value in the row that is being added.
+     */
+    private int cell;
+
+    /**
+     * Create a new, empty batch.
+     *
+     * @param navigationLink The navigationLink of the (Multi)Datastream.
+     * @param multiDatastream Flag indicating the link points to a
+     * MultiDatastream.
+     * @param components The names of the components, in the order of the
+     * values in each row.
+     */
+    public DataArrayBatch(String navigationLink, boolean multiDatastream, List<String> components) {
+        this.navigationLink = navigationLink;
+        this.multiDatastream = multiDatastream;
+        this.components = Collections.unmodifiableList(new ArrayList<>(components));
+        this.columns = new Column[components.size()];
+        for (int col = 0; col < columns.length; col++) {
+            columns[col] = new Column(capacity);
+        }
+    }
+
+    /**
+     * Add a row of values, one for each component.
+     *
+     * @param row The values to add.
+     * @return this.
+     */
+    public DataArrayBatch addRow(Object[] row) {
+        if (row.length != columns.length) {
+            throw new IllegalArgumentException("Row has " + row.length + " values, expected " + columns.length + " for components " + components);
+        }
+        for (Object value : row) {
+            addValue(value);
+        }
+        return endRow();
+    }
+
+    /**
+     * Add the next value of the row that is being added. The row is completed
+     * with {@link #endRow()}.
+     *
+     * @param value The value to add.
+     * @return this.
+     */
+    public DataArrayBatch addValue(Object value) {
+        nextColumn().set(size, value);
+        return this;
+    }
+
+    /**
+     * Add the next value of the row that is being added, without boxing it.
+     *
+     * @param value The value to add.
+     * @return this.
+     */
+    public DataArrayBatch addLong(long value) {
+        nextColumn().setLong(size, value);
+        return this;
+    }
+
+    /**
+     * Add the next value of the row that is being added, without boxing it.
+     *
+     * @param value The value to add.
+     * @return this.
+     */
+    public DataArrayBatch addDouble(double value) {
+        nextColumn().setDouble(size, value);
+        return this;
+    }
+
+    /**
+     * Complete the row that is being added.
+     *
+     * @return this.
+     * @throws IllegalArgumentException if the row does not have one value for
+     * each component.
+     */
+    public DataArrayBatch endRow() {
+        if (cell != columns.length) {
+            final int found = cell;
+            cell = 0;
+            throw new IllegalArgumentException("Row has " + found + " values, expected " + columns.length + " for components " + components);
+        }
+        cell = 0;
+        size++;
+        return this;
+    }
+
+    private Column nextColumn() {
+        if (cell >= columns.length) {
+            throw new IllegalArgumentException("Row has more than " + columns.length + " values for components " + components);
+        }
+        if (cell == 0 && size == capacity) {
+            capacity = size + (size >> 1);
+            for (Column column : columns) {
+                column.grow(capacity);
+            }
+        }
+        return columns[cell++];
+    }
+
+    /**
+     * Add all rows of the given batch to this batch. The components of both
+     * batches must be the same.
+     *
+     * @param other The batch to add the rows of.
+     * @return this.
+     */
+    public DataArrayBatch addAll(DataArrayBatch other) {
+        if (!components.equals(other.components)) {
+            throw new IllegalArgumentException("Components " + other.components + " do not match " + components);
+        }
+        for (int idx = 0; idx < other.size; idx++) {
+            for (Column column : other.columns) {
+                column.copyTo(idx, this);
+            }
+            endRow();
+        }
+        return this;
+    }
+
+    public String getNavigationLink() {
+        return navigationLink;
+    }
+
+    public boolean isMultiDatastream() {
+        return multiDatastream;
+    }
+
+    public List<String> getComponents() {
+        return components;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the index of the column of the given component.
+     *
+     * @param component The name of the component.
+     * @return The index of the column, or -1 if the component is not present.
+     */
+    public int getColumnIndex(String component) {
+        return components.indexOf(component);
+    }
+
+    /**
+     * Get a value. Values in integer columns are returned as Long, values in
+     * numeric columns as Double.
+     *
+     * @param row The index of the row.
+     * @param column The index of the column.
+     * @return The value.
+     */
+    public Object getValue(int row, int column) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Index " + row + " out of bounds for size " + size);
+        }
+        return columns[column].get(row);
+    }
+
+    /**
+     * Get a copy of the values of the given component.
+     *
+     * @param component The name of the component.
+     * @return The values of the component, or null if the component is not
+     * present.
+     */
+    public Object[] getColumn(String component) {
+        final int column = getColumnIndex(component);
+        if (column < 0) {
+            return null;
+        }
+        final Object[] result = new Object[size];
+        for (int idx = 0; idx < size; idx++) {
+            result[idx] = columns[column].get(idx);
+        }
+        return result;
+    }
+
+    /**
+     * Get a copy of the values of the given component as doubles. Values that
+     * are not set, or not numbers, are NaN.
+     *
+     * @param component The name of the component.
+     * @return The values of the component, or null if the component is not
+     * present.
+     */
+    public double[] getDoubleColumn(String component) {
+        final int column = getColumnIndex(component);
+        if (column < 0) {
+            return null;
+        }
+        final double[] result = new double[size];
+        for (int idx = 0; idx < size; idx++) {
+            result[idx] = columns[column].getDouble(idx);
+        }
+        return result;
+    }
+
+    /**
+     * Convert the phenomenonTime, resultTime and numeric results of this
+     * batch into primitive columns. Results that are not numbers are NaN.
+     *
+     * @return The Observations of this batch as a numeric time series.
+     */
+    public ObservationSeries toSeries() {
+        final int ptCol = getColumnIndex(COMPONENT_PHENOMENON_TIME);
+        final int rtCol = getColumnIndex(COMPONENT_RESULT_TIME);
+        final int resultCol = getColumnIndex(COMPONENT_RESULT);
+        final ObservationSeries series = new ObservationSeries(Math.max(size, 1));
+        for (int idx = 0; idx < size; idx++) {
+            final Object pt = ptCol < 0 ? null : columns[ptCol].get(idx);
+            final long[] phenomenonTime = ObservationSeries.parseTimeValue(pt instanceof String text ? text : null);
+            final Object resultTime = rtCol < 0 ? null : columns[rtCol].get(idx);
+            series.add(
+                    phenomenonTime[0],
+                    phenomenonTime[1],
+                    resultTime == null ? ObservationSeries.NO_TIME : ObservationSeries.parseEpochNanos(resultTime.toString()),
+                    resultCol < 0 ? Double.NaN : columns[resultCol].getDouble(idx));
+        }
+        return series.trimToSize();
+    }
+
+    @Override
+    public String toString() {
+        return "DataArrayBatch{" + navigationLink + ", components=" + components + ", size=" + size + "}";
+    }
+
+    private enum Kind {
+        LONG,
+        DOUBLE,
+        OBJECT
+    }
+
+    /**
+     * One column of values. Starts as a long column, and is widened to a
+     * double column, and then to a boxed column, as values that do not fit
+     * are added. Nulls in primitive columns are tracked in a BitSet.
+     */
+    private static class Column {
+
+        private Kind kind = Kind.LONG;
+        private long[] longs;
+        private double[] doubles;
+        private Object[] objects;
+        private BitSet nulls;
+
+        public Column(int capacity) {
+            longs = new long[capacity];
+        }
+
+        private void grow(int capacity) {
+            switch (kind) {
+                case LONG:
+                    longs = Arrays.copyOf(longs, capacity);
+                    break;
+                case DOUBLE:
+                    doubles = Arrays.copyOf(doubles, capacity);
+                    break;
+                default:
+                    objects = Arrays.copyOf(objects, capacity);
+            }
+        }
+
+        private int capacity() {
+            switch (kind) {
+                case LONG:
+                    return longs.length;
+                case DOUBLE:
+                    return doubles.length;
+                default:
+                    return objects.length;
+            }
+        }
+
+        private void setNull(int idx) {
+            if (kind == Kind.OBJECT) {
+                objects[idx] = null;
+                return;
+            }
+            if (nulls == null) {
+                nulls = new BitSet();
+            }
+            nulls.set(idx);
+        }
+
+        private void clearNull(int idx) {
+            if (nulls != null) {
+                nulls.clear(idx);
+            }
+        }
+
+        private void setLong(int idx, long value) {
+            clearNull(idx);
+            switch (kind) {
+                case LONG:
+                    longs[idx] = value;
+                    break;
+                case DOUBLE:
+                    doubles[idx] = value;
+                    break;
+                default:
+                    objects[idx] = value;
+            }
+        }
+
+        private void setDouble(int idx, double value) {
+            clearNull(idx);
+            if (kind == Kind.LONG) {
+                doubles = new double[longs.length];
+                for (int i = 0; i < idx; i++) {
+                    doubles[i] = longs[i];
+                }
+                longs = null;
+                kind = Kind.DOUBLE;
+            }
+            if (kind == Kind.DOUBLE) {
+                doubles[idx] = value;
+            } else {
+                objects[idx] = value;
+            }
+        }
+
+        private void set(int idx, Object value) {
+            if (value == null) {
+                setNull(idx);
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                setLong(idx, ((Number) value).longValue());
+            } else if (value instanceof BigInteger big && big.bitLength() < Long.SIZE) {
+                setLong(idx, big.longValue());
+            } else if (value instanceof Number number) {
+                setDouble(idx, number.doubleValue());
+            } else {
+                toObjects(idx);
+                objects[idx] = value;
+            }
+        }
+
+        private void toObjects(int size) {
+            if (kind == Kind.OBJECT) {
+                return;
+            }
+            final Object[] boxed = new Object[capacity()];
+            for (int i = 0; i < size; i++) {
+                boxed[i] = get(i);
+            }
+            objects = boxed;
+            longs = null;
+            doubles = null;
+            nulls = null;
+            kind = Kind.OBJECT;
+        }
+
+        private boolean isNull(int idx) {
+            return nulls != null && nulls.get(idx);
+        }
+
+        private Object get(int idx) {
+            if (kind == Kind.OBJECT) {
+                return objects[idx];
+            }
+            if (isNull(idx)) {
+                return null;
+            }
+            if (kind == Kind.LONG) {
+                return longs[idx];
+            }
+            return doubles[idx];
+        }
+
+        private double getDouble(int idx) {
+            if (isNull(idx)) {
+                return Double.NaN;
+            }
+            switch (kind) {
+                case LONG:
+                    return longs[idx];
+                case DOUBLE:
+                    return doubles[idx];
+                default:
+                    return objects[idx] instanceof Number number ? number.doubleValue() : Double.NaN;
+            }
+        }
+
+        private void copyTo(int idx, DataArrayBatch target) {
+            if (isNull(idx)) {
+                target.addValue(null);
+                return;
+            }
+            switch (kind) {
+                case LONG:
+                    target.addLong(longs[idx]);
+                    break;
+                case DOUBLE:
+                    target.addDouble(doubles[idx]);
+                    break;
+                default:
+                    target.addValue(objects[idx]);
+            }
+        }
+    }
+}
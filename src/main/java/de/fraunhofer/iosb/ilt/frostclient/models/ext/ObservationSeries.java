@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.models.ext;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+
+/**
+ * A numeric time series of Observations, held in primitive columns instead
+ * of as one Entity per Observation. Times are nanoseconds since the epoch,
+ * results are doubles.
+ *
+ * The phenomenonTime of an Observation with an instant phenomenonTime has
+ * the same start and end. Times that are not set are {@link #NO_TIME},
+ * results that are not set, or not numeric, are NaN.
+ */
+public class ObservationSeries {
+
+    /**
+     * The value used for times that are not set.
+     */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private long[] phenomenonTimeStart;
+    private long[] phenomenonTimeEnd;
+    private long[] resultTime;
+    private double[] result;
+    private int size;
+
+    public ObservationSeries() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ObservationSeries(int capacity) {
+        phenomenonTimeStart = new long[capacity];
+        phenomenonTimeEnd = new long[capacity];
+        resultTime = new long[capacity];
+        result = new double[capacity];
+    }
+
+    /**
+     * Add an Observation to the end of the series.
+     *
+     * @param phenomenonTimeStart The start of the phenomenonTime, in epoch
+     * nanoseconds.
+     * @param phenomenonTimeEnd The end of the phenomenonTime, in epoch
+     * nanoseconds.
+     * @param resultTime The resultTime in epoch nanoseconds, or NO_TIME.
+     * @param result The result.
+     * @return this.
+     */
+    public ObservationSeries add(long phenomenonTimeStart, long phenomenonTimeEnd, long resultTime, double result) {
+        if (size == this.result.length) {
+            grow();
+        }
+        this.phenomenonTimeStart[size] = phenomenonTimeStart;
+        this.phenomenonTimeEnd[size] = phenomenonTimeEnd;
+        this.resultTime[size] = resultTime;
+        this.result[size] = result;
+        size++;
+        return this;
+    }
+
+    private void grow() {
+        final int newCapacity = Math.max(DEFAULT_CAPACITY, size + (size >> 1));
+        phenomenonTimeStart = Arrays.copyOf(phenomenonTimeStart, newCapacity);
+        phenomenonTimeEnd = Arrays.copyOf(phenomenonTimeEnd, newCapacity);
+        resultTime = Arrays.copyOf(resultTime, newCapacity);
+        result = Arrays.copyOf(result, newCapacity);
+    }
+
+    /**
+     * Shrink the columns to the size of the series.
+     *
+     * @return this.
+     */
+    public ObservationSeries trimToSize() {
+        if (result.length != size) {
+            phenomenonTimeStart = Arrays.copyOf(phenomenonTimeStart, size);
+            phenomenonTimeEnd = Arrays.copyOf(phenomenonTimeEnd, size);
+            resultTime = Arrays.copyOf(resultTime, size);
+            result = Arrays.copyOf(result, size);
+        }
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getPhenomenonTimeStart(int idx) {
+        checkIndex(idx);
+        return phenomenonTimeStart[idx];
+    }
+
+    public long getPhenomenonTimeEnd(int idx) {
+        checkIndex(idx);
+        return phenomenonTimeEnd[idx];
+    }
+
+    public long getResultTime(int idx) {
+        checkIndex(idx);
+        return resultTime[idx];
+    }
+
+    public double getResult(int idx) {
+        checkIndex(idx);
+        return result[idx];
+    }
+
+    /**
+     * The phenomenonTime starts. Trims the series, the returned array is the
+     * column itself, not a copy.
+     *
+     * @return the phenomenonTime starts, in epoch nanoseconds.
+     */
+    public long[] getPhenomenonTimeStarts() {
+        return trimToSize().phenomenonTimeStart;
+    }
+
+    /**
+     * The phenomenonTime ends. Trims the series, the returned array is the
+     * column itself, not a copy.
+     *
+     * @return the phenomenonTime ends, in epoch nanoseconds.
+     */
+    public long[] getPhenomenonTimeEnds() {
+        return trimToSize().phenomenonTimeEnd;
+    }
+
+    /**
+     * The resultTimes. Trims the series, the returned array is the column
+     * itself, not a copy.
+     *
+     * @return the resultTimes, in epoch nanoseconds.
+     */
+    public long[] getResultTimes() {
+        return trimToSize().resultTime;
+    }
+
+    /**
+     * The results. Trims the series, the returned array is the column
+     * itself, not a copy.
+     *
+     * @return the results.
+     */
+    public double[] getResults() {
+        return trimToSize().result;
+    }
+
+    /**
+     * Parse an ISO8601 date-time with offset into nanoseconds since the epoch.
+     * Formats that java.time does not handle are parsed with Time4J.
+     *
+     * @param value The date-time to parse.
+     * @return The nanoseconds since the epoch.
+     * @throws IllegalArgumentException if the date-time is outside the range
+     * of epoch nanoseconds, roughly the years 1677 to 2262.
+     */
+    public static long parseEpochNanos(String value) {
+        Instant instant;
+        try {
+            instant = OffsetDateTime.parse(value).toInstant();
+        } catch (DateTimeParseException ex) {
+            instant = TimeInstant.parseMoment(value).toTemporalAccessor();
+        }
+        try {
+            return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), NANOS_PER_SECOND), instant.getNano());
+        } catch (ArithmeticException ex) {
+            throw new IllegalArgumentException("Time " + value + " can not be represented in epoch nanoseconds.", ex);
+        }
+    }
+
+    /**
+     * Parse an ISO8601 instant or interval into its start and end, in
+     * nanoseconds since the epoch. The end of an instant is its start.
+     *
+     * @param value The instant or interval to parse, may be null.
+     * @return An array holding the start and the end, NO_TIME if value is
+     * null.
+     */
+    public static long[] parseTimeValue(String value) {
+        if (value == null) {
+            return new long[]{NO_TIME, NO_TIME};
+        }
+        final int slash = value.indexOf('/');
+        if (slash < 0) {
+            final long instant = parseEpochNanos(value);
+            return new long[]{instant, instant};
+        }
+        return new long[]{parseEpochNanos(value.substring(0, slash)), parseEpochNanos(value.substring(slash + 1))};
+    }
+
+    private void checkIndex(int idx) {
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for size " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ObservationSeries{size=" + size + "}";
+    }
+}
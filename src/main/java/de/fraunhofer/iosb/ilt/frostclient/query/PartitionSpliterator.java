@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.query;
+
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the results of a set of partition queries, used by
+ * {@link Query#stream(List)}.
+ *
+ * Splitting first divides the list of partitions in halves. Once a
+ * spliterator covers a single partition, that partition is fetched and split
+ * at its page boundaries, like the Spliterator of an EntitySet. Partitions are
+ * only fetched when they are traversed or split. The results of a partition
+ * follow the results of the partitions before it, so the spliterator is
+ * ORDERED. Its size is not known in advance.
+ *
+ * Failures to fetch a partition, or one of its pages, are thrown as
+ * IllegalStateException from the traversal or split that caused the fetch,
+ * rather than ending the partition early.
+ */
+class PartitionSpliterator implements Spliterator<Entity> {
+
+    private static final int CHARACTERISTICS = Spliterator.ORDERED | Spliterator.NONNULL;
+
+    private final List<Query> partitions;
+    private int from;
+    private final int to;
+    private Spliterator<Entity> current;
+
+    PartitionSpliterator(List<Query> partitions) {
+        this(partitions, 0, partitions.size());
+    }
+
+    private PartitionSpliterator(List<Query> partitions, int from, int to) {
+        this.partitions = partitions;
+        this.from = from;
+        this.to = to;
+    }
+
+    private Spliterator<Entity> open(Query partition) {
+        try {
+            return partition.list()
+                    .setFailOnError(true)
+                    .spliterator();
+        } catch (ServiceFailureException ex) {
+            throw new IllegalStateException("Failed to fetch partition " + partition.getFilter(), ex);
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Entity> action) {
+        while (true) {
+            if (current == null) {
+                if (from >= to) {
+                    return false;
+                }
+                current = open(partitions.get(from++));
+            }
+            if (current.tryAdvance(action)) {
+                return true;
+            }
+            current = null;
+        }
+    }
+
+    @Override
+    public Spliterator<Entity> trySplit() {
+        if (current == null) {
+            final int remaining = to - from;
+            if (remaining > 1) {
+                final int mid = from + remaining / 2;
+                final Spliterator<Entity> prefix = new PartitionSpliterator(partitions, from, mid);
+                from = mid;
+                return prefix;
+            }
+            if (remaining == 0) {
+                return null;
+            }
+            current = open(partitions.get(from++));
+        }
+        return current.trySplit();
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.query;
+
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Iterates over the combined results of a set of queries, that each cover a
+ * partition of a large collection. All partitions are fetched concurrently,
+ * and their entities are merged into one iterator, in no particular order.
+ *
+ * At most bufferSize fetched entities are held in memory, partitions that
+ * are ahead of the consumer wait. Close the scan when abandoning it before
+ * it is exhausted, to stop the partitions that are still running.
+ */
+public class PartitionedScan implements Iterator<Entity>, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartitionedScan.class);
+
+    /**
+     * The marker a partition puts in the queue when it is done.
+     */
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> queue;
+    private int running;
+    private volatile boolean closed;
+    private Entity next;
+
+    /**
+     * Creates a new PartitionedScan and starts fetching all partitions.
+     *
+     * @param partitions The queries that each fetch one partition.
+     * @param executor The executor to run the partitions on.
+     * @param bufferSize The maximum number of entities to buffer.
+     */
+    public PartitionedScan(List<Query> partitions, Executor executor, int bufferSize) {
+        this.queue = new ArrayBlockingQueue<>(bufferSize);
+        this.running = partitions.size();
+        for (Query partition : partitions) {
+            executor.execute(() -> scan(partition));
+        }
+    }
+
+    private void scan(Query partition) {
+        try {
+            for (Entity entity : partition.list().setFailOnError(true)) {
+                if (!put(entity)) {
+                    return;
+                }
+            }
+            put(END);
+        } catch (ServiceFailureException | RuntimeException ex) {
+            LOGGER.error("Failed to scan partition {}", partition.getFilter(), ex);
+            put(new Failure(ex));
+        }
+    }
+
+    private boolean put(Object item) {
+        try {
+            while (!closed) {
+                if (queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Checks if there are more entities. Blocks until the next entity is
+     * available, or all partitions are done.
+     *
+     * @return true if there are more entities.
+     * @throws IllegalStateException if one of the partitions failed.
+     */
+    @Override
+    public boolean hasNext() {
+        while (next == null && running > 0) {
+            final Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new IllegalStateException("Interrupted while waiting for partitions.", ex);
+            }
+            if (item == END) {
+                running--;
+            } else if (item instanceof Failure failure) {
+                close();
+                throw new IllegalStateException("Failed to scan partition.", failure.cause);
+            } else {
+                next = (Entity) item;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Entity next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Entity result = next;
+        next = null;
+        return result;
+    }
+
+    /**
+     * Stops all partitions that are still running, and discards any buffered
+     * entities.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        running = 0;
+        queue.clear();
+    }
+
+    private static class Failure {
+
+        private final Exception cause;
+
+        public Failure(Exception cause) {
+            this.cause = cause;
+        }
+    }
+
+}
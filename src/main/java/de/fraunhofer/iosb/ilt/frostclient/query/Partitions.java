@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.query;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers for generating partition filters for
+ * {@link Query#listPartitioned(List)}.
+ */
+public class Partitions {
+
+    private Partitions() {
+        // Utility class.
+    }
+
+    /**
+     * Splits the numeric range [min, max] of the given property into count
+     * partitions of (nearly) equal size. Useful for partitioning on ids.
+     *
+     * @param property The path of the property to partition on, like "id".
+     * @param min The lowest value, inclusive.
+     * @param max The highest value, inclusive.
+     * @param count The number of partitions to generate.
+     * @return The filters of the partitions.
+     */
+    public static List<String> ranges(String property, long min, long max, int count) {
+        if (count < 1 || max < min) {
+            throw new IllegalArgumentException("Need count >= 1 and max >= min.");
+        }
+        final long size = Math.max(1, (max - min + count) / count);
+        List<String> result = new ArrayList<>(count);
+        for (long start = min; start <= max; start += size) {
+            final long end = start + size;
+            if (end > max) {
+                result.add(property + " ge " + start);
+            } else {
+                result.add(property + " ge " + start + " and " + property + " lt " + end);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits the time span [start, end) of the given property into count
+     * partitions of equal duration. The first partition is open towards the
+     * past, the last towards the future, so no entities are missed.
+     *
+     * @param property The path of the property to partition on, like
+     * "phenomenonTime".
+     * @param start The start of the time span.
+     * @param end The end of the time span.
+     * @param count The number of partitions to generate.
+     * @return The filters of the partitions.
+     */
+    public static List<String> timeSlices(String property, Instant start, Instant end, int count) {
+        if (count < 1 || !end.isAfter(start)) {
+            throw new IllegalArgumentException("Need count >= 1 and end after start.");
+        }
+        final Duration step = Duration.between(start, end).dividedBy(count);
+        List<String> result = new ArrayList<>(count);
+        Instant sliceStart = start;
+        for (int i = 0; i < count; i++) {
+            final Instant sliceEnd = sliceStart.plus(step);
+            if (count == 1) {
+                result.add(null);
+            } else if (i == 0) {
+                result.add(property + " lt " + sliceEnd);
+            } else if (i == count - 1) {
+                result.add(property + " ge " + sliceStart);
+            } else {
+                result.add(property + " ge " + sliceStart + " and " + property + " lt " + sliceEnd);
+            }
+            sliceStart = sliceEnd;
+        }
+        return result;
+    }
+
+}
@@ -25,21 +25,32 @@ package de.fraunhofer.iosb.ilt.frostclient.query;
 import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
 import de.fraunhofer.iosb.ilt.frostclient.exception.MqttException;
 import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.json.deserialize.DataArrayReader;
+import de.fraunhofer.iosb.ilt.frostclient.json.deserialize.ObservationSeriesReader;
 import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
 import de.fraunhofer.iosb.ilt.frostclient.model.EntitySet;
 import de.fraunhofer.iosb.ilt.frostclient.model.EntityType;
 import de.fraunhofer.iosb.ilt.frostclient.model.property.NavigationPropertyEntitySet;
+import de.fraunhofer.iosb.ilt.frostclient.models.ext.DataArrayBatch;
+import de.fraunhofer.iosb.ilt.frostclient.models.ext.ObservationSeries;
 import de.fraunhofer.iosb.ilt.frostclient.query.Expand.ExpandItem;
 import de.fraunhofer.iosb.ilt.frostclient.utils.MqttSubscription;
 import de.fraunhofer.iosb.ilt.frostclient.utils.ParserUtils;
 import de.fraunhofer.iosb.ilt.frostclient.utils.StringHelper;
 import de.fraunhofer.iosb.ilt.frostclient.utils.Utils;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import org.apache.http.Consts;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
@@ -60,6 +71,22 @@ public class Query implements QueryRequest<Query>, QueryParameter<Query> {
      * The logger for this class.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(Query.class);
+
+    /**
+     * The default number of entities buffered by a partitioned scan.
+     */
+    public static final int DEFAULT_PARTITION_BUFFER = 10_000;
+
+    /**
+     * The fields requested by listSeries, if no select is set.
+     */
+    private static final String[] SERIES_FIELDS = {"phenomenonTime", "resultTime", "result"};
+
+    /**
+     * The value of the $resultFormat parameter for the dataArray format.
+     */
+    public static final String RESULT_FORMAT_DATA_ARRAY = "dataArray";
+
     private final SensorThingsService service;
     private final EntityType entityType;
     private final Entity parent;
@@ -113,6 +140,10 @@ public class Query implements QueryRequest<Query>, QueryParameter<Query> {
         return this;
     }
 
+    public String getFilter() {
+        return filter;
+    }
+
     @Override
     public Query top(int top) {
         this.top = top;
@@ -230,21 +261,252 @@ public class Query implements QueryRequest<Query>, QueryParameter<Query> {
 
     @Override
     public EntitySet list() throws ServiceFailureException {
-        EntitySet list;
-        HttpGet httpGet = new HttpGet(buildUrl());
-
-        LOGGER.debug("Fetching: {}", httpGet.getURI());
-        httpGet.addHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
-
+        HttpGet httpGet = buildListRequest();
         try (CloseableHttpResponse response = service.execute(httpGet)) {
-            Utils.throwIfNotOkOrNoContent(httpGet, response);
-            String json = EntityUtils.toString(response.getEntity(), Consts.UTF_8);
-            list = service.getJsonReader().parseEntitySet(entityType, json);
-            list.setInitialLink(httpGet.getURI().toString());
+            return handleListResponse(httpGet, response);
         } catch (IOException ex) {
             throw new ServiceFailureException("Failed to fetch entities from query.", ex);
         }
+    }
+
+    /**
+     * Execute the query asynchronously, without blocking the calling thread.
+     * Only the first page is fetched asynchronously, iterating over the
+     * returned EntitySet fetches further pages as usual.
+     *
+     * @return A future that completes with the first page of results.
+     */
+    public CompletableFuture<EntitySet> listAsync() {
+        final HttpGet httpGet;
+        try {
+            httpGet = buildListRequest();
+        } catch (ServiceFailureException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        return service.executeAsync(httpGet, response -> handleListResponse(httpGet, response));
+    }
+
+    /**
+     * Get the results of the query as a reactive stream. Nothing is fetched
+     * until a subscriber requests entities, and further pages are only fetched
+     * as the subscriber demands more. Cancelling the subscription aborts the
+     * request that is in flight.
+     *
+     * @return A publisher of the results of the query.
+     */
+    public Flow.Publisher<Entity> publisher() {
+        return new QueryPublisher(this);
+    }
+
+    /**
+     * Execute the query on Observations, and read all results, following
+     * nextLinks, into primitive columns. No Entity is created per
+     * Observation, only the phenomenonTime, resultTime and result are kept.
+     * If no select is set, only these fields are requested, this query
+     * itself is not changed.
+     *
+     * @return The numeric time series of all results of the query.
+     * @throws ServiceFailureException if fetching or parsing fails.
+     */
+    public ObservationSeries listSeries() throws ServiceFailureException {
+        if (!entityType.hasProperty(SERIES_FIELDS[0]) || !entityType.hasProperty(SERIES_FIELDS[2])) {
+            throw new IllegalArgumentException("Can not read a series from " + entityType + ", it has no phenomenonTime or result.");
+        }
+        final Query query = copy();
+        if (StringHelper.isNullOrEmpty(select)) {
+            query.select(SERIES_FIELDS);
+        }
+        final ObservationSeriesReader reader = new ObservationSeriesReader(service.getJsonReader().getMapper());
+        final ObservationSeries series = new ObservationSeries(top > 0 ? Math.min(top, ObservationSeries.DEFAULT_CAPACITY) : ObservationSeries.DEFAULT_CAPACITY);
+        readPages(query.buildUrl(), "series", content -> reader.readPage(content, series));
+        return series.trimToSize();
+    }
+
+    /**
+     * Execute the query on Observations using the dataArray result format,
+     * and read all results, following nextLinks. The Observations are
+     * returned as one columnar batch per Datastream or MultiDatastream, rows
+     * of the same (Multi)Datastream on different pages are merged into one
+     * batch.
+     *
+     * @return The batches, in the order the (Multi)Datastreams were found.
+     * @throws ServiceFailureException if fetching or parsing fails.
+     */
+    public List<DataArrayBatch> listDataArray() throws ServiceFailureException {
+        final DataArrayReader reader = new DataArrayReader(service.getJsonReader().getMapper());
+        final Map<String, DataArrayBatch> batchByLink = new LinkedHashMap<>();
+        final List<DataArrayBatch> result = new ArrayList<>();
+        URI uri;
+        try {
+            uri = new URIBuilder(buildUrl())
+                    .addParameter("$resultFormat", RESULT_FORMAT_DATA_ARRAY)
+                    .build();
+        } catch (URISyntaxException ex) {
+            throw new ServiceFailureException("Failed to build dataArray query.", ex);
+        }
+        final List<DataArrayBatch> page = new ArrayList<>();
+        readPages(uri, "dataArray", content -> {
+            page.clear();
+            final String nextLink = reader.readPage(content, page);
+            for (DataArrayBatch batch : page) {
+                final DataArrayBatch existing = batch.getNavigationLink() == null ? null : batchByLink.get(batch.getNavigationLink());
+                if (existing != null && existing.getComponents().equals(batch.getComponents())) {
+                    existing.addAll(batch);
+                } else {
+                    batchByLink.putIfAbsent(batch.getNavigationLink(), batch);
+                    result.add(batch);
+                }
+            }
+            return nextLink;
+        });
+        return result;
+    }
+
+    /**
+     * Reads one page of a response, and returns its nextLink.
+     */
+    @FunctionalInterface
+    private static interface PageReader {
+
+        public String readPage(InputStream content) throws IOException;
+    }
+
+    /**
+     * Fetch the given uri, and all pages behind the nextLinks, and hand each
+     * page to the given reader.
+     *
+     * @param uri The uri of the first page.
+     * @param what What is read, for the error message.
+     * @param reader The reader that consumes each page.
+     * @throws ServiceFailureException if fetching or parsing fails.
+     */
+    private void readPages(URI uri, String what, PageReader reader) throws ServiceFailureException {
+        while (uri != null) {
+            final HttpGet httpGet = new HttpGet(uri);
+            LOGGER.debug("Fetching: {}", uri);
+            httpGet.addHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
+            try (CloseableHttpResponse response = service.execute(httpGet)) {
+                Utils.throwIfNotOkOrNoContent(httpGet, response);
+                if (response.getEntity() == null) {
+                    return;
+                }
+                final String nextLink = reader.readPage(response.getEntity().getContent());
+                uri = nextLink == null ? null : URI.create(nextLink);
+            } catch (IOException | IllegalArgumentException ex) {
+                throw new ServiceFailureException("Failed to read " + what + " from query.", ex);
+            }
+        }
+    }
+
+    /**
+     * Execute the query and return the results as a Stream, following
+     * nextLinks as needed. When made parallel, the stream splits at page
+     * boundaries, so fetching further pages overlaps with processing.
+     *
+     * @return A stream over all results of the query.
+     * @throws ServiceFailureException if fetching the first page fails.
+     */
+    public Stream<Entity> stream() throws ServiceFailureException {
+        return list().stream();
+    }
+
+    /**
+     * Execute the query as a set of partitions, and return the results as one
+     * Stream. Each partition is this query, with the filter of the partition
+     * added. When made parallel, the stream splits first over the partitions,
+     * and then at page boundaries. Partitions are fetched lazily, failures are
+     * reported as IllegalStateException.
+     *
+     * @param partitionFilters The filters that define the partitions, see
+     * {@link #listPartitioned(List)}.
+     * @return A stream over the results of all partitions.
+     * @throws IllegalArgumentException if $skip or $top is set.
+     */
+    public Stream<Entity> stream(List<String> partitionFilters) {
+        return StreamSupport.stream(new PartitionSpliterator(partitionQueries(partitionFilters)), false);
+    }
+
+    /**
+     * Execute the query as a set of partitions, that are fetched concurrently
+     * on the executor of the service. Each partition is this query, with the
+     * filter of the partition added to the filter of the query. The results of
+     * all partitions are merged into one iterator, in no particular order.
+     * Partition filters can be generated using {@link Partitions}. The
+     * partitions must not overlap, or entities are returned more than once.
+     * Since $skip and $top can not be split over partitions, they must not be
+     * set on a partitioned query.
+     *
+     * @param partitionFilters The filters that define the partitions. A null
+     * filter means the partition is not filtered further.
+     * @return An iterator over the results of all partitions.
+     * @throws IllegalArgumentException if $skip or $top is set.
+     */
+    public PartitionedScan listPartitioned(List<String> partitionFilters) {
+        return listPartitioned(partitionFilters, DEFAULT_PARTITION_BUFFER);
+    }
+
+    /**
+     * Execute the query as a set of partitions, that are fetched concurrently.
+     * See {@link #listPartitioned(List)}.
+     *
+     * @param partitionFilters The filters that define the partitions.
+     * @param bufferSize The maximum number of fetched entities to hold in
+     * memory.
+     * @return An iterator over the results of all partitions.
+     * @throws IllegalArgumentException if $skip or $top is set.
+     */
+    public PartitionedScan listPartitioned(List<String> partitionFilters, int bufferSize) {
+        return new PartitionedScan(partitionQueries(partitionFilters), service.getExecutor(), bufferSize);
+    }
+
+    private List<Query> partitionQueries(List<String> partitionFilters) {
+        if (skip > 0 || top >= 0) {
+            throw new IllegalArgumentException("$skip and $top apply to the whole result, and can not be used on a partitioned query.");
+        }
+        List<Query> partitions = new ArrayList<>(partitionFilters.size());
+        for (String partitionFilter : partitionFilters) {
+            partitions.add(copyWithFilter(partitionFilter));
+        }
+        return partitions;
+    }
+
+    private Query copy() {
+        final Query copy = copyWithFilter(null);
+        copy.skip = skip;
+        copy.top = top;
+        return copy;
+    }
+
+    private Query copyWithFilter(String extraFilter) {
+        final Query copy = parent == null
+                ? new Query(service, entityType)
+                : new Query(service, parent, navigationLink);
+        copy.count = count;
+        copy.select = select;
+        copy.orderby = orderby;
+        copy.expandString = expandString;
+        copy.expand = expand;
+        if (StringHelper.isNullOrEmpty(extraFilter)) {
+            copy.filter = filter;
+        } else if (StringHelper.isNullOrEmpty(filter)) {
+            copy.filter = extraFilter;
+        } else {
+            copy.filter = "(" + filter + ") and (" + extraFilter + ")";
+        }
+        return copy;
+    }
+
+    HttpGet buildListRequest() throws ServiceFailureException {
+        HttpGet httpGet = new HttpGet(buildUrl());
+        LOGGER.debug("Fetching: {}", httpGet.getURI());
+        httpGet.addHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
+        return httpGet;
+    }
 
+    EntitySet handleListResponse(HttpGet httpGet, HttpResponse response) throws IOException, ServiceFailureException {
+        Utils.throwIfNotOkOrNoContent(httpGet, response);
+        EntitySet list = service.getJsonReader().parseEntitySet(entityType, response.getEntity().getContent());
+        list.setInitialLink(httpGet.getURI().toString());
         list.setService(service);
         list.setExpandItem(createExpandItem());
         return list;
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.query;
+
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.model.EntitySet;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ContentType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the results of a Query as a reactive stream. Pages are only
+ * fetched when the subscriber has requested more entities than are buffered,
+ * and at most one page is requested at a time. Pages are fetched on the
+ * non-blocking http client, so no thread is held while waiting for the
+ * server. Cancelling the subscription aborts the request that is in flight.
+ *
+ * Each subscriber gets its own run of the query. Signals to the subscriber
+ * are never concurrent, but are not bound to one thread: entities that are
+ * already buffered are delivered on the thread that calls request(), while
+ * the entities of a newly fetched page, and a failure to fetch it, are
+ * delivered on the executor of the service. An invalid request() is
+ * reported through onError on the calling thread.
+ */
+public class QueryPublisher implements Flow.Publisher<Entity> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryPublisher.class);
+
+    private final Query query;
+
+    /**
+     * Creates a new publisher for the given query.
+     *
+     * @param query The query to publish the results of.
+     */
+    public QueryPublisher(Query query) {
+        this.query = query;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Entity> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber must not be null");
+        final PageSubscription subscription = new PageSubscription(query, subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private static class PageSubscription implements Flow.Subscription {
+
+        private final Query query;
+        private final Flow.Subscriber<? super Entity> subscriber;
+        private final Executor executor;
+
+        /**
+         * Guards the drain loop, so only one thread signals the subscriber.
+         */
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicLong requested = new AtomicLong();
+
+        /**
+         * The entities of the last fetched page, that are not emitted yet.
+         * Only touched from within the drain loop.
+         */
+        private Deque<Entity> buffer = new ArrayDeque<>();
+        /**
+         * The link of the next page, null once the last page is fetched.
+         */
+        private String nextLink;
+        private boolean started;
+        private boolean done;
+
+        private volatile CompletableFuture<HttpResponse> inFlight;
+        private volatile EntitySet fetchedPage;
+        private volatile Throwable failure;
+        private volatile boolean cancelled;
+
+        public PageSubscription(Query query, Flow.Subscriber<? super Entity> subscriber) {
+            this.query = query;
+            this.subscriber = subscriber;
+            this.executor = query.getService().getExecutor();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                failure = new IllegalArgumentException("Non-positive request: " + n);
+                drain();
+                return;
+            }
+            long current;
+            long updated;
+            do {
+                current = requested.get();
+                if (current == Long.MAX_VALUE) {
+                    return;
+                }
+                updated = current + n;
+                if (updated < 0) {
+                    updated = Long.MAX_VALUE;
+                }
+            } while (!requested.compareAndSet(current, updated));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            final CompletableFuture<HttpResponse> request = inFlight;
+            if (request != null) {
+                LOGGER.debug("Cancelling in-flight request.");
+                request.cancel(true);
+            }
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                drainLoop();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drainLoop() {
+            while (!done) {
+                if (cancelled) {
+                    done = true;
+                    buffer.clear();
+                    return;
+                }
+                final Throwable error = failure;
+                if (error != null) {
+                    done = true;
+                    buffer.clear();
+                    subscriber.onError(error);
+                    return;
+                }
+                final EntitySet page = fetchedPage;
+                if (page != null) {
+                    fetchedPage = null;
+                    inFlight = null;
+                    buffer = new ArrayDeque<>(page.toList());
+                    nextLink = page.getNextLink();
+                }
+                if (requested.get() > 0 && !buffer.isEmpty()) {
+                    requested.decrementAndGet();
+                    subscriber.onNext(buffer.poll());
+                    continue;
+                }
+                if (buffer.isEmpty() && inFlight == null) {
+                    if (started && nextLink == null) {
+                        done = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+                    if (requested.get() > 0) {
+                        fetchNextPage();
+                    }
+                }
+                return;
+            }
+        }
+
+        private void fetchNextPage() {
+            final HttpGet httpGet;
+            if (started) {
+                httpGet = new HttpGet(nextLink);
+                httpGet.addHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
+                LOGGER.debug("Fetching: {}", httpGet.getURI());
+            } else {
+                try {
+                    httpGet = query.buildListRequest();
+                } catch (ServiceFailureException ex) {
+                    failure = ex;
+                    drain();
+                    return;
+                }
+                started = true;
+            }
+            final CompletableFuture<HttpResponse> request = query.getService().executeAsync(httpGet);
+            inFlight = request;
+            if (cancelled) {
+                request.cancel(true);
+                return;
+            }
+            request.thenAcceptAsync(response -> {
+                try {
+                    fetchedPage = query.handleListResponse(httpGet, response);
+                } catch (IOException ex) {
+                    failure = new ServiceFailureException("Failed to fetch entities from query.", ex);
+                } catch (ServiceFailureException ex) {
+                    failure = ex;
+                }
+                drain();
+            }, executor).exceptionally(ex -> {
+                if (!cancelled) {
+                    failure = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    drain();
+                }
+                return null;
+            });
+        }
+    }
+
+}
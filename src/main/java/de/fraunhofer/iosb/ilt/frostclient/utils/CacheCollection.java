@@ -28,17 +28,26 @@ import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
 import de.fraunhofer.iosb.ilt.frostclient.model.EntityType;
 import de.fraunhofer.iosb.ilt.frostclient.model.Property;
 import de.fraunhofer.iosb.ilt.frostclient.models.CommonProperties;
-import java.util.HashMap;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A collection of caches for different EntityTypes for the same service.
  */
-public class CacheCollection {
+public class CacheCollection implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheCollection.class.getName());
 
     private final SensorThingsService service;
-    private final Map<String, EntityCacheDynamic<String>> caches = new HashMap<>();
+    private final Map<String, EntityCacheDynamic<String>> caches = new ConcurrentHashMap<>();
     private String defaultLocalIdKey = "localId";
+    private boolean concurrent = false;
+    private Path indexDirectory;
 
     public CacheCollection(SensorThingsService service) {
         this.service = service;
@@ -49,21 +58,90 @@ public class CacheCollection {
         return this;
     }
 
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
+    /**
+     * Set whether the caches created by this collection can be used by many
+     * threads at the same time. Must be set before creating caches.
+     *
+     * @param concurrent if true, create ConcurrentEntityCacheDynamic caches.
+     * @return this.
+     */
+    public CacheCollection setConcurrent(boolean concurrent) {
+        this.concurrent = concurrent;
+        return this;
+    }
+
+    public Path getIndexDirectory() {
+        return indexDirectory;
+    }
+
+    /**
+     * Set the directory to store a {@link PersistentIdIndex} for each cache
+     * in, so the caches do not have to be loaded again after a restart. Must
+     * be set before creating caches.
+     *
+     * @param indexDirectory The directory for the index files, or null to not
+     * use indexes.
+     * @return this.
+     */
+    public CacheCollection setIndexDirectory(Path indexDirectory) {
+        this.indexDirectory = indexDirectory;
+        return this;
+    }
+
+    private EntityCacheDynamic<String> newCache(EntityType et) {
+        final Dao dao = service.dao(et);
+        final EntityCacheDynamic<String> cache = concurrent ? new ConcurrentEntityCacheDynamic<>(dao) : new EntityCacheDynamic<>(dao);
+        if (indexDirectory != null) {
+            final Path indexFile = indexDirectory.resolve(et.getEntityName() + ".idx");
+            try {
+                cache.setIdIndex(PersistentIdIndex.open(indexFile));
+            } catch (IOException ex) {
+                LOGGER.warn("Failed to open index {}, continuing without it", indexFile, ex);
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Create a cache for the given entity type, replacing an existing cache.
+     * The index of a replaced cache is closed before the new cache opens it.
+     *
+     * @param et The entity type to create the cache for.
+     * @param localIdExtractor The extractor for the localId of entities.
+     * @param filterFromlocalId The function creating a filter for a localId.
+     * @return this.
+     */
     public CacheCollection createCache(EntityType et, PropertyExtractor<String, Entity> localIdExtractor, PropertyExtractor<String, String> filterFromlocalId) {
-        var ec = new EntityCacheDynamic<String>(service.dao(et))
+        closeIndex(caches.remove(et.getEntityName()));
+        var ec = newCache(et)
                 .setLocalIdExtractor(localIdExtractor)
                 .setFilterFromlocalId(filterFromlocalId);
         caches.put(et.getEntityName(), ec);
         return this;
     }
 
+    private static void closeIndex(EntityCacheDynamic<String> cache) {
+        if (cache == null || cache.getIdIndex() == null) {
+            return;
+        }
+        try {
+            cache.getIdIndex().close();
+        } catch (IOException ex) {
+            LOGGER.warn("Failed to close index {}", cache.getIdIndex().getFile(), ex);
+        }
+    }
+
     public CacheCollection createLocalIdCache(final EntityType et) {
         if (caches.containsKey(et.getEntityName())) {
             throw new IllegalStateException("CacheCollection already contains a cache for " + et.getEntityName());
         }
         final PropertyExtractor<String, Entity> localIdExtractor = createLocalIdExtractor(et, defaultLocalIdKey);
         final PropertyExtractor<String, String> filterFromLocalId = createFilterFromLocalId();
-        var ec = new EntityCacheDynamic<String>(service.dao(et))
+        var ec = newCache(et)
                 .setLocalIdExtractor(localIdExtractor)
                 .setFilterFromlocalId(filterFromLocalId);
         caches.put(et.getEntityName(), ec);
@@ -74,11 +152,16 @@ public class CacheCollection {
         if (caches.containsKey(et.getEntityName())) {
             throw new IllegalStateException("CacheCollection already contains a cache for " + et.getEntityName());
         }
-        var ec = createNameCache(et, service.dao(et));
-        caches.put(et.getEntityName(), ec);
+        caches.put(et.getEntityName(), newNameCache(et));
         return this;
     }
 
+    private EntityCacheDynamic<String> newNameCache(final EntityType et) {
+        return newCache(et)
+                .setLocalIdExtractor(CacheCollection.createNameExtractor(et))
+                .setFilterFromlocalId(PropertyExtractor.createFilterFromName());
+    }
+
     public static EntityCacheDynamic<String> createNameCache(final EntityType et, Dao dao) {
         final PropertyExtractor<String, Entity> nameExtractor = CacheCollection.createNameExtractor(et);
         final PropertyExtractor<String, String> filterFromName = PropertyExtractor.createFilterFromName();
@@ -134,11 +217,7 @@ public class CacheCollection {
      * @return the existing entity cache, or a new name-based cache.
      */
     public EntityCacheDynamic<String> getCacheNameBased(final EntityType et) {
-        final EntityCacheDynamic<String> cache = caches.get(et.getEntityName());
-        if (cache == null) {
-            return createNameCache(et).getCache(et);
-        }
-        return cache;
+        return caches.computeIfAbsent(et.getEntityName(), name -> newNameCache(et));
     }
 
     /**
@@ -149,4 +228,30 @@ public class CacheCollection {
             cache.clear();
         }
     }
+
+    /**
+     * Closes the indexes of all caches.
+     *
+     * @throws IOException if closing an index fails.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (var cache : caches.values()) {
+            final PersistentIdIndex index = cache.getIdIndex();
+            if (index == null) {
+                continue;
+            }
+            try {
+                index.close();
+            } catch (IOException ex) {
+                if (failure == null) {
+                    failure = ex;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
 }
@@ -0,0 +1,638 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * The storage behind an {@link EntityCacheDynamic}, bounded to a maximum
+ * size, evicting entries according to a policy when full.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+interface CacheStore<K, V> {
+
+    /**
+     * Get the value for the given key, counting as an access for the
+     * eviction policy.
+     *
+     * @param key The key to get the value for.
+     * @return The value, or null if the key is not in the store.
+     */
+    V get(K key);
+
+    boolean containsKey(K key);
+
+    /**
+     * Put the given value in the store, evicting other entries if the store
+     * is full.
+     *
+     * @param key The key to put the value under.
+     * @param value The value to put.
+     */
+    void put(K key, V value);
+
+    V remove(K key);
+
+    /**
+     * Remove the entry for the given key, but only if it still holds the given
+     * value instance.
+     *
+     * @param key The key to remove.
+     * @param value The value the entry must hold.
+     * @return true if the entry was removed.
+     */
+    boolean remove(K key, V value);
+
+    void clear();
+
+    int size();
+
+    Collection<V> values();
+
+    /**
+     * Call the given action for each entry, without counting as an access.
+     *
+     * @param action The action to call.
+     */
+    void forEach(BiConsumer<? super K, ? super V> action);
+
+    /**
+     * Create a new store for the given policy.
+     *
+     * @param <K> The type of the keys.
+     * @param <V> The type of the values.
+     * @param policy The eviction policy.
+     * @param maxSize The maximum number of entries.
+     * @return a new, empty store.
+     */
+    static <K, V> CacheStore<K, V> create(EntityCacheDynamic.EvictionPolicy policy, int maxSize) {
+        switch (policy) {
+            case LFU:
+                return new Lfu<>(maxSize);
+            case CLEAR:
+                return new Clearing<>(maxSize);
+            case LRU:
+            default:
+                return new Lru<>(maxSize);
+        }
+    }
+
+    /**
+     * Create a new thread-safe store for the given policy. Reads do not lock.
+     *
+     * @param <K> The type of the keys.
+     * @param <V> The type of the values.
+     * @param policy The eviction policy.
+     * @param maxSize The maximum number of entries.
+     * @return a new, empty, thread-safe store.
+     */
+    static <K, V> CacheStore<K, V> createConcurrent(EntityCacheDynamic.EvictionPolicy policy, int maxSize) {
+        return new Concurrent<>(policy, maxSize);
+    }
+
+    /**
+     * Evicts the least recently used entry, using an access-ordered
+     * LinkedHashMap.
+     */
+    static class Lru<K, V> implements CacheStore<K, V> {
+
+        private final Map<K, V> entries;
+
+        Lru(int maxSize) {
+            entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        @Override
+        public V get(K key) {
+            return entries.get(key);
+        }
+
+        @Override
+        public boolean containsKey(K key) {
+            return entries.containsKey(key);
+        }
+
+        @Override
+        public void put(K key, V value) {
+            entries.put(key, value);
+        }
+
+        @Override
+        public V remove(K key) {
+            return entries.remove(key);
+        }
+
+        @Override
+        public boolean remove(K key, V value) {
+            final V current = entries.get(key);
+            if (current == null || current != value) {
+                return false;
+            }
+            entries.remove(key);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            entries.clear();
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public Collection<V> values() {
+            return Collections.unmodifiableCollection(entries.values());
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            entries.forEach(action);
+        }
+    }
+
+    /**
+     * Evicts the least frequently used entry, and of those the one that was
+     * least recently used. Keys are kept in buckets per access count, so all
+     * operations are O(1). Counts are capped at {@link #MAX_COUNT}, and all
+     * counts are halved after {@link #AGE_PERIOD} accesses per entry of
+     * capacity, so entries that were popular long ago can still be evicted.
+     * Halving is O(n), but happens only once per at least n accesses.
+     */
+    static class Lfu<K, V> implements CacheStore<K, V> {
+
+        /**
+         * The highest access count an entry can reach.
+         */
+        static final int MAX_COUNT = 15;
+
+        /**
+         * The number of accesses, per entry of capacity, after which all
+         * counts are halved.
+         */
+        static final int AGE_PERIOD = 8;
+
+        private final int maxSize;
+        private final long agePeriod;
+        private final Map<K, Node<V>> entries = new HashMap<>();
+        /**
+         * The keys, by their access count. Index 0 is not used.
+         */
+        private final List<LinkedHashSet<K>> buckets = new ArrayList<>(MAX_COUNT + 1);
+        private int minCount;
+        private long accesses;
+
+        Lfu(int maxSize) {
+            this.maxSize = maxSize;
+            this.agePeriod = (long) AGE_PERIOD * maxSize;
+            for (int count = 0; count <= MAX_COUNT; count++) {
+                buckets.add(new LinkedHashSet<>());
+            }
+        }
+
+        @Override
+        public V get(K key) {
+            final Node<V> node = entries.get(key);
+            if (node == null) {
+                return null;
+            }
+            touch(key, node);
+            return node.value;
+        }
+
+        private void touch(K key, Node<V> node) {
+            final LinkedHashSet<K> bucket = buckets.get(node.count);
+            bucket.remove(key);
+            if (node.count < MAX_COUNT) {
+                if (bucket.isEmpty() && minCount == node.count) {
+                    minCount++;
+                }
+                node.count++;
+            }
+            buckets.get(node.count).add(key);
+            if (++accesses >= agePeriod) {
+                age();
+            }
+        }
+
+        /**
+         * Halve all counts, keeping the order of the entries that end up with
+         * the same count.
+         */
+        private void age() {
+            accesses = 0;
+            for (int count = 2; count <= MAX_COUNT; count++) {
+                final LinkedHashSet<K> bucket = buckets.get(count);
+                if (bucket.isEmpty()) {
+                    continue;
+                }
+                buckets.set(count, new LinkedHashSet<>());
+                final int newCount = count / 2;
+                final LinkedHashSet<K> target = buckets.get(newCount);
+                for (K key : bucket) {
+                    entries.get(key).count = newCount;
+                    target.add(key);
+                }
+            }
+            minCount = 0;
+            updateMinCount();
+        }
+
+        /**
+         * Move minCount up to the first non-empty bucket. Bounded by
+         * MAX_COUNT.
+         */
+        private void updateMinCount() {
+            if (entries.isEmpty()) {
+                minCount = 0;
+                return;
+            }
+            if (minCount < 1) {
+                minCount = 1;
+            }
+            while (buckets.get(minCount).isEmpty()) {
+                minCount++;
+            }
+        }
+
+        @Override
+        public boolean containsKey(K key) {
+            return entries.containsKey(key);
+        }
+
+        @Override
+        public void put(K key, V value) {
+            final Node<V> existing = entries.get(key);
+            if (existing != null) {
+                existing.value = value;
+                touch(key, existing);
+                return;
+            }
+            if (entries.size() >= maxSize) {
+                evict();
+            }
+            entries.put(key, new Node<>(value));
+            buckets.get(1).add(key);
+            minCount = 1;
+        }
+
+        private void evict() {
+            final K victim = buckets.get(minCount).iterator().next();
+            remove(victim);
+        }
+
+        @Override
+        public V remove(K key) {
+            final Node<V> node = entries.remove(key);
+            if (node == null) {
+                return null;
+            }
+            final LinkedHashSet<K> bucket = buckets.get(node.count);
+            bucket.remove(key);
+            if (bucket.isEmpty() && minCount == node.count) {
+                updateMinCount();
+            }
+            return node.value;
+        }
+
+        @Override
+        public boolean remove(K key, V value) {
+            final Node<V> node = entries.get(key);
+            if (node == null || node.value != value) {
+                return false;
+            }
+            remove(key);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            entries.clear();
+            for (LinkedHashSet<K> bucket : buckets) {
+                bucket.clear();
+            }
+            minCount = 0;
+            accesses = 0;
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public Collection<V> values() {
+            final Collection<V> values = new ArrayList<>(entries.size());
+            for (Node<V> node : entries.values()) {
+                values.add(node.value);
+            }
+            return Collections.unmodifiableCollection(values);
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            entries.forEach((key, node) -> action.accept(key, node.value));
+        }
+
+        private static class Node<V> {
+
+            V value;
+            int count = 1;
+
+            Node(V value) {
+                this.value = value;
+            }
+        }
+    }
+
+    /**
+     * Clears the entire store when it is full. The behaviour of earlier
+     * versions.
+     */
+    static class Clearing<K, V> implements CacheStore<K, V> {
+
+        private final int maxSize;
+        private final Map<K, V> entries = new LinkedHashMap<>();
+
+        Clearing(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public V get(K key) {
+            return entries.get(key);
+        }
+
+        @Override
+        public boolean containsKey(K key) {
+            return entries.containsKey(key);
+        }
+
+        @Override
+        public void put(K key, V value) {
+            if (entries.size() >= maxSize && !entries.containsKey(key)) {
+                entries.clear();
+            }
+            entries.put(key, value);
+        }
+
+        @Override
+        public V remove(K key) {
+            return entries.remove(key);
+        }
+
+        @Override
+        public boolean remove(K key, V value) {
+            final V current = entries.get(key);
+            if (current == null || current != value) {
+                return false;
+            }
+            entries.remove(key);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            entries.clear();
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public Collection<V> values() {
+            return Collections.unmodifiableCollection(entries.values());
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            entries.forEach(action);
+        }
+    }
+
+    /**
+     * A thread-safe store on a ConcurrentHashMap. Reads do not lock, they only
+     * mark the entry as used. Eviction approximates the policy with a clock:
+     * entries are queued in insertion order, and an entry taken from the head
+     * of the queue that was used since it was queued is given another round
+     * instead of being evicted. For LRU a single use buys one round, for LFU
+     * each use does, up to a limit. Removed entries stay in the queue until
+     * eviction reaches them, or until there are more of them than live
+     * entries, at which point the queue is compacted.
+     */
+    static class Concurrent<K, V> implements CacheStore<K, V> {
+
+        /**
+         * The maximum number of rounds an entry can earn with the LFU policy.
+         */
+        private static final int MAX_USES = 15;
+
+        /**
+         * The number of stale nodes below which the clock is never compacted.
+         */
+        private static final int MIN_COMPACT = 64;
+
+        private final EntityCacheDynamic.EvictionPolicy policy;
+        private final int maxSize;
+        private final Map<K, Node<K, V>> entries = new ConcurrentHashMap<>();
+        private final Queue<Node<K, V>> clock = new ConcurrentLinkedQueue<>();
+        /**
+         * The number of nodes in the clock whose entry was removed.
+         */
+        private final AtomicInteger staleNodes = new AtomicInteger();
+
+        Concurrent(EntityCacheDynamic.EvictionPolicy policy, int maxSize) {
+            this.policy = policy;
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public V get(K key) {
+            final Node<K, V> node = entries.get(key);
+            if (node == null) {
+                return null;
+            }
+            node.use(policy == EntityCacheDynamic.EvictionPolicy.LFU ? MAX_USES : 1);
+            return node.value;
+        }
+
+        @Override
+        public boolean containsKey(K key) {
+            return entries.containsKey(key);
+        }
+
+        @Override
+        public void put(K key, V value) {
+            final Node<K, V> node = new Node<>(key, value);
+            // Replacing the value inside compute keeps it atomic with remove.
+            final Node<K, V> current = entries.compute(key, (k, existing) -> {
+                if (existing == null) {
+                    return node;
+                }
+                existing.value = value;
+                return existing;
+            });
+            if (current != node) {
+                return;
+            }
+            clock.offer(node);
+            if (entries.size() > maxSize) {
+                evict();
+            }
+        }
+
+        private void evict() {
+            if (policy == EntityCacheDynamic.EvictionPolicy.CLEAR) {
+                clear();
+                return;
+            }
+            while (entries.size() > maxSize) {
+                final Node<K, V> node = clock.poll();
+                if (node == null) {
+                    return;
+                }
+                if (entries.get(node.key) != node) {
+                    // Removed since it was queued.
+                    staleNodes.decrementAndGet();
+                    continue;
+                }
+                if (node.uses > 0) {
+                    node.uses--;
+                    clock.offer(node);
+                } else {
+                    entries.remove(node.key, node);
+                }
+            }
+        }
+
+        @Override
+        public V remove(K key) {
+            final Node<K, V> node = entries.remove(key);
+            if (node == null) {
+                return null;
+            }
+            nodeRemoved();
+            return node.value;
+        }
+
+        @Override
+        public boolean remove(K key, V value) {
+            final boolean[] removed = new boolean[1];
+            entries.computeIfPresent(key, (k, node) -> {
+                if (node.value != value) {
+                    return node;
+                }
+                removed[0] = true;
+                return null;
+            });
+            if (removed[0]) {
+                nodeRemoved();
+            }
+            return removed[0];
+        }
+
+        /**
+         * Count a node in the clock as stale, and drop all stale nodes from the
+         * clock when they outnumber the live entries.
+         */
+        private void nodeRemoved() {
+            if (staleNodes.incrementAndGet() <= Math.max(MIN_COMPACT, entries.size())) {
+                return;
+            }
+            staleNodes.set(0);
+            clock.removeIf(node -> entries.get(node.key) != node);
+        }
+
+        @Override
+        public void clear() {
+            entries.clear();
+            clock.clear();
+            staleNodes.set(0);
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public Collection<V> values() {
+            final Collection<V> values = new ArrayList<>(entries.size());
+            for (Node<K, V> node : entries.values()) {
+                values.add(node.value);
+            }
+            return Collections.unmodifiableCollection(values);
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            entries.forEach((key, node) -> action.accept(key, node.value));
+        }
+
+        private static class Node<K, V> {
+
+            final K key;
+            volatile V value;
+            /**
+             * The number of rounds this entry survives eviction. Updated
+             * without synchronisation, a lost update only costs accuracy.
+             */
+            volatile int uses;
+
+            Node(K key, V value) {
+                this.key = key;
+                this.value = value;
+            }
+
+            void use(int max) {
+                final int current = uses;
+                if (current < max) {
+                    uses = current + 1;
+                }
+            }
+        }
+    }
+}
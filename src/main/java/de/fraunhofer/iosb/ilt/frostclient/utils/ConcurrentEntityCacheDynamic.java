@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.utils;
+
+import de.fraunhofer.iosb.ilt.frostclient.dao.Dao;
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * An EntityCacheDynamic that can be used by many threads at the same time.
+ * Lookups do not lock, and when several threads ask for the same missing
+ * localId, only one of them loads it from the server while the others wait
+ * for that result.
+ *
+ * The configuration (maxSize, eviction policy, extractors) should be set
+ * before the cache is shared between threads.
+ *
+ * @param <U> The type of the localId.
+ */
+public class ConcurrentEntityCacheDynamic<U> extends EntityCacheDynamic<U> {
+
+    private final ConcurrentHashMap<U, CompletableFuture<Entity>> loading = new ConcurrentHashMap<>();
+
+    public ConcurrentEntityCacheDynamic(Dao dao) {
+        super(dao);
+    }
+
+    @Override
+    <V> CacheStore<U, V> createStore(EvictionPolicy policy, int maxSize) {
+        return CacheStore.createConcurrent(policy, maxSize);
+    }
+
+    @Override
+    boolean isThreadSafe() {
+        return true;
+    }
+
+    /**
+     * Load an entity that is not in the cache. Concurrent calls for the same
+     * localId share a single request.
+     *
+     * @param localId The localId to load.
+     * @return The loaded entity, or null if it does not exist.
+     * @throws ServiceFailureException if loading fails.
+     */
+    @Override
+    Entity loadMissing(U localId) throws ServiceFailureException {
+        final CompletableFuture<Entity> mine = new CompletableFuture<>();
+        final CompletableFuture<Entity> running = loading.putIfAbsent(localId, mine);
+        if (running != null) {
+            return await(localId, running);
+        }
+        try {
+            // Another thread may have finished loading since our cache miss.
+            Entity entity = get(localId);
+            if (entity == null && !isKnownMissing(localId, System.nanoTime())) {
+                entity = super.loadMissing(localId);
+            }
+            mine.complete(entity);
+            return entity;
+        } catch (Throwable ex) {
+            mine.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            loading.remove(localId, mine);
+        }
+    }
+
+    private Entity await(U localId, CompletableFuture<Entity> running) throws ServiceFailureException {
+        try {
+            return running.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ServiceFailureException("Interrupted while waiting for " + localId + " to load", ex);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof ServiceFailureException sfe) {
+                throw new ServiceFailureException(sfe.getMessage(), sfe);
+            }
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new ServiceFailureException("Failed to load " + localId, cause);
+        }
+    }
+
+}
@@ -27,12 +27,22 @@ import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
 import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
 import de.fraunhofer.iosb.ilt.frostclient.model.EntitySet;
 import de.fraunhofer.iosb.ilt.frostclient.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
 import de.fraunhofer.iosb.ilt.frostclient.query.Query;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,6 +53,11 @@ public class EntityCacheDynamic<U> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(EntityCacheDynamic.class.getName());
 
+    /**
+     * The default number of localIds to look up with one query.
+     */
+    public static final int DEFAULT_LOOKUP_CHUNK_SIZE = 50;
+
     /**
      * Rule for what to do when a duplicate ID is found.
      */
@@ -61,7 +76,58 @@ public class EntityCacheDynamic<U> {
         IGNORE
     }
 
-    private final Map<U, Entity> entitiesByLocalId = new LinkedHashMap<>();
+    /**
+     * Rule for which entries to evict when the cache is full.
+     */
+    public static enum EvictionPolicy {
+        /**
+         * Evict the least recently used entry.
+         */
+        LRU,
+        /**
+         * Evict the least frequently used entry, and of those the least
+         * recently used. Access counts decay over time, so entries that are
+         * no longer used are eventually evicted.
+         */
+        LFU,
+        /**
+         * Clear the entire cache.
+         */
+        CLEAR
+    }
+
+    /**
+     * A cached entity, with the time it was loaded.
+     */
+    static final class CachedEntity {
+
+        final Entity entity;
+        final long loadedAt;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        CachedEntity(Entity entity, long loadedAt) {
+            this.entity = entity;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private volatile CacheStore<U, CachedEntity> entitiesByLocalId = createStore(EvictionPolicy.LRU, Integer.MAX_VALUE);
+
+    /**
+     * The localIds that were not found on the server, with the time of the
+     * miss. Null if negative caching is disabled.
+     */
+    private volatile CacheStore<U, Long> missingByLocalId;
+
+    private int negativeCacheSize = 0;
+
+    private long negativeTtlNanos = 0;
+
+    private long ttlNanos = 0;
+
+    private long refreshAheadNanos = 0;
+
+    private EvictionPolicy evictionPolicy = EvictionPolicy.LRU;
 
     private PropertyExtractor<U, Entity> localIdExtractor;
 
@@ -77,18 +143,36 @@ public class EntityCacheDynamic<U> {
 
     private DuplicateRule duplicateRule = DuplicateRule.ERROR;
 
+    private int lookupChunkSize = DEFAULT_LOOKUP_CHUNK_SIZE;
+
+    private PersistentIdIndex idIndex;
+
     public EntityCacheDynamic(Dao dao) {
         this.dao = dao;
         this.entityType = dao.getEntityType();
     }
 
     public Entity get(U localId) {
-        return entitiesByLocalId.get(localId);
+        final CachedEntity cached = getFresh(localId, System.nanoTime());
+        return cached == null ? null : cached.entity;
     }
 
     public Entity get(Entity nonCached) {
         U localId = localIdExtractor.extractFrom(nonCached);
-        return entitiesByLocalId.get(localId);
+        return get(localId);
+    }
+
+    private CachedEntity getFresh(U localId, long now) {
+        final CachedEntity cached = entitiesByLocalId.get(localId);
+        if (cached == null) {
+            return null;
+        }
+        if (ttlNanos > 0 && now - cached.loadedAt >= ttlNanos) {
+            // Only remove this instance, not one that was refreshed meanwhile.
+            entitiesByLocalId.remove(localId, cached);
+            return null;
+        }
+        return cached;
     }
 
     public Entity getOrLoad(Entity nonCached) throws ServiceFailureException {
@@ -98,48 +182,260 @@ public class EntityCacheDynamic<U> {
 
     /**
      * Get from the cache.If not in the cache, load using the given filter.
+     * Entries that are close to expiry are returned, and refreshed in the
+     * background. LocalIds that recently were not found on the server are
+     * not queried again while they are in the negative cache.
      *
      * @param localId The localId to get.
      * @return The requested entity, if it exists.
      * @throws ServiceFailureException if loading fails.
      */
     public Entity getOrLoad(U localId) throws ServiceFailureException {
-        Entity entity = entitiesByLocalId.get(localId);
-        if (entity != null) {
-            return entity;
+        final long now = System.nanoTime();
+        final CachedEntity cached = getFresh(localId, now);
+        if (cached != null) {
+            if (refreshAheadNanos > 0 && ttlNanos > 0 && now - cached.loadedAt >= ttlNanos - refreshAheadNanos) {
+                refreshAsync(localId, cached);
+            }
+            return cached.entity;
         }
+        if (isKnownMissing(localId, now)) {
+            return null;
+        }
+        return loadMissing(localId);
+    }
 
-        if (filterFromlocalId != null) {
-            final String filter = filterFromlocalId.extractFrom(localId);
-            Query query = dao.query()
-                    .filter(filter)
-                    .top(2);
-            if (!StringHelper.isNullOrEmpty(expand)) {
-                // TODO: clean up once new version is released
-                query = query.expand(expand);
+    /**
+     * Get all given localIds from the cache, and load the ones that are not in
+     * the cache. The misses are loaded in chunks, with one query per chunk
+     * that combines the filters of the localIds with "or".
+     *
+     * @param localIds The localIds to get.
+     * @return The entities that exist, by localId, in the order of the given
+     * localIds.
+     * @throws ServiceFailureException if loading fails.
+     */
+    public Map<U, Entity> getOrLoadAll(Collection<U> localIds) throws ServiceFailureException {
+        final long now = System.nanoTime();
+        final Map<U, Entity> found = new LinkedHashMap<>();
+        final Set<U> misses = new LinkedHashSet<>();
+        for (U localId : localIds) {
+            final CachedEntity cached = getFresh(localId, now);
+            if (cached != null) {
+                found.put(localId, cached.entity);
+            } else if (!isKnownMissing(localId, now)) {
+                misses.add(localId);
             }
-            final List<Entity> entities = query.list()
-                    .toList();
-            if (entities.size() > 1) {
-                if (duplicateRule == DuplicateRule.ERROR) {
-                    throw new IllegalStateException("More than one " + entityType.name + " matches filter " + filter);
-                }
-                if (duplicateRule == DuplicateRule.WARN) {
-                    LOGGER.warn("More than one {} matches filter {}", entityType.name, filter);
+        }
+        if (misses.isEmpty()) {
+            return found;
+        }
+        final Map<U, Entity> loaded = new HashMap<>();
+        final PersistentIdIndex index = idIndex;
+        if (index != null) {
+            final List<U> indexed = new ArrayList<>();
+            for (U localId : misses) {
+                if (index.get(indexKey(localId)) != null) {
+                    indexed.add(localId);
                 }
             }
-            if (!entities.isEmpty()) {
-                entity = entities.get(0);
+            for (int start = 0; start < indexed.size(); start += lookupChunkSize) {
+                loadIndexedChunk(indexed.subList(start, Math.min(start + lookupChunkSize, indexed.size())), loaded);
+            }
+            misses.removeAll(loaded.keySet());
+        }
+        if (filterFromlocalId != null) {
+            final List<U> missList = new ArrayList<>(misses);
+            for (int start = 0; start < missList.size(); start += lookupChunkSize) {
+                loadChunk(missList.subList(start, Math.min(start + lookupChunkSize, missList.size())), loaded);
             }
+        }
+        final Map<U, Entity> result = new LinkedHashMap<>();
+        for (U localId : localIds) {
+            final Entity entity = found.containsKey(localId) ? found.get(localId) : loaded.get(localId);
             if (entity != null) {
+                result.put(localId, entity);
+            }
+        }
+        return result;
+    }
+
+    private void loadChunk(List<U> chunk, Map<U, Entity> loaded) throws ServiceFailureException {
+        final StringBuilder filter = new StringBuilder();
+        for (U localId : chunk) {
+            if (filter.length() > 0) {
+                filter.append(" or ");
+            }
+            filter.append('(').append(filterFromlocalId.extractFrom(localId)).append(')');
+        }
+        // No $top: with duplicates, a page of chunk.size() would not hold all
+        // matches, and the ones cut off would be remembered as missing.
+        for (Entity entity : chunkQuery(filter.toString()).list()) {
+            final U localId = localIdExtractor.extractFrom(entity);
+            if (!loaded.containsKey(localId)) {
+                loaded.put(localId, entity);
                 put(localId, entity);
+            } else if (duplicateRule == DuplicateRule.ERROR) {
+                throw new IllegalStateException("More than one " + entityType.name + " found for localId " + localId);
+            } else if (duplicateRule == DuplicateRule.WARN) {
+                LOGGER.warn("More than one {} found for localId {}", entityType.name, localId);
+            }
+        }
+        for (U localId : chunk) {
+            if (!loaded.containsKey(localId)) {
+                rememberMissing(localId);
+            }
+        }
+    }
+
+    /**
+     * Load the entities of the given localIds by the primary keys stored in
+     * the index, and check that they still have the same localId. LocalIds for
+     * which this fails are removed from the index.
+     */
+    private void loadIndexedChunk(List<U> chunk, Map<U, Entity> loaded) throws ServiceFailureException {
+        final String keyName = entityType.getPrimaryKey().getKeyProperties().get(0).getName();
+        final Map<PkValue, U> localIdByPk = new HashMap<>();
+        final StringBuilder filter = new StringBuilder();
+        for (U localId : chunk) {
+            final PkValue pk = idIndex.get(indexKey(localId));
+            if (pk == null) {
+                continue;
+            }
+            localIdByPk.put(pk, localId);
+            if (filter.length() > 0) {
+                filter.append(" or ");
+            }
+            filter.append(keyName)
+                    .append(" eq ")
+                    .append(StringHelper.formatKeyValuesForUrl(entityType.getPrimaryKey(), pk));
+        }
+        if (localIdByPk.isEmpty()) {
+            return;
+        }
+        for (Entity entity : chunkQuery(filter.toString()).top(localIdByPk.size()).list()) {
+            final U expected = localIdByPk.get(entity.getPrimaryKeyValues());
+            final U localId = localIdExtractor.extractFrom(entity);
+            if (expected != null && Objects.equals(expected, localId)) {
+                loaded.put(localId, entity);
+                put(localId, entity);
+            }
+        }
+        for (U localId : localIdByPk.values()) {
+            if (!loaded.containsKey(localId)) {
+                LOGGER.debug("Indexed {} {} no longer exists", entityType.name, localId);
+                updateIndex(localId, null);
+            }
+        }
+    }
+
+    private Query chunkQuery(String filter) {
+        Query query = dao.query()
+                .filter(filter);
+        if (!StringHelper.isNullOrEmpty(expand)) {
+            query = query.expand(expand);
+        }
+        return query;
+    }
+
+    /**
+     * Load an entity that is not in the cache.
+     *
+     * @param localId The localId to load.
+     * @return The loaded entity, or null if it does not exist.
+     * @throws ServiceFailureException if loading fails.
+     */
+    Entity loadMissing(U localId) throws ServiceFailureException {
+        if (idIndex != null && idIndex.get(indexKey(localId)) != null) {
+            final Map<U, Entity> loaded = new HashMap<>(1);
+            loadIndexedChunk(Collections.singletonList(localId), loaded);
+            final Entity entity = loaded.get(localId);
+            if (entity != null) {
+                return entity;
             }
         }
+        if (filterFromlocalId == null) {
+            return null;
+        }
+        return reload(localId);
+    }
+
+    private Entity reload(U localId) throws ServiceFailureException {
+        final String filter = filterFromlocalId.extractFrom(localId);
+        Query query = dao.query()
+                .filter(filter)
+                .top(2);
+        if (!StringHelper.isNullOrEmpty(expand)) {
+            // TODO: clean up once new version is released
+            query = query.expand(expand);
+        }
+        final List<Entity> entities = query.list()
+                .toList();
+        if (entities.size() > 1) {
+            if (duplicateRule == DuplicateRule.ERROR) {
+                throw new IllegalStateException("More than one " + entityType.name + " matches filter " + filter);
+            }
+            if (duplicateRule == DuplicateRule.WARN) {
+                LOGGER.warn("More than one {} matches filter {}", entityType.name, filter);
+            }
+        }
+        if (entities.isEmpty()) {
+            rememberMissing(localId);
+            return null;
+        }
+        final Entity entity = entities.get(0);
+        put(localId, entity);
         return entity;
     }
 
+    private void refreshAsync(U localId, CachedEntity cached) {
+        if (filterFromlocalId == null || !cached.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        dao.getService().getExecutor().execute(() -> {
+            try {
+                reload(localId);
+            } catch (ServiceFailureException | RuntimeException ex) {
+                LOGGER.warn("Failed to refresh {} {}", entityType.name, localId, ex);
+                cached.refreshing.set(false);
+            }
+        });
+    }
+
+    /**
+     * Check if the given localId is in the negative cache.
+     *
+     * @param localId The localId to check.
+     * @param now The current value of System.nanoTime().
+     * @return true if the localId recently was not found on the server.
+     */
+    boolean isKnownMissing(U localId, long now) {
+        final CacheStore<U, Long> missing = missingByLocalId;
+        if (missing == null) {
+            return false;
+        }
+        final Long missedAt = missing.get(localId);
+        if (missedAt == null) {
+            return false;
+        }
+        if (negativeTtlNanos > 0 && now - missedAt >= negativeTtlNanos) {
+            missing.remove(localId);
+            return false;
+        }
+        return true;
+    }
+
+    private void rememberMissing(U localId) {
+        entitiesByLocalId.remove(localId);
+        updateIndex(localId, null);
+        final CacheStore<U, Long> missing = missingByLocalId;
+        if (missing != null) {
+            missing.put(localId, System.nanoTime());
+        }
+    }
+
     public boolean containsId(U localId) {
-        return entitiesByLocalId.containsKey(localId);
+        return getFresh(localId, System.nanoTime()) != null;
     }
 
     public void put(Entity entity) {
@@ -148,19 +444,52 @@ public class EntityCacheDynamic<U> {
     }
 
     public void put(U localId, Entity entity) {
-        if (entitiesByLocalId.size() >= maxSize) {
-            clear();
+        entitiesByLocalId.put(localId, new CachedEntity(entity, System.nanoTime()));
+        final CacheStore<U, Long> missing = missingByLocalId;
+        if (missing != null) {
+            missing.remove(localId);
         }
+        updateIndex(localId, entity);
+    }
 
-        entitiesByLocalId.put(localId, entity);
+    private static String indexKey(Object localId) {
+        return String.valueOf(localId);
+    }
+
+    /**
+     * Store the primary key of the given entity in the index, or remove the
+     * localId from the index if the entity is null. Failing to write the index
+     * only costs a query after the next restart, so it is logged, not thrown.
+     */
+    private void updateIndex(U localId, Entity entity) {
+        final PersistentIdIndex index = idIndex;
+        if (index == null || localId == null) {
+            return;
+        }
+        try {
+            if (entity == null) {
+                index.remove(indexKey(localId));
+                return;
+            }
+            final PkValue pk = entity.getPrimaryKeyValues();
+            if (pk.isFullySet()) {
+                index.put(indexKey(localId), pk);
+            }
+        } catch (IOException ex) {
+            LOGGER.warn("Failed to update index {}", index.getFile(), ex);
+        }
     }
 
     public void clear() {
         entitiesByLocalId.clear();
+        final CacheStore<U, Long> missing = missingByLocalId;
+        if (missing != null) {
+            missing.clear();
+        }
     }
 
     public boolean isEmpty() {
-        return entitiesByLocalId.isEmpty();
+        return entitiesByLocalId.size() == 0;
     }
 
     public int load() throws ServiceFailureException {
@@ -190,7 +519,7 @@ public class EntityCacheDynamic<U> {
             try {
                 final U localId = localIdExtractor.extractFrom(entity);
                 if (localId != null) {
-                    entitiesByLocalId.put(localId, entity);
+                    put(localId, entity);
                     count++;
                 }
             } catch (RuntimeException ex) {
@@ -205,7 +534,10 @@ public class EntityCacheDynamic<U> {
     }
 
     public Collection<Entity> values() {
-        return entitiesByLocalId.values();
+        return entitiesByLocalId.values()
+                .stream()
+                .map(cached -> cached.entity)
+                .toList();
     }
 
     public U localIdFor(Entity entity) {
@@ -224,8 +556,201 @@ public class EntityCacheDynamic<U> {
         return maxSize;
     }
 
+    /**
+     * Set the maximum number of entities in the cache. When the cache is full,
+     * entities are evicted according to the eviction policy.
+     *
+     * @param maxSize The maximum number of entities in the cache.
+     * @return this.
+     */
     public EntityCacheDynamic<U> setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be larger than 0, got " + maxSize);
+        }
         this.maxSize = maxSize;
+        recreateStore();
+        return this;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * Set the policy that decides which entities are evicted when the cache
+     * is full. The default is LRU.
+     *
+     * @param evictionPolicy The eviction policy.
+     * @return this.
+     */
+    public EntityCacheDynamic<U> setEvictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+        recreateStore();
+        return this;
+    }
+
+    public Duration getTtl() {
+        return Duration.ofNanos(ttlNanos);
+    }
+
+    /**
+     * Set how long entities stay in the cache after they are loaded. Expired
+     * entities are loaded again by getOrLoad. Null or zero disables expiry,
+     * which is the default.
+     *
+     * @param ttl The time to live of cached entities.
+     * @return this.
+     */
+    public EntityCacheDynamic<U> setTtl(Duration ttl) {
+        this.ttlNanos = toNanos(ttl, "ttl");
+        return this;
+    }
+
+    public Duration getRefreshAhead() {
+        return Duration.ofNanos(refreshAheadNanos);
+    }
+
+    /**
+     * Set how long before expiry getOrLoad starts refreshing an entity in the
+     * background, using the executor of the service. The cached entity is
+     * returned while it is being refreshed. Only used when a TTL is set. Null
+     * or zero disables refreshing ahead, which is the default.
+     *
+     * Since the refresh runs on another thread, this is only supported by
+     * {@link ConcurrentEntityCacheDynamic}.
+     *
+     * @param refreshAhead The time before expiry to start refreshing.
+     * @return this.
+     * @throws IllegalStateException if refreshing ahead is enabled on a cache
+     * that is not thread-safe.
+     */
+    public EntityCacheDynamic<U> setRefreshAhead(Duration refreshAhead) {
+        final long nanos = toNanos(refreshAhead, "refreshAhead");
+        if (nanos > 0 && !isThreadSafe()) {
+            throw new IllegalStateException("Refreshing ahead requires a thread-safe cache, use a ConcurrentEntityCacheDynamic");
+        }
+        this.refreshAheadNanos = nanos;
+        return this;
+    }
+
+    /**
+     * Check if this cache can be used from several threads at the same time.
+     *
+     * @return true if the cache is thread-safe.
+     */
+    boolean isThreadSafe() {
+        return false;
+    }
+
+    public int getNegativeCacheSize() {
+        return negativeCacheSize;
+    }
+
+    /**
+     * Set the maximum number of localIds that are remembered as not existing
+     * on the server. As long as a localId is remembered, getOrLoad returns
+     * null for it without querying the server. Putting an entity for a
+     * localId removes it from the negative cache. Zero disables negative
+     * caching, which is the default.
+     *
+     * @param negativeCacheSize The maximum number of remembered misses.
+     * @return this.
+     */
+    public EntityCacheDynamic<U> setNegativeCacheSize(int negativeCacheSize) {
+        if (negativeCacheSize < 0) {
+            throw new IllegalArgumentException("negativeCacheSize must not be negative, got " + negativeCacheSize);
+        }
+        this.negativeCacheSize = negativeCacheSize;
+        missingByLocalId = negativeCacheSize == 0 ? null : createStore(EvictionPolicy.LRU, negativeCacheSize);
+        return this;
+    }
+
+    public Duration getNegativeTtl() {
+        return Duration.ofNanos(negativeTtlNanos);
+    }
+
+    /**
+     * Set how long a localId that was not found on the server is remembered
+     * as missing. Null or zero means misses are remembered until they are
+     * evicted from the negative cache, or the cache is cleared.
+     *
+     * @param negativeTtl The time to live of remembered misses.
+     * @return this.
+     */
+    public EntityCacheDynamic<U> setNegativeTtl(Duration negativeTtl) {
+        this.negativeTtlNanos = toNanos(negativeTtl, "negativeTtl");
+        return this;
+    }
+
+    private static long toNanos(Duration duration, String name) {
+        if (duration == null) {
+            return 0;
+        }
+        if (duration.isNegative()) {
+            throw new IllegalArgumentException(name + " must not be negative, got " + duration);
+        }
+        return duration.toNanos();
+    }
+
+    /**
+     * Create a store for the cache.
+     *
+     * @param <V> The type of the values in the store.
+     * @param policy The eviction policy of the store.
+     * @param maxSize The maximum size of the store.
+     * @return A new, empty store.
+     */
+    <V> CacheStore<U, V> createStore(EvictionPolicy policy, int maxSize) {
+        return CacheStore.create(policy, maxSize);
+    }
+
+    private void recreateStore() {
+        final CacheStore<U, CachedEntity> newStore = createStore(evictionPolicy, maxSize);
+        entitiesByLocalId.forEach(newStore::put);
+        entitiesByLocalId = newStore;
+    }
+
+    public PersistentIdIndex getIdIndex() {
+        return idIndex;
+    }
+
+    /**
+     * Set a persistent index that remembers the primary key of each localId
+     * across restarts. With an index, the cache does not have to be filled
+     * with load() after a restart. Instead, a localId that is in the index is
+     * loaded by its primary key the first time it is requested, and checked to
+     * still have the same localId. LocalIds are stored in the index as
+     * Strings. Clearing the cache does not clear the index.
+     *
+     * @param idIndex The index to use, or null to not use an index.
+     * @return this.
+     */
+    public EntityCacheDynamic<U> setIdIndex(PersistentIdIndex idIndex) {
+        if (idIndex != null && entityType.getPrimaryKey().getKeyProperties().size() != 1) {
+            throw new IllegalArgumentException("An index can only be used for entity types with a single-value primary key, " + entityType.name + " has " + entityType.getPrimaryKey().getKeyProperties().size());
+        }
+        this.idIndex = idIndex;
+        return this;
+    }
+
+    public int getLookupChunkSize() {
+        return lookupChunkSize;
+    }
+
+    /**
+     * Set the number of localIds that are looked up with one query when
+     * several localIds are loaded at once. The filters of the localIds are
+     * OR-ed together, so the chunk size is limited by the maximum URL length
+     * of the server.
+     *
+     * @param lookupChunkSize The number of localIds per query.
+     * @return this.
+     */
+    public EntityCacheDynamic<U> setLookupChunkSize(int lookupChunkSize) {
+        if (lookupChunkSize <= 0) {
+            throw new IllegalArgumentException("lookupChunkSize must be > 0, got " + lookupChunkSize);
+        }
+        this.lookupChunkSize = lookupChunkSize;
         return this;
     }
 
@@ -22,16 +22,27 @@
  */
 package de.fraunhofer.iosb.ilt.frostclient.utils;
 
+import static de.fraunhofer.iosb.ilt.frostclient.models.CommonProperties.EP_PROPERTIES;
+
 import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.dao.PipelinedWriter;
 import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
 import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.model.property.type.TypeComplex;
+import de.fraunhofer.iosb.ilt.frostclient.models.ext.MapValue;
 import de.fraunhofer.iosb.ilt.frostclient.models.ext.UnitOfMeasurement;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +59,11 @@ public final class FrostUtils {
 
     private static final int DEFAULT_MAX_PROPERTIES_DEPTH = 5;
 
+    /**
+     * The default number of create requests to run in parallel.
+     */
+    public static final int DEFAULT_CREATE_WINDOW = 8;
+
     public static final ZoneId ZONE_ID_Z = ZoneId.of("Z");
 
     /**
@@ -72,6 +88,7 @@ public final class FrostUtils {
     private int countInsert;
     private int countUpdate;
     private String logPrefix = "";
+    private int createWindow = DEFAULT_CREATE_WINDOW;
 
     public FrostUtils(final SensorThingsService service) {
         this.service = service;
@@ -91,8 +108,29 @@ public final class FrostUtils {
         return service;
     }
 
+    public int getCreateWindow() {
+        return createWindow;
+    }
+
+    /**
+     * Set the number of create requests {@link #findOrCreateAll} runs in
+     * parallel.
+     *
+     * @param createWindow The maximum number of create requests in flight.
+     * @return this.
+     */
+    public FrostUtils setCreateWindow(int createWindow) {
+        if (createWindow <= 0) {
+            throw new IllegalArgumentException("createWindow must be > 0, got " + createWindow);
+        }
+        this.createWindow = createWindow;
+        return this;
+    }
+
     public void update(final Entity entity) throws ServiceFailureException {
-        if (dryRun) {
+        if (!entity.hasChanges()) {
+            LOGGER.debug("{}Not updating entity {}, no changes", logPrefix, entity);
+        } else if (dryRun) {
             LOGGER.info("{}Dry Run: Not updating entity {}", logPrefix, entity);
         } else {
             service.update(entity);
@@ -136,9 +174,110 @@ public final class FrostUtils {
         return cachedEntity;
     }
 
+    /**
+     * Find or create all given entities. Entities that are not in the cache
+     * are looked up with {@link EntityCacheDynamic#getOrLoadAll(Collection)}.
+     * The remaining entities are created in parallel, and added to the cache.
+     *
+     * @param <U> The type of the localId.
+     * @param newEntities The entities to find or create.
+     * @param cache The cache to look up and store entities in. Must have a
+     * localId extractor and a filter generator.
+     * @return The cached or created entity for each given entity, in the same
+     * order.
+     * @throws ServiceFailureException if a lookup or create fails.
+     */
+    public <U> List<Entity> findOrCreateAll(final Collection<Entity> newEntities, EntityCacheDynamic<U> cache) throws ServiceFailureException {
+        final Map<U, Entity> missing = new LinkedHashMap<>();
+        final List<U> localIds = new ArrayList<>(newEntities.size());
+        for (Entity newEntity : newEntities) {
+            final U localId = cache.localIdFor(newEntity);
+            localIds.add(localId);
+            missing.putIfAbsent(localId, newEntity);
+        }
+        // The cache may evict or expire entries while this runs, so the result
+        // is built from what was found and created, not read from the cache.
+        final Map<U, Entity> found = new HashMap<>();
+        if (!missing.isEmpty()) {
+            found.putAll(cache.getOrLoadAll(missing.keySet()));
+            missing.keySet().removeAll(found.keySet());
+            createAll(missing, cache, found);
+        }
+        final List<Entity> result = new ArrayList<>(localIds.size());
+        for (U localId : localIds) {
+            result.add(found.get(localId));
+        }
+        return result;
+    }
+
+    private <U> void createAll(Map<U, Entity> toCreate, EntityCacheDynamic<U> cache, Map<U, Entity> created) throws ServiceFailureException {
+        if (dryRun) {
+            // Like findOrCreate: the new entity stands in for the created one.
+            for (Map.Entry<U, Entity> entry : toCreate.entrySet()) {
+                LOGGER.info("{}Dry Run: Not creating entity {}", logPrefix, entry.getValue());
+                cache.put(entry.getKey(), entry.getValue());
+                created.put(entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+        final Map<U, CompletableFuture<Entity>> futures = new LinkedHashMap<>();
+        try (PipelinedWriter writer = new PipelinedWriter(cache.getDao(), createWindow, false)) {
+            for (Map.Entry<U, Entity> entry : toCreate.entrySet()) {
+                futures.put(entry.getKey(), writer.create(entry.getValue()));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ServiceFailureException("Interrupted while creating entities.", ex);
+        }
+        ServiceFailureException failure = null;
+        for (Map.Entry<U, CompletableFuture<Entity>> entry : futures.entrySet()) {
+            try {
+                final Entity entity = entry.getValue().join();
+                cache.put(entry.getKey(), entity);
+                created.put(entry.getKey(), entity);
+                countInsert++;
+                LOGGER.info("{}Created {}: {}", logPrefix, entity.getType(), entry.getKey());
+            } catch (CompletionException ex) {
+                if (failure == null) {
+                    failure = ex.getCause() instanceof ServiceFailureException sfe ? sfe : new ServiceFailureException(ex.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Checks if all entries in source exist in the properties of the given
+     * entity, with the same value. If not, the properties of the entity are
+     * updated and marked as changed, and true is returned. Sub-maps are
+     * recursed.
+     *
+     * @param entity the entity to update the properties of.
+     * @param source the source map to get values from
+     * @param maxDepth The maximum depth to recurse.
+     * @return true if the properties were updated, false if not.
+     */
+    public static boolean addProperties(final Entity entity, final Map<String, Object> source, final int maxDepth) {
+        MapValue properties = entity.getProperty(EP_PROPERTIES);
+        if (properties == null) {
+            properties = new MapValue(TypeComplex.STA_MAP);
+            entity.setProperty(EP_PROPERTIES, properties);
+        }
+        final boolean updated = addProperties(properties.getContent(), source, maxDepth);
+        if (updated) {
+            entity.markChanged(EP_PROPERTIES);
+        }
+        return updated;
+    }
+
     /**
      * Checks if all entries in source exist in target, with the same value. If
      * not, target is updated and true is returned. Sub-maps are recursed.
+     * When target is the properties map of an Entity, use
+     * {@link #addProperties(Entity, Map, int)} to also mark the properties as
+     * changed.
      *
      * @param target the target map to update
      * @param source the source map to get values from
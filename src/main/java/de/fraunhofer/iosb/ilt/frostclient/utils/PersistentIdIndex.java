@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.fraunhofer.iosb.ilt.frostclient.utils;
+
+import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent index from localId to the primary key of an entity, that
+ * survives restarts of the application. An EntityCacheDynamic with an index
+ * does not need to load all entities at startup: the first time a localId is
+ * requested, the entity is fetched by its primary key, and checked to still
+ * have the same localId.
+ *
+ * The index is an append-only log of put and remove records. At open, the
+ * file is read into memory. A record that was only half written, because the
+ * application stopped, is discarded. When the file contains more outdated
+ * than current records it is compacted, both at open and while writing.
+ *
+ * Primary key values of type Long, Integer, String and UUID are supported,
+ * other types are stored as String.
+ */
+public class PersistentIdIndex implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PersistentIdIndex.class.getName());
+
+    private static final int MAGIC = 0x46524958;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    /**
+     * Compaction is only done when at least this many records are outdated.
+     */
+    private static final int MIN_GARBAGE_FOR_COMPACT = 1000;
+
+    private static final byte OP_REMOVE = 0;
+    private static final byte OP_PUT = 1;
+
+    private static final byte TYPE_LONG = 'L';
+    private static final byte TYPE_INT = 'I';
+    private static final byte TYPE_STRING = 'S';
+    private static final byte TYPE_UUID = 'U';
+
+    private final Path file;
+    private final Map<String, PkValue> entries = new ConcurrentHashMap<>();
+    private FileChannel channel;
+    private int garbage;
+
+    private PersistentIdIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Open the index in the given file, creating the file if it does not
+     * exist.
+     *
+     * @param file The file holding the index.
+     * @return The opened index.
+     * @throws IOException if the file can not be read or created, or is not
+     * an index file.
+     */
+    public static PersistentIdIndex open(Path file) throws IOException {
+        final PersistentIdIndex index = new PersistentIdIndex(file);
+        index.read();
+        return index;
+    }
+
+    private void read() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final long size = channel.size();
+        if (size == 0) {
+            writeHeader(channel);
+            return;
+        }
+        if (size > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("Index file too large: " + file);
+        }
+        // Read through the channel, not a mapping: on some platforms a mapped
+        // file can not be truncated or replaced until the mapping is collected.
+        final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        if (size < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            channel.close();
+            throw new IOException("Not an index file, or unsupported version: " + file);
+        }
+        int valid = buffer.position();
+        while (buffer.remaining() >= 4) {
+            try {
+                final int length = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                final ByteBuffer record = buffer.slice(buffer.position(), length);
+                buffer.position(buffer.position() + length);
+                applyRecord(record);
+                valid = buffer.position();
+            } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException ex) {
+                break;
+            }
+        }
+        if (valid < size) {
+            LOGGER.warn("Discarding {} bytes of incomplete records at the end of index {}", size - valid, file);
+            channel.truncate(valid);
+        }
+        channel.position(valid);
+        compactIfNeeded();
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (garbage >= MIN_GARBAGE_FOR_COMPACT && garbage > entries.size()) {
+            compact();
+        }
+    }
+
+    private void applyRecord(ByteBuffer record) {
+        final byte op = record.get();
+        final String localId = readString(record);
+        final PkValue old;
+        if (op == OP_PUT) {
+            old = entries.put(localId, readPk(record));
+        } else if (op == OP_REMOVE) {
+            old = entries.remove(localId);
+            garbage++;
+        } else {
+            throw new IllegalArgumentException("Unknown record type " + op);
+        }
+        if (old != null) {
+            garbage++;
+        }
+    }
+
+    /**
+     * Get the primary key stored for the given localId.
+     *
+     * @param localId The localId to look up.
+     * @return The primary key, or null if the localId is not in the index.
+     */
+    public PkValue get(String localId) {
+        return entries.get(localId);
+    }
+
+    /**
+     * Store the primary key for the given localId. Nothing is written if the
+     * index already holds the same primary key.
+     *
+     * @param localId The localId.
+     * @param pk The primary key of the entity with the localId.
+     * @throws IOException if writing to the index file fails.
+     */
+    public synchronized void put(String localId, PkValue pk) throws IOException {
+        final PkValue old = entries.put(localId, pk);
+        if (pk.equals(old)) {
+            return;
+        }
+        if (old != null) {
+            garbage++;
+        }
+        write(channel, OP_PUT, localId, pk);
+        compactIfNeeded();
+    }
+
+    /**
+     * Remove the given localId from the index.
+     *
+     * @param localId The localId to remove.
+     * @throws IOException if writing to the index file fails.
+     */
+    public synchronized void remove(String localId) throws IOException {
+        if (entries.remove(localId) == null) {
+            return;
+        }
+        garbage += 2;
+        write(channel, OP_REMOVE, localId, null);
+        compactIfNeeded();
+    }
+
+    /**
+     * Remove all entries from the index.
+     *
+     * @throws IOException if writing to the index file fails.
+     */
+    public synchronized void clear() throws IOException {
+        entries.clear();
+        garbage = 0;
+        channel.truncate(HEADER_SIZE);
+        channel.position(HEADER_SIZE);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Rewrite the index file, leaving out all outdated records.
+     *
+     * @throws IOException if writing the index file fails.
+     */
+    public synchronized void compact() throws IOException {
+        final Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeHeader(out);
+            for (Map.Entry<String, PkValue> entry : entries.entrySet()) {
+                write(out, OP_PUT, entry.getKey(), entry.getValue());
+            }
+            out.force(true);
+        }
+        channel.close();
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        garbage = 0;
+    }
+
+    /**
+     * Force all written records to the storage device.
+     *
+     * @throws IOException if flushing fails.
+     */
+    public synchronized void flush() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    private static void writeHeader(FileChannel out) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .flip();
+        while (header.hasRemaining()) {
+            out.write(header);
+        }
+    }
+
+    private static void write(FileChannel out, byte op, String localId, PkValue pk) throws IOException {
+        final byte[] key = localId.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 4 + key.length;
+        if (pk != null) {
+            length += 1;
+            for (Object value : pk) {
+                length += 1 + valueSize(value);
+            }
+        }
+        final ByteBuffer record = ByteBuffer.allocate(4 + length)
+                .putInt(length)
+                .put(op)
+                .putInt(key.length)
+                .put(key);
+        if (pk != null) {
+            record.put((byte) pk.size());
+            for (Object value : pk) {
+                writeValue(record, value);
+            }
+        }
+        record.flip();
+        while (record.hasRemaining()) {
+            out.write(record);
+        }
+    }
+
+    private static int valueSize(Object value) {
+        if (value instanceof Long) {
+            return 8;
+        }
+        if (value instanceof Integer) {
+            return 4;
+        }
+        if (value instanceof UUID) {
+            return 16;
+        }
+        return 4 + String.valueOf(value).getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void writeValue(ByteBuffer record, Object value) {
+        if (value instanceof Long l) {
+            record.put(TYPE_LONG).putLong(l);
+        } else if (value instanceof Integer i) {
+            record.put(TYPE_INT).putInt(i);
+        } else if (value instanceof UUID uuid) {
+            record.put(TYPE_UUID)
+                    .putLong(uuid.getMostSignificantBits())
+                    .putLong(uuid.getLeastSignificantBits());
+        } else {
+            final byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+            record.put(TYPE_STRING).putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer record) {
+        final byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static PkValue readPk(ByteBuffer record) {
+        final PkValue pk = new PkValue(record.get());
+        for (int idx = 0; idx < pk.size(); idx++) {
+            final byte type = record.get();
+            if (type == TYPE_LONG) {
+                pk.set(idx, record.getLong());
+            } else if (type == TYPE_INT) {
+                pk.set(idx, record.getInt());
+            } else if (type == TYPE_UUID) {
+                pk.set(idx, new UUID(record.getLong(), record.getLong()));
+            } else if (type == TYPE_STRING) {
+                pk.set(idx, readString(record));
+            } else {
+                throw new IllegalArgumentException("Unknown value type " + type);
+            }
+        }
+        return pk;
+    }
+}
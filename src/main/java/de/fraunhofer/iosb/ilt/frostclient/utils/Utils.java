@@ -51,6 +51,7 @@ import javax.net.ssl.SSLContext;
 import org.apache.commons.lang3.Strings;
 import org.apache.http.Consts;
 import org.apache.http.Header;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpRequestBase;
@@ -97,6 +98,19 @@ public class Utils {
      * @throws StatusCodeException If the response was not 2xx.
      */
     public static void throwIfNotOkOrNoContent(HttpRequestBase request, CloseableHttpResponse response) throws StatusCodeException {
+        throwIfNotOkOrNoContent(request, (HttpResponse) response);
+    }
+
+    /**
+     * Throws a StatusCodeException if the given response did not have status
+     * code 2xx or if it has status code 204 (NoContent). Also usable for the
+     * responses of the asynchronous client.
+     *
+     * @param request The request that generated the response.
+     * @param response The response to check the status code of.
+     * @throws StatusCodeException If the response was not 2xx.
+     */
+    public static void throwIfNotOkOrNoContent(HttpRequestBase request, HttpResponse response) throws StatusCodeException {
         final int statusCode = response.getStatusLine().getStatusCode();
         if (statusCode == 204) {
             throw new StatusCodeException(request.getURI().toString(), statusCode, response.getStatusLine().getReasonPhrase(), "");
@@ -113,6 +127,18 @@ public class Utils {
      * @throws StatusCodeException If the response was not 2xx.
      */
     public static void throwIfNotOk(HttpRequestBase request, CloseableHttpResponse response) throws StatusCodeException {
+        throwIfNotOk(request, (HttpResponse) response);
+    }
+
+    /**
+     * Throws a StatusCodeException if the given response did not have status
+     * code 2xx. Also usable for the responses of the asynchronous client.
+     *
+     * @param request The request that generated the response.
+     * @param response The response to check the status code of.
+     * @throws StatusCodeException If the response was not 2xx.
+     */
+    public static void throwIfNotOk(HttpRequestBase request, HttpResponse response) throws StatusCodeException {
         final int statusCode = response.getStatusLine().getStatusCode();
         if (statusCode < 200 || statusCode >= 300) {
             String returnContent = null;
@@ -140,6 +166,9 @@ public class Utils {
         HostnameVerifier allowAllHosts = new NoopHostnameVerifier();
         SSLConnectionSocketFactory connectionFactory = new SSLConnectionSocketFactory(sslContext, allowAllHosts);
         service.getClientBuilder().setSSLSocketFactory(connectionFactory);
+        service.getAsyncClientBuilder()
+                .setSSLContext(sslContext)
+                .setSSLHostnameVerifier(allowAllHosts);
         service.rebuildHttpClient();
     }
 
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import static de.fraunhofer.iosb.ilt.frostclient.models.CommonProperties.EP_DESCRIPTION;
+import static de.fraunhofer.iosb.ilt.frostclient.models.CommonProperties.EP_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.dao.AsyncDao;
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.exception.StatusCodeException;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+/**
+ * Tests the requests the AsyncDao sends, and how the responses are parsed,
+ * both on the non-blocking client and on virtual threads.
+ */
+public class AsyncDaoTest {
+
+    private static final JsonMapper MAPPER = JsonMapper.builder().build();
+
+    private TestServer server;
+    private SensorThingsV11Sensing modelSensing;
+    private SensorThingsService service;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new TestServer();
+        modelSensing = new SensorThingsV11Sensing();
+        service = server.createService(modelSensing);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        service.close();
+        server.close();
+    }
+
+    private static <T> T get(CompletableFuture<T> future) throws Exception {
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) {
+        final ExecutionException ex = assertThrows(ExecutionException.class, () -> get(future));
+        return ex.getCause();
+    }
+
+    @Test
+    public void createUpdateFindNonBlocking() throws Exception {
+        createUpdateFind(false);
+    }
+
+    @Test
+    public void createUpdateFindVirtualThreads() throws Exception {
+        createUpdateFind(true);
+    }
+
+    private void createUpdateFind(boolean virtualThreads) throws Exception {
+        service.setVirtualThreads(virtualThreads);
+        server.setHandler(request -> {
+            switch (request.method) {
+                case "POST":
+                    return new TestServer.Response(201, "", server.getBaseUrl() + "Things(7)");
+                case "GET":
+                    return new TestServer.Response(200, """
+                            {"@iot.id": 7, "name": "Thing 7", "description": "Changed"}""");
+                default:
+                    return new TestServer.Response(200, "");
+            }
+        });
+        final AsyncDao dao = service.asyncDao(modelSensing.etThing);
+        final Entity thing = new Entity(modelSensing.etThing)
+                .setProperty(EP_NAME, "Thing 7")
+                .setProperty(EP_DESCRIPTION, "A Thing");
+
+        assertSame(thing, get(dao.create(thing)));
+        assertEquals(PkValue.of(7L), thing.getPrimaryKeyValues());
+        final TestServer.Request post = server.getRequests().get(0);
+        assertEquals("POST", post.method);
+        assertEquals("Things", post.path);
+        assertEquals(MAPPER.readTree("""
+                {"name": "Thing 7", "description": "A Thing"}"""), MAPPER.readTree(post.body));
+
+        thing.setProperty(EP_DESCRIPTION, "Changed");
+        get(dao.update(thing));
+        assertFalse(thing.hasChanges());
+        final TestServer.Request patch = server.getRequests().get(1);
+        assertEquals("PATCH", patch.method);
+        assertEquals("Things(7)", patch.path);
+        final JsonNode patchBody = MAPPER.readTree(patch.body);
+        assertEquals("Changed", patchBody.get("description").asString());
+        assertFalse(patchBody.has("name"));
+
+        final Entity found = get(dao.find(PkValue.of(7L)));
+        assertEquals("GET", server.getRequests().get(2).method);
+        assertEquals("Things(7)", server.getRequests().get(2).path);
+        assertEquals("Changed", found.getProperty(EP_DESCRIPTION));
+        assertEquals(3, server.getRequests().size());
+    }
+
+    @Test
+    public void missingLocationNonBlocking() {
+        missingLocation(false);
+    }
+
+    @Test
+    public void missingLocationVirtualThreads() {
+        missingLocation(true);
+    }
+
+    private void missingLocation(boolean virtualThreads) {
+        service.setVirtualThreads(virtualThreads);
+        server.setHandler(request -> new TestServer.Response(201, ""));
+        final Entity thing = new Entity(modelSensing.etThing).setProperty(EP_NAME, "Thing");
+        final Throwable cause = failure(service.asyncDao(modelSensing.etThing).create(thing));
+        assertInstanceOf(ServiceFailureException.class, cause);
+        assertInstanceOf(IllegalStateException.class, cause.getCause());
+    }
+
+    @Test
+    public void errorStatus() {
+        server.setHandler(request -> new TestServer.Response(404, "Nothing here"));
+        final Throwable cause = failure(service.asyncDao(modelSensing.etThing).find(PkValue.of(1L)));
+        final StatusCodeException sce = assertInstanceOf(StatusCodeException.class, cause);
+        assertEquals(404, sce.getStatusCode());
+    }
+
+    @Test
+    public void responseParser() throws Exception {
+        server.setHandler(request -> new TestServer.Response(200, "{\"value\": []}"));
+        final HttpGet get = new HttpGet(server.getBaseUrl() + "Things");
+        final String body = get(service.executeAsync(get, response -> EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8)));
+        assertEquals("{\"value\": []}", body);
+
+        final IOException ioFailure = new IOException("Broken");
+        Throwable cause = failure(service.executeAsync(new HttpGet(server.getBaseUrl() + "Things"), response -> {
+            throw ioFailure;
+        }));
+        assertInstanceOf(ServiceFailureException.class, cause);
+        assertSame(ioFailure, cause.getCause());
+
+        final ServiceFailureException sfFailure = new ServiceFailureException("Failed");
+        cause = failure(service.executeAsync(new HttpGet(server.getBaseUrl() + "Things"), response -> {
+            throw sfFailure;
+        }));
+        assertSame(sfFailure, cause);
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import static de.fraunhofer.iosb.ilt.frostclient.models.CommonProperties.EP_DESCRIPTION;
+import static de.fraunhofer.iosb.ilt.frostclient.models.CommonProperties.EP_ID;
+import static de.fraunhofer.iosb.ilt.frostclient.models.CommonProperties.EP_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.dao.Batch;
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.exception.StatusCodeException;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import java.io.IOException;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.json.JsonMapper;
+
+/**
+ * Tests the $batch request body the Batch builds, and how the responses are
+ * mapped back onto the entities, against a local test server.
+ */
+public class BatchTest {
+
+    private static final JsonMapper MAPPER = JsonMapper.builder().build();
+
+    private TestServer server;
+    private SensorThingsV11Sensing modelSensing;
+    private SensorThingsService service;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new TestServer();
+        modelSensing = new SensorThingsV11Sensing();
+        service = server.createService(modelSensing);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        service.close();
+        server.close();
+    }
+
+    @Test
+    public void batchBodyAndResults() throws ServiceFailureException {
+        server.setHandler(request -> new TestServer.Response(200, """
+                {"responses": [
+                    {"id": "0", "status": 201, "headers": {"Location": "http://example.org/v1.1/Things(5)"}},
+                    {"id": "1", "status": 200},
+                    {"id": "2", "status": 404, "body": {"message": "Not Found"}}
+                ]}"""));
+
+        final Entity created = new Entity(modelSensing.etThing)
+                .setProperty(EP_NAME, "New")
+                .setProperty(EP_DESCRIPTION, "A new Thing");
+        final Entity updated = new Entity(modelSensing.etThing)
+                .setProperty(EP_ID, 1L)
+                .setProperty(EP_NAME, "Old");
+        final Entity deleted = new Entity(modelSensing.etThing)
+                .setProperty(EP_ID, 2L);
+        final Batch batch = new Batch(service)
+                .beginChangeSet()
+                .create(created)
+                .update(updated)
+                .endChangeSet()
+                .delete(deleted);
+        assertEquals(3, batch.size());
+        final List<Batch.Result> results = batch.execute();
+
+        assertEquals(1, server.getRequests().size());
+        final TestServer.Request post = server.getRequests().get(0);
+        assertEquals("POST", post.method);
+        assertEquals("$batch", post.path);
+        assertEquals(MAPPER.readTree("""
+                {"requests": [
+                    {"id": "0", "method": "post", "url": "Things", "atomicityGroup": "changeset1",
+                        "headers": {"content-type": "application/json; charset=UTF-8"},
+                        "body": {"name": "New", "description": "A new Thing"}},
+                    {"id": "1", "method": "patch", "url": "Things(1)", "atomicityGroup": "changeset1",
+                        "headers": {"content-type": "application/json; charset=UTF-8"},
+                        "body": {"@iot.id": 1, "name": "Old"}},
+                    {"id": "2", "method": "delete", "url": "Things(2)"}
+                ]}"""), MAPPER.readTree(post.body));
+
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(201, results.get(0).getStatus());
+        assertEquals(PkValue.of(5L), created.getPrimaryKeyValues());
+        assertTrue(results.get(1).isSuccess());
+        assertFalse(updated.hasChanges());
+        assertFalse(results.get(2).isSuccess());
+        final StatusCodeException failure = assertInstanceOf(StatusCodeException.class, results.get(2).getFailure());
+        assertEquals(404, failure.getStatusCode());
+    }
+
+    @Test
+    public void updateOnlyChanges() throws ServiceFailureException {
+        server.setHandler(request -> new TestServer.Response(200, """
+                {"responses": [
+                    {"id": "0", "status": 200},
+                    {"id": "1", "status": 500}
+                ]}"""));
+        final Entity unchanged = new Entity(modelSensing.etThing)
+                .setProperty(EP_ID, 1L)
+                .setProperty(EP_NAME, "Same");
+        unchanged.clearChanges();
+        final Entity succeeds = new Entity(modelSensing.etThing)
+                .setProperty(EP_ID, 2L)
+                .setProperty(EP_NAME, "New name");
+        final Entity fails = new Entity(modelSensing.etThing)
+                .setProperty(EP_ID, 3L)
+                .setProperty(EP_NAME, "Other name");
+        final Batch batch = new Batch(service)
+                .update(unchanged)
+                .update(succeeds)
+                .update(fails);
+        assertEquals(2, batch.size());
+        final List<Batch.Result> results = batch.execute();
+
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(succeeds.hasChanges());
+        assertFalse(results.get(1).isSuccess());
+        assertTrue(fails.hasChanges());
+    }
+
+    @Test
+    public void missingResponse() throws ServiceFailureException {
+        server.setHandler(request -> new TestServer.Response(200, "{\"responses\": []}"));
+        final Entity created = new Entity(modelSensing.etThing).setProperty(EP_NAME, "New");
+        final List<Batch.Result> results = new Batch(service).create(created).execute();
+        assertEquals(0, results.get(0).getStatus());
+        assertFalse(results.get(0).isSuccess());
+        assertFalse(created.getPrimaryKeyValues().isFullySet());
+    }
+
+}
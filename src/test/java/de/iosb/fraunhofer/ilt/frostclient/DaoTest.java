@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import static de.fraunhofer.iosb.ilt.frostclient.models.CommonProperties.EP_NAME;
+import static de.fraunhofer.iosb.ilt.frostclient.models.CommonProperties.EP_PROPERTIES;
+import static de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing.EP_PARAMETERS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
+import de.fraunhofer.iosb.ilt.frostclient.model.property.type.TypeComplex;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import de.fraunhofer.iosb.ilt.frostclient.models.ext.MapValue;
+import de.fraunhofer.iosb.ilt.frostclient.utils.FrostUtils;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+/**
+ * Tests the requests the Daos send, and how they handle the responses, using a
+ * local test server.
+ */
+public class DaoTest {
+
+    private static final JsonMapper MAPPER = JsonMapper.builder().build();
+
+    private TestServer server;
+    private SensorThingsV11Sensing modelSensing;
+    private SensorThingsService service;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new TestServer();
+        modelSensing = new SensorThingsV11Sensing();
+        service = server.createService(modelSensing);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    private static JsonNode json(String json) {
+        return MAPPER.readTree(json);
+    }
+
+    @Test
+    public void updateInPlaceChanges() throws ServiceFailureException {
+        server.setHandler(request -> {
+            if (request.method.equals("GET")) {
+                return new TestServer.Response(200, """
+                        {"@iot.id": 1, "name": "Thing 1", "description": "A Thing", "properties": {"a": 1}}""");
+            }
+            return new TestServer.Response(200, "");
+        });
+        Entity thing = service.dao(modelSensing.etThing).find(PkValue.of(1L));
+        assertFalse(thing.hasChanges());
+
+        // Nothing changed, nothing is sent.
+        final FrostUtils frostUtils = new FrostUtils(service);
+        frostUtils.update(thing);
+        assertEquals(1, server.getRequests().size());
+        assertEquals(0, frostUtils.getCountUpdate());
+
+        // The properties map is edited in place, without marking it changed.
+        FrostUtils.addProperties(thing.getProperty(EP_PROPERTIES).getContent(), Map.of("b", "two"), 5);
+        assertTrue(thing.isChanged(EP_PROPERTIES));
+        assertFalse(thing.isChanged(EP_NAME));
+        frostUtils.update(thing);
+        assertEquals(1, frostUtils.getCountUpdate());
+
+        assertEquals(2, server.getRequests().size());
+        final TestServer.Request patch = server.getRequests().get(1);
+        assertEquals("PATCH", patch.method);
+        assertEquals("Things(1)", patch.path);
+        assertEquals(json("""
+                {"@iot.id": 1, "properties": {"a": 1, "b": "two"}}"""), json(patch.body));
+        assertFalse(thing.hasChanges());
+
+        // The Entity variant marks the properties as changed.
+        assertTrue(FrostUtils.addProperties(thing, Map.of("c", 3), 5));
+        assertTrue(thing.isChanged(EP_PROPERTIES));
+        assertFalse(FrostUtils.addProperties(thing, Map.of("c", 3), 5));
+    }
+
+    @Test
+    public void createDeep() throws ServiceFailureException {
+        server.setHandler(request -> {
+            if (request.method.equals("POST")) {
+                return new TestServer.Response(201, "", server.getBaseUrl() + "Things(1)");
+            }
+            // The Datastreams come back in a different order than they were sent.
+            return new TestServer.Response(200, """
+                    {"@iot.id": 1, "name": "T", "Datastreams": [
+                      {"@iot.id": 12, "name": "ds2", "Sensor": {"@iot.id": 22, "name": "S2"}},
+                      {"@iot.id": 11, "name": "ds1", "Sensor": {"@iot.id": 21, "name": "S1"}}
+                    ]}""");
+        });
+        final Entity observedProperty = new Entity(modelSensing.etObservedProperty).setPrimaryKeyValues(PkValue.of(7L));
+        final Entity sensor1 = new Entity(modelSensing.etSensor).setProperty(EP_NAME, "S1");
+        final Entity sensor2 = new Entity(modelSensing.etSensor).setProperty(EP_NAME, "S2");
+        final Entity ds1 = new Entity(modelSensing.etDatastream)
+                .setProperty(EP_NAME, "ds1")
+                .setProperty(modelSensing.npDatastreamSensor, sensor1)
+                .setProperty(modelSensing.npDatastreamObservedproperty, observedProperty);
+        final Entity ds2 = new Entity(modelSensing.etDatastream)
+                .setProperty(EP_NAME, "ds2")
+                .setProperty(modelSensing.npDatastreamSensor, sensor2)
+                .setProperty(modelSensing.npDatastreamObservedproperty, observedProperty);
+        final Entity thing = new Entity(modelSensing.etThing)
+                .setProperty(EP_NAME, "T")
+                .addNavigationEntity(modelSensing.npThingDatastreams, ds1, ds2);
+
+        service.dao(modelSensing.etThing).createDeep(thing);
+
+        assertEquals(2, server.getRequests().size());
+        final TestServer.Request post = server.getRequests().get(0);
+        assertEquals("POST", post.method);
+        assertEquals("Things", post.path);
+        final JsonNode body = json(post.body);
+        assertEquals("T", body.get("name").asString());
+        final JsonNode datastreams = body.get("Datastreams");
+        assertEquals(2, datastreams.size());
+        assertEquals("ds1", datastreams.get(0).get("name").asString());
+        assertEquals(json("""
+                {"name": "S1"}"""), datastreams.get(0).get("Sensor"));
+        assertEquals(json("""
+                {"@iot.id": 7}"""), datastreams.get(0).get("ObservedProperty"));
+        assertEquals("S2", datastreams.get(1).get("Sensor").get("name").asString());
+
+        // Only the created part of the graph is expanded.
+        final TestServer.Request get = server.getRequests().get(1);
+        assertEquals("GET", get.method);
+        assertEquals("Things(1)?$expand=Datastreams($top=2;$expand=Sensor)", get.path);
+
+        assertEquals(PkValue.of(1L), thing.getPrimaryKeyValues());
+        assertEquals(PkValue.of(11L), ds1.getPrimaryKeyValues());
+        assertEquals(PkValue.of(12L), ds2.getPrimaryKeyValues());
+        assertEquals(PkValue.of(21L), sensor1.getPrimaryKeyValues());
+        assertEquals(PkValue.of(22L), sensor2.getPrimaryKeyValues());
+        assertEquals(PkValue.of(7L), observedProperty.getPrimaryKeyValues());
+        assertFalse(ds1.hasChanges());
+    }
+
+    @Test
+    public void createDeepWithoutNested() throws ServiceFailureException {
+        server.setHandler(request -> new TestServer.Response(201, "", server.getBaseUrl() + "Things(5)"));
+        final Entity thing = new Entity(modelSensing.etThing).setProperty(EP_NAME, "T");
+        service.dao(modelSensing.etThing).createDeep(thing);
+        // Nothing to resolve, so no GET.
+        assertEquals(1, server.getRequests().size());
+        assertEquals(PkValue.of(5L), thing.getPrimaryKeyValues());
+    }
+
+    @Test
+    public void createDeepDuplicateResults() throws ServiceFailureException {
+        server.setHandler(request -> {
+            if (request.method.equals("POST")) {
+                return new TestServer.Response(201, "", server.getBaseUrl() + "Datastreams(1)");
+            }
+            // The server returns the Observations in a different order.
+            return new TestServer.Response(200, """
+                    {"@iot.id": 1, "name": "ds", "Observations": [
+                      {"@iot.id": 102, "result": 5, "phenomenonTime": "2024-01-01T11:00:00Z", "parameters": {"a": [1, 2]}},
+                      {"@iot.id": 101, "result": 5, "phenomenonTime": "2024-01-01T10:00:00Z", "parameters": {"a": [1, 2]}},
+                      {"@iot.id": 104, "result": 7, "phenomenonTime": "2024-01-01T12:00:00Z"},
+                      {"@iot.id": 103, "result": 7, "phenomenonTime": "2024-01-01T12:00:00Z"}
+                    ]}""");
+        });
+        final ZonedDateTime time = ZonedDateTime.parse("2024-01-01T12:00:00+02:00");
+        final MapValue parameters = new MapValue(TypeComplex.STA_MAP, Map.of("a", List.of(1, 2)));
+        final Entity obs1 = modelSensing.newObservation(5, time)
+                .setProperty(EP_PARAMETERS, parameters);
+        final Entity obs2 = modelSensing.newObservation(5, time.plusHours(1))
+                .setProperty(EP_PARAMETERS, parameters);
+        final Entity obs3 = modelSensing.newObservation(7, time.plusHours(2));
+        final Entity obs4 = modelSensing.newObservation(7, time.plusHours(2));
+        final Entity datastream = new Entity(modelSensing.etDatastream)
+                .setProperty(EP_NAME, "ds")
+                .addNavigationEntity(modelSensing.npDatastreamObservations, obs1, obs2, obs3, obs4);
+
+        service.dao(modelSensing.etDatastream).createDeep(datastream);
+
+        // Equal results are told apart by their phenomenonTime, in any time zone.
+        assertEquals(PkValue.of(101L), obs1.getPrimaryKeyValues());
+        assertEquals(PkValue.of(102L), obs2.getPrimaryKeyValues());
+        // Identical Observations can not be told apart, and get no key.
+        assertFalse(obs3.primaryKeyFullySet());
+        assertFalse(obs4.primaryKeyFullySet());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.dao.DataArrayUploader;
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.json.JsonMapper;
+
+/**
+ * Tests the CreateObservations request body the DataArrayUploader builds, and
+ * how the returned links are mapped back onto the Observations, against a
+ * local test server.
+ */
+public class DataArrayUploaderTest {
+
+    private static final JsonMapper MAPPER = JsonMapper.builder().build();
+
+    private TestServer server;
+    private SensorThingsV11Sensing modelSensing;
+    private SensorThingsService service;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new TestServer();
+        modelSensing = new SensorThingsV11Sensing();
+        service = server.createService(modelSensing);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        service.close();
+        server.close();
+    }
+
+    @Test
+    public void uploadBodyAndLinks() throws ServiceFailureException {
+        server.setHandler(request -> new TestServer.Response(200, """
+                ["http://example.org/v1.1/Observations(10)", "error", "http://example.org/v1.1/Observations(12)"]"""));
+
+        final Entity ds1 = modelSensing.newDatastream(1L);
+        final Entity ds2 = modelSensing.newDatastream(2L);
+        final Entity foi = new Entity(modelSensing.etFeatureOfInterest).setPrimaryKeyValues(PkValue.of(7L));
+        final ZonedDateTime time = ZonedDateTime.parse("2016-01-07T02:00:00Z");
+        final Entity obs1 = modelSensing.newObservation(1, time, ds1);
+        final Entity obs2 = modelSensing.newObservation("x", ds2);
+        final Entity obs3 = modelSensing.newObservation(2, time.plusHours(1), ds1)
+                .setProperty(modelSensing.npObservationFeatureofinterest, foi);
+
+        final DataArrayUploader uploader = new DataArrayUploader(service)
+                .addAll(List.of(obs1, obs2, obs3));
+        assertEquals(3, uploader.size());
+        final List<Entity> failed = uploader.upload();
+        assertTrue(uploader.isEmpty());
+
+        assertEquals(1, server.getRequests().size());
+        final TestServer.Request post = server.getRequests().get(0);
+        assertEquals("POST", post.method);
+        assertEquals("CreateObservations", post.path);
+        // Only components that are set on an Observation of the group are sent.
+        assertEquals(MAPPER.readTree("""
+                [
+                    {"Datastream": {"@iot.id": 1},
+                        "components": ["phenomenonTime", "result", "FeatureOfInterest/id"],
+                        "dataArray@iot.count": 2,
+                        "dataArray": [
+                            ["2016-01-07T02:00:00Z", 1, null],
+                            ["2016-01-07T03:00:00Z", 2, 7]
+                        ]},
+                    {"Datastream": {"@iot.id": 2},
+                        "components": ["result"],
+                        "dataArray@iot.count": 1,
+                        "dataArray": [["x"]]}
+                ]"""), MAPPER.readTree(post.body));
+
+        // The links follow the order of the body, grouped per Datastream.
+        assertEquals(PkValue.of(10L), obs1.getPrimaryKeyValues());
+        assertEquals(PkValue.of(12L), obs2.getPrimaryKeyValues());
+        assertEquals(1, failed.size());
+        assertSame(obs3, failed.get(0));
+        assertFalse(obs3.getPrimaryKeyValues().isFullySet());
+    }
+
+    @Test
+    public void linkCountMismatch() throws ServiceFailureException {
+        server.setHandler(request -> new TestServer.Response(200, "[\"http://example.org/v1.1/Observations(10)\"]"));
+        final DataArrayUploader uploader = new DataArrayUploader(service);
+        final Entity ds = modelSensing.newDatastream(1L);
+        uploader.add(modelSensing.newObservation(1, ds));
+        uploader.add(modelSensing.newObservation(2, ds));
+        assertThrows(ServiceFailureException.class, uploader::upload);
+    }
+
+    @Test
+    public void observationNeedsDatastream() {
+        final DataArrayUploader uploader = new DataArrayUploader(service);
+        assertThrows(IllegalArgumentException.class, () -> uploader.add(modelSensing.newObservation(1)));
+        assertThrows(IllegalArgumentException.class, () -> uploader.add(modelSensing.newObservation(1, modelSensing.newDatastream())));
+    }
+
+}
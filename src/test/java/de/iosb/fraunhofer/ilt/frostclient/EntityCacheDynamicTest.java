@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import static de.fraunhofer.iosb.ilt.frostclient.models.CommonProperties.EP_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import de.fraunhofer.iosb.ilt.frostclient.utils.ConcurrentEntityCacheDynamic;
+import de.fraunhofer.iosb.ilt.frostclient.utils.EntityCacheDynamic;
+import de.fraunhofer.iosb.ilt.frostclient.utils.EntityCacheDynamic.DuplicateRule;
+import de.fraunhofer.iosb.ilt.frostclient.utils.EntityCacheDynamic.EvictionPolicy;
+import de.fraunhofer.iosb.ilt.frostclient.utils.FrostUtils;
+import de.fraunhofer.iosb.ilt.frostclient.utils.PropertyExtractor;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the loading and eviction behaviour of EntityCacheDynamic against a
+ * local test server that holds Things by name.
+ */
+public class EntityCacheDynamicTest {
+
+    private static final Pattern NAME = Pattern.compile("\"name\"\\s*:\\s*\"([^\"]*)\"");
+
+    private TestServer server;
+    private SensorThingsV11Sensing modelSensing;
+    private SensorThingsService service;
+    /**
+     * The Things on the server, id by name. Names starting with "dup" exist
+     * twice.
+     */
+    private final Map<String, Long> things = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(100);
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new TestServer();
+        server.setHandler(request -> {
+            if (request.method.equals("POST")) {
+                final Matcher matcher = NAME.matcher(request.body);
+                matcher.find();
+                final long id = nextId.incrementAndGet();
+                things.put(matcher.group(1), id);
+                return new TestServer.Response(201, "", server.getBaseUrl() + "Things(" + id + ")");
+            }
+            final StringBuilder value = new StringBuilder();
+            for (Map.Entry<String, Long> entry : things.entrySet()) {
+                if (request.path.contains("'" + entry.getKey() + "'")) {
+                    appendThing(value, entry.getValue(), entry.getKey());
+                    if (entry.getKey().startsWith("dup")) {
+                        appendThing(value, entry.getValue() + 1000, entry.getKey());
+                    }
+                }
+            }
+            return new TestServer.Response(200, "{\"value\":[" + value + "]}");
+        });
+        modelSensing = new SensorThingsV11Sensing();
+        service = server.createService(modelSensing);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    private static void appendThing(StringBuilder value, long id, String name) {
+        if (value.length() > 0) {
+            value.append(',');
+        }
+        value.append("{\"@iot.id\":").append(id)
+                .append(",\"name\":\"").append(name).append("\"}");
+    }
+
+    private <T extends EntityCacheDynamic<String>> T configure(T cache) {
+        cache.setLocalIdExtractor(entity -> entity.getProperty(EP_NAME))
+                .setFilterFromlocalId(PropertyExtractor.createFilterFromName());
+        return cache;
+    }
+
+    private EntityCacheDynamic<String> createCache() {
+        return configure(new EntityCacheDynamic<>(service.dao(modelSensing.etThing)));
+    }
+
+    private void putAll(EntityCacheDynamic<String> cache, String... names) {
+        for (String name : names) {
+            cache.put(new Entity(modelSensing.etThing).setProperty(EP_NAME, name));
+        }
+    }
+
+    private static void getTimes(EntityCacheDynamic<String> cache, String name, int times) {
+        for (int i = 0; i < times; i++) {
+            cache.get(name);
+        }
+    }
+
+    /**
+     * The names in the cache. Unlike get, this does not count as a use.
+     */
+    private static Set<String> cachedNames(EntityCacheDynamic<String> cache) {
+        final Set<String> names = new HashSet<>();
+        for (Entity entity : cache.values()) {
+            names.add(entity.getProperty(EP_NAME));
+        }
+        return names;
+    }
+
+    @Test
+    public void testEvictLru() {
+        final EntityCacheDynamic<String> cache = createCache().setMaxSize(3);
+        putAll(cache, "a", "b", "c");
+        cache.get("a");
+        putAll(cache, "d");
+        assertEquals(Set.of("a", "c", "d"), cachedNames(cache));
+    }
+
+    @Test
+    public void testEvictLfu() {
+        final EntityCacheDynamic<String> cache = createCache()
+                .setEvictionPolicy(EvictionPolicy.LFU)
+                .setMaxSize(3);
+        putAll(cache, "a", "b", "c");
+        getTimes(cache, "a", 2);
+        cache.get("b");
+        // c is least frequently used.
+        putAll(cache, "d");
+        assertEquals(Set.of("a", "b", "d"), cachedNames(cache));
+        // d has the lowest count now, and of a and b, b is used less.
+        getTimes(cache, "d", 2);
+        putAll(cache, "e");
+        assertEquals(Set.of("a", "d", "e"), cachedNames(cache));
+    }
+
+    @Test
+    public void testEvictLfuAfterExpiry() {
+        final EntityCacheDynamic<String> cache = createCache()
+                .setEvictionPolicy(EvictionPolicy.LFU)
+                .setMaxSize(3);
+        putAll(cache, "a", "b", "c");
+        getTimes(cache, "b", 3);
+        getTimes(cache, "c", 2);
+        // Expiring a leaves no entry with its count.
+        cache.setTtl(Duration.ofNanos(1));
+        assertNull(cache.get("a"));
+        cache.setTtl(Duration.ZERO);
+        putAll(cache, "d");
+        getTimes(cache, "d", 4);
+        // d now has count 5, b has 4 and c has 3.
+        putAll(cache, "e");
+        assertEquals(Set.of("b", "d", "e"), cachedNames(cache));
+        // e is the only entry with count 1.
+        putAll(cache, "f");
+        assertEquals(Set.of("b", "d", "f"), cachedNames(cache));
+    }
+
+    @Test
+    public void testEvictLfuAgeing() {
+        final EntityCacheDynamic<String> cache = createCache()
+                .setEvictionPolicy(EvictionPolicy.LFU)
+                .setMaxSize(2);
+        putAll(cache, "a");
+        // Counts are capped at 15, and halved after 8 uses per entry of
+        // capacity, so a ends up with 7.
+        getTimes(cache, "a", 16);
+        putAll(cache, "b");
+        getTimes(cache, "b", 6);
+        // b is used less often than a ever was, but as often as a is now,
+        // and more recently.
+        putAll(cache, "c");
+        assertEquals(Set.of("b", "c"), cachedNames(cache));
+    }
+
+    @Test
+    public void testEvictClear() {
+        final EntityCacheDynamic<String> cache = createCache()
+                .setEvictionPolicy(EvictionPolicy.CLEAR)
+                .setMaxSize(3);
+        putAll(cache, "a", "b", "c");
+        // Replacing an existing entity does not clear.
+        putAll(cache, "a");
+        assertEquals(3, cache.size());
+        putAll(cache, "d");
+        assertEquals(Set.of("d"), cachedNames(cache));
+    }
+
+    @Test
+    public void testEvictConcurrent() {
+        for (EvictionPolicy policy : List.of(EvictionPolicy.LRU, EvictionPolicy.LFU)) {
+            final EntityCacheDynamic<String> cache = configure(new ConcurrentEntityCacheDynamic<>(service.dao(modelSensing.etThing)))
+                    .setEvictionPolicy(policy)
+                    .setMaxSize(3);
+            putAll(cache, "a", "b", "c");
+            cache.get("a");
+            putAll(cache, "d");
+            assertEquals(Set.of("a", "c", "d"), cachedNames(cache), policy.toString());
+        }
+        final EntityCacheDynamic<String> cache = configure(new ConcurrentEntityCacheDynamic<>(service.dao(modelSensing.etThing)))
+                .setEvictionPolicy(EvictionPolicy.CLEAR)
+                .setMaxSize(3);
+        putAll(cache, "a", "b", "c", "d");
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final EntityCacheDynamic<String> cache = configure(new ConcurrentEntityCacheDynamic<>(service.dao(modelSensing.etThing)))
+                .setEvictionPolicy(EvictionPolicy.LFU)
+                .setMaxSize(100);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int offset = t * 1000;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        final String name = "k" + (offset + i % 500);
+                        putAll(cache, name);
+                        cache.get(name);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(cache.size() <= 100, "Cache holds " + cache.size() + " entities");
+    }
+
+    @Test
+    public void testTtl() throws ServiceFailureException {
+        things.put("a", 1L);
+        final EntityCacheDynamic<String> cache = createCache().setTtl(Duration.ofHours(1));
+        final Entity first = cache.getOrLoad("a");
+        assertNotNull(first);
+        assertSame(first, cache.getOrLoad("a"));
+        assertEquals(1, server.getRequests().size());
+
+        // Everything is expired the moment it is loaded.
+        cache.setTtl(Duration.ofNanos(1));
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        final Entity second = cache.getOrLoad("a");
+        assertNotNull(second);
+        assertEquals(2, server.getRequests().size());
+    }
+
+    @Test
+    public void testRefreshAhead() throws ServiceFailureException, InterruptedException {
+        assertThrows(IllegalStateException.class, () -> createCache().setRefreshAhead(Duration.ofMinutes(1)));
+        createCache().setRefreshAhead(Duration.ZERO);
+
+        things.put("a", 1L);
+        final EntityCacheDynamic<String> cache = configure(new ConcurrentEntityCacheDynamic<>(service.dao(modelSensing.etThing)))
+                .setTtl(Duration.ofHours(1))
+                .setRefreshAhead(Duration.ofHours(1));
+        final Entity first = cache.getOrLoad("a");
+        assertEquals(1, server.getRequests().size());
+
+        // Within the refresh window, the cached entity is returned right away.
+        assertSame(first, cache.getOrLoad("a"));
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (cache.get("a") == first && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        final Entity refreshed = cache.get("a");
+        assertNotNull(refreshed);
+        assertTrue(refreshed != first, "Entity was not refreshed");
+        assertEquals(2, server.getRequests().size());
+    }
+
+    @Test
+    public void testNegativeCache() throws ServiceFailureException {
+        final EntityCacheDynamic<String> cache = createCache().setNegativeCacheSize(2);
+        assertNull(cache.getOrLoad("a"));
+        assertNull(cache.getOrLoad("a"));
+        assertEquals(1, server.getRequests().size());
+
+        // Misses are evicted like entries.
+        assertNull(cache.getOrLoad("b"));
+        assertNull(cache.getOrLoad("c"));
+        assertEquals(3, server.getRequests().size());
+        things.put("a", 1L);
+        assertNotNull(cache.getOrLoad("a"));
+        assertEquals(4, server.getRequests().size());
+
+        // Putting an entity removes it from the negative cache.
+        assertNull(cache.getOrLoad("c"));
+        assertEquals(4, server.getRequests().size());
+        final Entity c = new Entity(modelSensing.etThing).setProperty(EP_NAME, "c");
+        cache.put(c);
+        assertSame(c, cache.getOrLoad("c"));
+
+        // Expired misses are queried again.
+        cache.setNegativeTtl(Duration.ofNanos(1));
+        assertNull(cache.getOrLoad("b"));
+        assertNull(cache.getOrLoad("b"));
+        assertEquals(6, server.getRequests().size());
+    }
+
+    @Test
+    public void testGetOrLoadAllChunks() throws ServiceFailureException {
+        things.put("a", 1L);
+        things.put("b", 2L);
+        things.put("d", 4L);
+        things.put("e", 5L);
+        final EntityCacheDynamic<String> cache = createCache()
+                .setLookupChunkSize(2)
+                .setNegativeCacheSize(10);
+        cache.put(new Entity(modelSensing.etThing).setProperty(EP_NAME, "e"));
+        final Map<String, Entity> result = cache.getOrLoadAll(List.of("e", "d", "c", "b", "a", "d"));
+        assertEquals(List.of("e", "d", "b", "a"), new ArrayList<>(result.keySet()));
+        for (Map.Entry<String, Entity> entry : result.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().getProperty(EP_NAME));
+        }
+        assertEquals(2, server.getRequests().size());
+        assertEquals("Things?$filter=(name eq 'd') or (name eq 'c')", server.getRequests().get(0).path);
+        assertEquals("Things?$filter=(name eq 'b') or (name eq 'a')", server.getRequests().get(1).path);
+
+        // The misses are remembered, the hits cached.
+        assertEquals(2, cache.getOrLoadAll(List.of("a", "c", "d")).size());
+        assertEquals(2, server.getRequests().size());
+    }
+
+    @Test
+    public void testGetOrLoadAllDuplicates() throws ServiceFailureException {
+        things.put("dup1", 1L);
+        things.put("dup2", 2L);
+        things.put("b", 3L);
+        final EntityCacheDynamic<String> cache = createCache()
+                .setDuplicateRule(DuplicateRule.IGNORE)
+                .setNegativeCacheSize(10);
+        // Four results for three localIds, none of them may be lost.
+        final Map<String, Entity> result = cache.getOrLoadAll(List.of("dup1", "dup2", "b"));
+        assertEquals(3, result.size());
+        assertNotNull(cache.getOrLoad("b"));
+        assertEquals(1, server.getRequests().size());
+
+        final EntityCacheDynamic<String> strict = createCache();
+        assertThrows(IllegalStateException.class, () -> strict.getOrLoadAll(List.of("dup1")));
+    }
+
+    @Test
+    public void testFindOrCreateAll() throws ServiceFailureException {
+        things.put("a", 1L);
+        things.put("c", 3L);
+        // Smaller than the number of entities, so entries are evicted.
+        final EntityCacheDynamic<String> cache = createCache().setMaxSize(1);
+        final List<Entity> newEntities = new ArrayList<>();
+        for (String name : List.of("a", "b", "c", "a", "d")) {
+            newEntities.add(new Entity(modelSensing.etThing).setProperty(EP_NAME, name));
+        }
+        final FrostUtils frostUtils = new FrostUtils(service);
+        final List<Entity> result = frostUtils.findOrCreateAll(newEntities, cache);
+        assertEquals(5, result.size());
+        for (int idx = 0; idx < result.size(); idx++) {
+            assertNotNull(result.get(idx), "No result for " + idx);
+            assertEquals(newEntities.get(idx).getProperty(EP_NAME), result.get(idx).getProperty(EP_NAME));
+        }
+        assertSame(result.get(0), result.get(3));
+        assertEquals(1L, result.get(0).getPrimaryKeyValues().get(0));
+        assertSame(newEntities.get(1), result.get(1));
+        assertEquals(2, frostUtils.getCountInsert());
+        assertEquals(things.get("b"), result.get(1).getPrimaryKeyValues().get(0));
+        assertEquals(things.get("d"), result.get(4).getPrimaryKeyValues().get(0));
+    }
+
+    @Test
+    public void testFindOrCreateAllDryRun() throws ServiceFailureException {
+        things.put("a", 1L);
+        final EntityCacheDynamic<String> cache = createCache();
+        final List<Entity> newEntities = new ArrayList<>();
+        for (String name : List.of("a", "b", "b")) {
+            newEntities.add(new Entity(modelSensing.etThing).setProperty(EP_NAME, name));
+        }
+        final FrostUtils frostUtils = new FrostUtils(service).setDryRun(true);
+        final List<Entity> result = frostUtils.findOrCreateAll(newEntities, cache);
+        assertEquals(1L, result.get(0).getPrimaryKeyValues().get(0));
+        // Nothing is created, the new entity is returned and cached instead.
+        assertSame(newEntities.get(1), result.get(1));
+        assertSame(newEntities.get(1), result.get(2));
+        assertSame(newEntities.get(1), cache.get("b"));
+        assertEquals(0, frostUtils.getCountInsert());
+        assertEquals(1, server.getRequests().size());
+        assertEquals("GET", server.getRequests().get(0).method);
+    }
+}
@@ -29,26 +29,46 @@ import static de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing.E
 import static de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing.EP_RESULTTIME;
 import static de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Tasking.EP_TASKINGPARAMETERS_TC;
 import static de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Tasking.taskingParametersBuilder;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.json.deserialize.DataArrayReader;
+import de.fraunhofer.iosb.ilt.frostclient.json.deserialize.EntityDeserializer;
+import de.fraunhofer.iosb.ilt.frostclient.json.deserialize.JsonReader;
+import de.fraunhofer.iosb.ilt.frostclient.json.deserialize.ObservationSeriesReader;
 import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
 import de.fraunhofer.iosb.ilt.frostclient.model.EntitySet;
+import de.fraunhofer.iosb.ilt.frostclient.model.ModelRegistry;
 import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
 import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
 import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Tasking;
+import de.fraunhofer.iosb.ilt.frostclient.models.ext.DataArrayBatch;
+import de.fraunhofer.iosb.ilt.frostclient.models.ext.ObservationSeries;
 import de.fraunhofer.iosb.ilt.frostclient.models.swecommon.constraint.AllowedValues;
 import de.fraunhofer.iosb.ilt.frostclient.models.swecommon.simple.Count;
 import de.fraunhofer.iosb.ilt.frostclient.models.swecommon.simple.Text;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import tools.jackson.core.JsonParser;
+import tools.jackson.databind.DeserializationFeature;
+import tools.jackson.databind.exc.UnrecognizedPropertyException;
+import tools.jackson.databind.json.JsonMapper;
 
 public class EntityReaderTest {
 
@@ -88,6 +108,169 @@ public class EntityReaderTest {
         assertEquals(expected, observation);
     }
 
+    @Test
+    public void readEntityChanges() throws IOException {
+        String json = """
+                {
+                    "name": "Thing 1",
+                    "description": "The first Thing",
+                    "@iot.id": 1
+                }""";
+
+        Entity thing = service.getJsonReader().parseEntity(modelSensing.etThing, json);
+        assertFalse(thing.hasChanges());
+
+        thing.setProperty(EP_NAME, "Thing One");
+        assertTrue(thing.isChanged(EP_NAME));
+        assertFalse(thing.isChanged(EP_DESCRIPTION));
+
+        Entity changes = thing.withOnlyChanges();
+        assertEquals("Thing One", changes.getProperty(EP_NAME));
+        assertEquals(thing.getPrimaryKeyValues(), changes.getPrimaryKeyValues());
+        assertFalse(changes.isSetProperty(EP_DESCRIPTION));
+    }
+
+    @Test
+    public void readNestedEntitySetAnnotations() throws IOException, ServiceFailureException {
+        String json = """
+                {
+                    "@iot.id": 1,
+                    "Datastreams@iot.count": 5,
+                    "Datastreams": [{
+                        "@iot.id": 2,
+                        "Observations": [{"@iot.id": 3, "result": 1}],
+                        "Observations@iot.nextLink": "https://server.de/SensorThingsService/v1.1/Datastreams(2)/Observations?$skip=1",
+                        "Thing": {"@iot.id": 1, "name": "Thing 1"}
+                    }],
+                    "Datastreams@iot.nextLink": "https://server.de/SensorThingsService/v1.1/Things(1)/Datastreams?$skip=1",
+                    "Locations@iot.count": 0,
+                    "Unknowns@iot.count": 7
+                }""";
+
+        Entity thing = service.getJsonReader().parseEntity(modelSensing.etThing, json);
+
+        EntitySet datastreams = thing.getProperty(modelSensing.npThingDatastreams, false);
+        assertEquals(5, datastreams.getCount());
+        assertEquals("https://server.de/SensorThingsService/v1.1/Things(1)/Datastreams?$skip=1", datastreams.getNextLink());
+        assertEquals(1, datastreams.size());
+        Entity datastream = datastreams.toList().get(0);
+        assertEquals(modelSensing.etDatastream, datastream.getEntityType());
+        EntitySet observations = datastream.getProperty(modelSensing.npDatastreamObservations, false);
+        assertEquals(-1, observations.getCount());
+        assertEquals("https://server.de/SensorThingsService/v1.1/Datastreams(2)/Observations?$skip=1", observations.getNextLink());
+        assertEquals(modelSensing.etObservation, observations.toList().get(0).getEntityType());
+        assertEquals("Thing 1", datastream.getProperty(modelSensing.npDatastreamThing, false).getProperty(EP_NAME));
+
+        EntitySet locations = thing.getProperty(modelSensing.npThingLocations, false);
+        assertEquals(0, locations.getCount());
+        assertTrue(locations.isEmpty());
+        assertFalse(thing.hasChanges());
+    }
+
+    @Test
+    public void readUnknownField() throws IOException {
+        final JsonMapper strict = ((JsonMapper) service.getJsonReader().getMapper()).rebuild()
+                .enable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .build();
+        final EntityDeserializer deserializer = EntityDeserializer.getInstance(service.getModelRegistry(), modelSensing.etThing);
+
+        // Annotations of unknown entity sets are ignored, even when strict.
+        String lenientJson = """
+                {"@iot.id": 1, "Unknowns@iot.count": 7, "Unknowns@iot.nextLink": "https://server.de/x"}""";
+        try (JsonParser parser = strict.createParser(lenientJson)) {
+            assertEquals(1L, deserializer.deserializeFull(parser, strict._deserializationContext()).getPrimaryKeyValues().get(0));
+        }
+
+        // Unknown fields, also in nested entities, fail when strict.
+        String json = """
+                {"@iot.id": 1, "Datastreams": [{"@iot.id": 2, "colour": "red"}]}""";
+        try (JsonParser parser = strict.createParser(json)) {
+            UnrecognizedPropertyException ex = assertThrows(UnrecognizedPropertyException.class,
+                    () -> deserializer.deserializeFull(parser, strict._deserializationContext()));
+            assertTrue(ex.getMessage().contains("colour"), ex.getMessage());
+        }
+
+        // And are skipped, with their whole value, when not.
+        Entity thing = service.getJsonReader().parseEntity(modelSensing.etThing, """
+                {"colour": {"r": [1, 2]}, "@iot.id": 1, "name": "Thing 1"}""");
+        assertEquals("Thing 1", thing.getProperty(EP_NAME));
+    }
+
+    @Test
+    public void readerNeedsFinalisedRegistry() {
+        final ModelRegistry registry = new ModelRegistry();
+        assertThrows(IllegalStateException.class, () -> new JsonReader(registry));
+        assertFalse(registry.isInitialised());
+        registry.initFinalise();
+        assertNotNull(new JsonReader(registry).getMapper());
+    }
+
+    @Test
+    public void readObservationSeries() throws IOException {
+        String json = """
+                {
+                    "value": [
+                        {"phenomenonTime": "2016-01-07T02:00:00.000Z", "resultTime": null, "result": 0.15, "@iot.id": 1},
+                        {"phenomenonTime": "2016-01-07T02:00:00Z/2016-01-07T03:00:00Z", "resultTime": "2016-01-07T03:00:00.5Z", "result": 3},
+                        {"phenomenonTime": {"start": "2016-01-07T04:00:00+01:00"}, "result": "text"}
+                    ],
+                    "@iot.nextLink": "https://server.de/SensorThingsService/v1.1/Observations?$skip=3"
+                }""";
+
+        ObservationSeriesReader reader = new ObservationSeriesReader(service.getJsonReader().getMapper());
+        ObservationSeries series = new ObservationSeries(1);
+        String nextLink = reader.readPage(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), series);
+
+        assertEquals("https://server.de/SensorThingsService/v1.1/Observations?$skip=3", nextLink);
+        assertEquals(3, series.size());
+        final long start = ZonedDateTime.parse("2016-01-07T02:00:00Z").toEpochSecond() * 1_000_000_000L;
+        assertEquals(start, series.getPhenomenonTimeStart(0));
+        assertEquals(start, series.getPhenomenonTimeEnd(0));
+        assertEquals(ObservationSeries.NO_TIME, series.getResultTime(0));
+        assertEquals(0.15, series.getResult(0));
+        assertEquals(start + 3600_000_000_000L, series.getPhenomenonTimeEnd(1));
+        assertEquals(start + 3600_500_000_000L, series.getResultTime(1));
+        assertEquals(3.0, series.getResult(1));
+        assertEquals(start + 3600_000_000_000L, series.getPhenomenonTimeStart(2));
+        assertTrue(Double.isNaN(series.getResult(2)));
+    }
+
+    @Test
+    public void readDataArray() throws IOException {
+        String json = """
+                {
+                    "value": [{
+                        "Datastream@iot.navigationLink": "https://server.de/SensorThingsService/v1.1/Datastreams(1)",
+                        "components": ["id", "phenomenonTime", "result"],
+                        "dataArray@iot.count": 2,
+                        "dataArray": [
+                            [1, "2016-01-07T02:00:00.000Z", 0.15],
+                            [2, "2016-01-07T03:00:00.000Z", {"value": 1}]
+                        ]
+                    }]
+                }""";
+
+        DataArrayReader reader = new DataArrayReader(service.getJsonReader().getMapper());
+        List<DataArrayBatch> batches = new ArrayList<>();
+        String nextLink = reader.readPage(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), batches);
+
+        assertEquals(null, nextLink);
+        assertEquals(1, batches.size());
+        DataArrayBatch batch = batches.get(0);
+        assertEquals("https://server.de/SensorThingsService/v1.1/Datastreams(1)", batch.getNavigationLink());
+        assertEquals(List.of("id", "phenomenonTime", "result"), batch.getComponents());
+        assertEquals(2, batch.size());
+        assertEquals("2016-01-07T03:00:00.000Z", batch.getValue(1, 1));
+        assertEquals(2L, batch.getValue(1, 0));
+        assertEquals(0.15, batch.getValue(0, 2));
+        assertTrue(batch.getValue(1, 2) instanceof Map);
+        assertArrayEquals(new double[]{1, 2}, batch.getDoubleColumn("id"));
+
+        ObservationSeries series = batch.toSeries();
+        assertEquals(0.15, series.getResult(0));
+        assertTrue(Double.isNaN(series.getResult(1)));
+    }
+
     @Test
     public void readEntityV2() throws IOException {
         String json = """
@@ -224,6 +407,32 @@ public class EntityReaderTest {
         List<Entity> thingList = things.toList();
 
         assertTrue(thingList.isEmpty());
+        assertEquals(0, things.stream().parallel().count());
+    }
+
+    @Test
+    public void readEntityListStreaming() throws IOException {
+        String json = """
+                {
+                    "value" : [
+                        {"name" : "Thing 1", "@iot.id" : 1},
+                        {"name" : "Thing 2", "@iot.id" : 2}
+                    ],
+                    "@iot.nextLink" : "https://server.de/SensorThingsService/v1.0/Things?$skip=2"
+                }""";
+
+        List<Entity> streamed = new ArrayList<>();
+        InputStream input = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+        EntitySet things = service.getJsonReader().parseEntitySet(modelSensing.etThing, input, streamed::add);
+        assertEquals("https://server.de/SensorThingsService/v1.0/Things?$skip=2", things.getNextLink());
+        assertTrue(things.toList().isEmpty());
+        assertEquals(2, streamed.size());
+        assertEquals("Thing 1", streamed.get(0).getProperty(EP_NAME));
+        assertEquals(2L, streamed.get(1).getProperty(EP_ID));
+
+        input = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+        things = service.getJsonReader().parseEntitySet(modelSensing.etThing, input);
+        assertEquals(2, things.size());
     }
 
     @Test
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.model.EntitySet;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests iterating paged entity sets with read-ahead against a local test
+ * server.
+ */
+public class EntitySetPrefetchTest {
+
+    private TestServer server;
+    private SensorThingsV11Sensing modelSensing;
+    private SensorThingsService service;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new TestServer();
+        modelSensing = new SensorThingsV11Sensing();
+        service = server.createService(modelSensing);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        service.close();
+        server.close();
+    }
+
+    /**
+     * Answers with the given number of pages of two Things each. The page
+     * with the given number fails, if it is positive. The second page is
+     * slowed down, to give the read-ahead time to overtake it, if it could.
+     */
+    private void servePages(int pageCount, int failingPage) {
+        server.setHandler(request -> {
+            final int skipAt = request.path.indexOf("$skip=");
+            final int skip = skipAt < 0 ? 0 : Integer.parseInt(request.path.substring(skipAt + 6));
+            final int page = skip / 2;
+            if (page == failingPage) {
+                return new TestServer.Response(500, "broken");
+            }
+            if (page == 1) {
+                Thread.sleep(50);
+            }
+            String body = "{\"value\": [{\"@iot.id\": " + (skip + 1) + "}, {\"@iot.id\": " + (skip + 2) + "}]";
+            if (page < pageCount - 1) {
+                body += ", \"@iot.nextLink\": \"" + server.getBaseUrl() + "Things?$skip=" + (skip + 2) + "\"";
+            }
+            return new TestServer.Response(200, body + "}");
+        });
+    }
+
+    private static List<Object> drain(Iterator<Entity> iterator) {
+        final List<Object> ids = new ArrayList<>();
+        iterator.forEachRemaining(e -> ids.add(e.getPrimaryKeyValues().get(0)));
+        return ids;
+    }
+
+    @Test
+    public void pagesInOrder() throws ServiceFailureException {
+        servePages(4, -1);
+        final EntitySet set = service.query(modelSensing.etThing).list().setReadAhead(2);
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L), drain(set.iterator()));
+        final List<String> paths = new ArrayList<>();
+        server.getRequests().forEach(r -> paths.add(r.path));
+        assertEquals(List.of("Things", "Things?$skip=2", "Things?$skip=4", "Things?$skip=6"), paths);
+    }
+
+    @Test
+    public void endsWithoutNextLink() throws ServiceFailureException {
+        servePages(2, -1);
+        final EntitySet set = service.query(modelSensing.etThing).list().setReadAhead(3);
+        final Iterator<Entity> iterator = set.iterator();
+        assertEquals(List.of(1L, 2L, 3L, 4L), drain(iterator));
+        assertFalse(iterator.hasNext());
+        assertThrows(NoSuchElementException.class, iterator::next);
+        // The read-ahead past the last page does not fetch anything.
+        assertEquals(2, server.getRequests().size());
+    }
+
+    @Test
+    public void failedPageEndsIteration() throws ServiceFailureException {
+        servePages(3, 1);
+        final EntitySet set = service.query(modelSensing.etThing).list().setReadAhead(2);
+        assertEquals(List.of(1L, 2L), drain(set.iterator()));
+    }
+
+    @Test
+    public void failedPageThrows() throws ServiceFailureException {
+        servePages(3, 1);
+        final EntitySet set = service.query(modelSensing.etThing).list()
+                .setReadAhead(2)
+                .setFailOnError(true);
+        final Iterator<Entity> iterator = set.iterator();
+        final List<Object> ids = new ArrayList<>();
+        assertThrows(IllegalStateException.class, () -> iterator.forEachRemaining(e -> ids.add(e.getPrimaryKeyValues().get(0))));
+        assertEquals(List.of(1L, 2L), ids);
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void noReadAheadFetchesInline() throws ServiceFailureException {
+        servePages(2, -1);
+        // Any use of the executor fails.
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        service.setExecutor(executor);
+
+        final EntitySet prefetching = service.query(modelSensing.etThing).list().setReadAhead(1);
+        assertThrows(RejectedExecutionException.class, () -> drain(prefetching.iterator()));
+
+        final EntitySet set = service.query(modelSensing.etThing).list().setReadAhead(0);
+        final Iterator<Entity> iterator = set.iterator();
+        iterator.next();
+        iterator.next();
+        // The next page is only fetched when it is needed.
+        assertEquals(2, server.getRequests().size());
+        assertEquals(List.of(3L, 4L), drain(iterator));
+        assertEquals(3, server.getRequests().size());
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import static de.fraunhofer.iosb.ilt.frostclient.model.property.type.TypePrimitive.EDM_STRING;
+import static de.fraunhofer.iosb.ilt.frostclient.models.CommonProperties.EP_DESCRIPTION;
+import static de.fraunhofer.iosb.ilt.frostclient.models.CommonProperties.EP_ID;
+import static de.fraunhofer.iosb.ilt.frostclient.models.CommonProperties.EP_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.json.SimpleJsonMapper;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostclient.model.ModelRegistry;
+import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
+import de.fraunhofer.iosb.ilt.frostclient.model.csdl.CsdlDocument;
+import de.fraunhofer.iosb.ilt.frostclient.model.property.EntityPropertyMain;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests how Entities hold their property values and track changes.
+ */
+public class EntityTest {
+
+    private SensorThingsV11Sensing modelSensing;
+
+    @BeforeEach
+    public void setUp() throws MalformedURLException {
+        modelSensing = new SensorThingsV11Sensing();
+        new SensorThingsService(modelSensing)
+                .setBaseUrl(SensorThingsService.NULL_URL_V11)
+                .init();
+    }
+
+    @Test
+    public void nullVersusUnset() {
+        final Entity thing = new Entity(modelSensing.etThing);
+        assertFalse(thing.isSetProperty(EP_DESCRIPTION));
+        assertNull(thing.getProperty(EP_DESCRIPTION));
+
+        thing.setProperty(EP_DESCRIPTION, null);
+        assertTrue(thing.isSetProperty(EP_DESCRIPTION));
+        assertNull(thing.getProperty(EP_DESCRIPTION));
+        assertTrue(thing.isChanged(EP_DESCRIPTION));
+
+        thing.unsetProperty(EP_DESCRIPTION);
+        assertFalse(thing.isSetProperty(EP_DESCRIPTION));
+        assertFalse(thing.isChanged(EP_DESCRIPTION));
+    }
+
+    @Test
+    public void navigationSetToNull() {
+        final Entity datastream = new Entity(modelSensing.etDatastream);
+        datastream.setProperty(modelSensing.npDatastreamThing, new Entity(modelSensing.etThing).setProperty(EP_ID, 1L));
+        assertTrue(datastream.isSetProperty(modelSensing.npDatastreamThing));
+        datastream.clearChanges();
+
+        // A navigation property set to null is not set, but is changed.
+        datastream.setProperty(modelSensing.npDatastreamThing, null);
+        assertFalse(datastream.isSetProperty(modelSensing.npDatastreamThing));
+        assertTrue(datastream.isChanged(modelSensing.npDatastreamThing));
+        assertFalse(datastream.withOnlyChanges().isSetProperty(modelSensing.npDatastreamThing));
+    }
+
+    @Test
+    public void withOnlyChanges() {
+        final Entity thing = new Entity(modelSensing.etThing)
+                .setProperty(EP_ID, 1L)
+                .setProperty(EP_NAME, "Thing 1")
+                .setProperty(EP_DESCRIPTION, "A Thing")
+                .clearChanges();
+        thing.setProperty(EP_NAME, "Thing One");
+        thing.setProperty(EP_DESCRIPTION, null);
+
+        final Entity changes = thing.withOnlyChanges();
+        assertEquals(PkValue.of(1L), changes.getPrimaryKeyValues());
+        assertEquals("Thing One", changes.getProperty(EP_NAME));
+        assertTrue(changes.isSetProperty(EP_DESCRIPTION));
+        assertNull(changes.getProperty(EP_DESCRIPTION));
+        assertFalse(changes.isSetProperty(modelSensing.npThingDatastreams));
+        assertEquals(Set.of(EP_NAME, EP_DESCRIPTION), Set.copyOf(thing.getChangedProperties()));
+    }
+
+    @Test
+    public void propertyRegisteredAfterCreation() {
+        final EntityType type = new EntityType("Widget", "Widgets").registerProperty(EP_ID);
+        final Entity widget = new Entity(type).setProperty(EP_ID, 1L);
+
+        // Enough properties to grow the slot table of the type several times.
+        final List<EntityPropertyMain<String>> added = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final EntityPropertyMain<String> property = new EntityPropertyMain<>("p" + i, EDM_STRING);
+            type.registerProperty(property);
+            added.add(property);
+        }
+        for (int i = 0; i < added.size(); i++) {
+            assertEquals(i + 1, type.getSlot(added.get(i)));
+            assertSame(added.get(i), type.getPropertyForSlot(i + 1));
+        }
+
+        final EntityPropertyMain<String> last = added.get(added.size() - 1);
+        assertFalse(widget.isSetProperty(last));
+        widget.setProperty(last, "value");
+        assertEquals("value", widget.getProperty(last));
+        assertEquals(1L, widget.getProperty(EP_ID));
+
+        // Properties of other types are not found, and can not be set.
+        assertEquals(-1, type.getSlot(EP_NAME));
+        assertFalse(type.hasProperty(EP_NAME));
+        assertThrows(IllegalArgumentException.class, () -> widget.setProperty(EP_NAME, "name"));
+    }
+
+    @Test
+    public void staticPropertiesOnLoadedType() throws IOException {
+        final String schemaData = IOUtils.resourceToString("model/csdl_sensorthings.json", StandardCharsets.UTF_8, getClass().getClassLoader());
+        final CsdlDocument csdlDocument = SimpleJsonMapper.getSimpleObjectMapper().readValue(schemaData, CsdlDocument.class);
+        final ModelRegistry mr = new ModelRegistry();
+        csdlDocument.applyTo(mr);
+        final EntityType thingType = mr.getEntityTypeForName("Thing");
+
+        // The loaded type has its own property instances, equal by name.
+        assertTrue(thingType.getProperty("name") != EP_NAME);
+        assertTrue(thingType.hasProperty(EP_NAME));
+        assertEquals(thingType.getSlot(thingType.getProperty("name")), thingType.getSlot(EP_NAME));
+
+        final Entity thing = new Entity(thingType).setProperty(EP_NAME, "Thing 1");
+        assertEquals("Thing 1", thing.getProperty(EP_NAME));
+        assertEquals("Thing 1", thing.getProperty(thingType.getEntityProperty("name")));
+        assertTrue(thing.toString().contains("Thing 1"), thing.toString());
+        assertFalse(thingType.hasProperty(new EntityPropertyMain<>("noSuchProperty", EDM_STRING)));
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import static de.fraunhofer.iosb.ilt.frostclient.models.CommonProperties.EP_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.dao.NavigationLoader;
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the queries the NavigationLoader sends, and how the results are
+ * attached to the source entities, against a local test server.
+ */
+public class NavigationLoaderTest {
+
+    private TestServer server;
+    private SensorThingsV11Sensing modelSensing;
+    private SensorThingsService service;
+    /**
+     * The bodies to answer the requests with, in order.
+     */
+    private final Queue<String> answers = new ConcurrentLinkedQueue<>();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new TestServer();
+        server.setHandler(request -> new TestServer.Response(200, answers.poll()));
+        modelSensing = new SensorThingsV11Sensing();
+        service = server.createService(modelSensing);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        service.close();
+        server.close();
+    }
+
+    @Test
+    public void loadByInverse() throws ServiceFailureException {
+        answers.add("""
+                {"value": [
+                    {"@iot.id": 5, "name": "Thing 5", "Datastreams": [{"@iot.id": 1}, {"@iot.id": 2}]},
+                    {"@iot.id": 6, "name": "Thing 6", "Datastreams": [{"@iot.id": 3}]}
+                ]}""");
+        final Entity ds1 = modelSensing.newDatastream(1L);
+        final Entity ds2 = modelSensing.newDatastream(2L);
+        final Entity ds3 = modelSensing.newDatastream(3L);
+        final Entity ds4 = modelSensing.newDatastream(4L);
+        final Map<PkValue, Entity> loaded = new NavigationLoader(service)
+                .load(List.of(ds1, ds2, ds3, ds4), modelSensing.npDatastreamThing);
+
+        assertEquals(1, server.getRequests().size());
+        assertEquals("Things?$top=4"
+                + "&$filter=Datastreams/id eq 1 or Datastreams/id eq 2 or Datastreams/id eq 3 or Datastreams/id eq 4"
+                + "&$expand=Datastreams($top=4;$select=id;$filter=id eq 1 or id eq 2 or id eq 3 or id eq 4)",
+                server.getRequests().get(0).path);
+
+        assertEquals(2, loaded.size());
+        final Entity thing5 = loaded.get(PkValue.of(5L));
+        assertEquals("Thing 5", thing5.getProperty(EP_NAME));
+        // The Thing shared by two Datastreams is one instance.
+        assertSame(thing5, ds1.getProperty(modelSensing.npDatastreamThing, false));
+        assertSame(thing5, ds2.getProperty(modelSensing.npDatastreamThing, false));
+        assertSame(loaded.get(PkValue.of(6L)), ds3.getProperty(modelSensing.npDatastreamThing, false));
+        assertNull(ds4.getProperty(modelSensing.npDatastreamThing, false));
+        // The partial expand of the inverse is not kept.
+        assertFalse(thing5.isSetProperty(modelSensing.npThingDatastreams));
+        assertFalse(thing5.hasChanges());
+    }
+
+    @Test
+    public void loadInChunks() throws ServiceFailureException {
+        answers.add("{\"value\": [{\"@iot.id\": 5, \"Datastreams\": [{\"@iot.id\": 1}, {\"@iot.id\": 2}]}]}");
+        answers.add("{\"value\": [{\"@iot.id\": 5, \"Datastreams\": [{\"@iot.id\": 3}]}]}");
+        final Entity ds1 = modelSensing.newDatastream(1L);
+        final Entity ds2 = modelSensing.newDatastream(2L);
+        final Entity ds3 = modelSensing.newDatastream(3L);
+        final Map<PkValue, Entity> loaded = new NavigationLoader(service)
+                .setChunkSize(2)
+                .load(List.of(ds1, ds2, ds3), modelSensing.npDatastreamThing);
+
+        assertEquals(2, server.getRequests().size());
+        final String first = server.getRequests().get(0).path;
+        assertTrue(first.contains("$filter=Datastreams/id eq 1 or Datastreams/id eq 2&"), first);
+        final String second = server.getRequests().get(1).path;
+        assertTrue(second.contains("$filter=Datastreams/id eq 3&"), second);
+        // The Thing returned by both chunks is attached as one instance.
+        assertEquals(1, loaded.size());
+        assertSame(ds1.getProperty(modelSensing.npDatastreamThing, false), ds3.getProperty(modelSensing.npDatastreamThing, false));
+    }
+
+    @Test
+    public void skipsLoadedAndNew() throws ServiceFailureException {
+        final Entity loadedDs = modelSensing.newDatastream(1L)
+                .setProperty(modelSensing.npDatastreamThing, modelSensing.newThing("T", "A Thing"));
+        final Entity newDs = modelSensing.newDatastream();
+        final Map<PkValue, Entity> loaded = new NavigationLoader(service)
+                .load(List.of(loadedDs, newDs), modelSensing.npDatastreamThing);
+        assertTrue(loaded.isEmpty());
+        assertTrue(server.getRequests().isEmpty());
+    }
+
+    @Test
+    public void mixedTypesRejected() {
+        final NavigationLoader loader = new NavigationLoader(service);
+        final List<Entity> mixed = List.of(modelSensing.newDatastream(1L), modelSensing.newThing("T", "A Thing"));
+        assertThrows(IllegalArgumentException.class, () -> loader.load(mixed, modelSensing.npDatastreamThing));
+        assertThrows(IllegalArgumentException.class, () -> loader.setChunkSize(0));
+    }
+
+}
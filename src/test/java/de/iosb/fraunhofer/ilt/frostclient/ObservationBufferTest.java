@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import static de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing.EP_RESULT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.dao.ObservationBuffer;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the ObservationBuffer against a local test server, creating the
+ * Observations one by one.
+ */
+public class ObservationBufferTest {
+
+    private TestServer server;
+    private SensorThingsV11Sensing modelSensing;
+    private SensorThingsService service;
+    private final AtomicLong nextId = new AtomicLong();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new TestServer();
+        server.setHandler(request -> new TestServer.Response(201, "", server.getBaseUrl() + "Observations(" + nextId.incrementAndGet() + ")"));
+        modelSensing = new SensorThingsV11Sensing();
+        service = server.createService(modelSensing);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    private Entity observation(int result) {
+        return new Entity(modelSensing.etObservation).setProperty(EP_RESULT, result);
+    }
+
+    private long countPosts() {
+        return server.getRequests().stream()
+                .filter(request -> request.method.equals("POST"))
+                .count();
+    }
+
+    @Test
+    public void testCloseSendsAll() throws InterruptedException {
+        final ObservationBuffer buffer = new ObservationBuffer(service)
+                .setUseDataArray(false)
+                .setBatchSize(10)
+                .setMaxAgeMs(60_000);
+        for (int i = 0; i < 25; i++) {
+            buffer.create(observation(i));
+        }
+        buffer.close();
+        assertEquals(0, buffer.getPending());
+        assertEquals(25, countPosts());
+        assertThrows(IllegalStateException.class, () -> buffer.create(observation(99)));
+        assertThrows(IllegalStateException.class, () -> buffer.offer(observation(99)));
+        buffer.close();
+    }
+
+    @Test
+    public void testCloseWhileAdding() throws Exception {
+        final ObservationBuffer buffer = new ObservationBuffer(service)
+                .setUseDataArray(false)
+                .setCapacity(5)
+                .setBatchSize(3)
+                .setConcurrency(2);
+        final AtomicInteger added = new AtomicInteger();
+        final ExecutorService producers = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(producers.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        try {
+                            buffer.create(observation(i));
+                            added.incrementAndGet();
+                        } catch (IllegalStateException ex) {
+                            return null;
+                        }
+                    }
+                    return null;
+                }));
+            }
+            Thread.sleep(100);
+            buffer.close();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            producers.shutdownNow();
+        }
+        // Every Observation that was accepted was also sent.
+        assertEquals(added.get(), countPosts());
+        assertEquals(0, buffer.getPending());
+    }
+
+    @Test
+    public void testInterruptedWorkerHandsBackBatch() throws InterruptedException {
+        final ExecutorService workers = Executors.newCachedThreadPool();
+        service.setExecutor(workers);
+        final List<Entity> failed = new ArrayList<>();
+        final ObservationBuffer buffer = new ObservationBuffer(service)
+                .setUseDataArray(false)
+                .setBatchSize(100)
+                .setMaxAgeMs(60_000)
+                .setFailureHandler((observations, ex) -> failed.addAll(observations));
+        for (int i = 0; i < 3; i++) {
+            buffer.create(observation(i));
+        }
+        // Give the worker time to take the Observations into its batch.
+        Thread.sleep(200);
+        workers.shutdownNow();
+        assertTrue(workers.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, countPosts());
+        assertEquals(3, buffer.getPending());
+
+        buffer.close();
+        assertEquals(3, countPosts());
+        assertTrue(failed.isEmpty());
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import de.fraunhofer.iosb.ilt.frostclient.query.PartitionedScan;
+import de.fraunhofer.iosb.ilt.frostclient.query.Query;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests partitioned queries against a local test server.
+ */
+public class PartitionedQueryTest {
+
+    private static final List<String> PARTITIONS = List.of("id lt 10", "id ge 10");
+
+    private TestServer server;
+    private SensorThingsV11Sensing modelSensing;
+    private SensorThingsService service;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new TestServer();
+        modelSensing = new SensorThingsV11Sensing();
+        service = server.createService(modelSensing);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    /**
+     * Answers each partition with two pages of two Things. The second page of
+     * the partition with the given filter fails, if not null.
+     */
+    private void serveTwoPages(String failingFilter) {
+        server.setHandler(request -> {
+            final boolean low = request.path.contains("id lt 10");
+            final int base = low ? 1 : 10;
+            if (!request.path.contains("$skip=2")) {
+                final String next = server.getBaseUrl() + "Things?$skip=2&$filter=" + (low ? "id%20lt%2010" : "id%20ge%2010");
+                return new TestServer.Response(200, "{\"value\": [{\"@iot.id\": " + base + "}, {\"@iot.id\": " + (base + 1) + "}],"
+                        + " \"@iot.nextLink\": \"" + next + "\"}");
+            }
+            if (failingFilter != null && request.path.contains(failingFilter)) {
+                return new TestServer.Response(500, "broken");
+            }
+            return new TestServer.Response(200, "{\"value\": [{\"@iot.id\": " + (base + 2) + "}, {\"@iot.id\": " + (base + 3) + "}]}");
+        });
+    }
+
+    @Test
+    public void skipAndTopRejected() {
+        final Query withTop = service.query(modelSensing.etThing).top(5);
+        assertThrows(IllegalArgumentException.class, () -> withTop.listPartitioned(PARTITIONS));
+        assertThrows(IllegalArgumentException.class, () -> withTop.stream(PARTITIONS));
+        final Query withSkip = service.query(modelSensing.etThing).skip(5);
+        assertThrows(IllegalArgumentException.class, () -> withSkip.listPartitioned(PARTITIONS));
+        assertTrue(server.getRequests().isEmpty());
+    }
+
+    @Test
+    public void partitionsCombineFilters() {
+        serveTwoPages(null);
+        final Set<Object> ids = new HashSet<>();
+        try (PartitionedScan scan = service.query(modelSensing.etThing).filter("name eq 'a'").listPartitioned(PARTITIONS)) {
+            scan.forEachRemaining(e -> ids.add(e.getPrimaryKeyValues().get(0)));
+        }
+        assertEquals(Set.of(1L, 2L, 3L, 4L, 10L, 11L, 12L, 13L), ids);
+        assertEquals(4, server.getRequests().size());
+        for (TestServer.Request request : server.getRequests()) {
+            if (!request.path.contains("$skip")) {
+                assertTrue(request.path.contains("$filter=(name eq 'a') and (id "), request.path);
+            }
+            assertFalse(request.path.contains("$top"), request.path);
+        }
+    }
+
+    @Test
+    public void failedPageReachesConsumer() {
+        serveTwoPages("id ge 10");
+        final PartitionedScan scan = service.query(modelSensing.etThing).listPartitioned(PARTITIONS);
+        final IllegalStateException ex = assertThrows(IllegalStateException.class, () -> {
+            while (scan.hasNext()) {
+                scan.next();
+            }
+        });
+        assertTrue(ex.getCause() instanceof IllegalStateException, String.valueOf(ex.getCause()));
+    }
+
+    private static List<Object> drain(Spliterator<Entity> spliterator) {
+        final List<Object> ids = new ArrayList<>();
+        spliterator.forEachRemaining(e -> ids.add(e.getPrimaryKeyValues().get(0)));
+        return ids;
+    }
+
+    @Test
+    public void streamSplitsPartitionsThenPages() {
+        serveTwoPages(null);
+        final Spliterator<Entity> all = service.query(modelSensing.etThing).stream(PARTITIONS).spliterator();
+        final int characteristics = all.characteristics();
+        assertEquals(Spliterator.ORDERED | Spliterator.NONNULL, characteristics);
+
+        // The first split divides the partitions, without fetching anything.
+        final Spliterator<Entity> low = all.trySplit();
+        assertNotNull(low);
+        assertTrue(server.getRequests().isEmpty());
+
+        // A single partition is fetched and split at its first page.
+        final Spliterator<Entity> firstPage = low.trySplit();
+        assertNotNull(firstPage);
+        assertEquals(1, server.getRequests().size());
+        assertEquals(characteristics, low.characteristics());
+        assertEquals(List.of(1L, 2L), drain(firstPage));
+        assertEquals(1, server.getRequests().size());
+
+        // The rest of the partition fetches the next page.
+        assertEquals(List.of(3L, 4L), drain(low));
+        assertEquals(2, server.getRequests().size());
+        assertEquals(characteristics, low.characteristics());
+
+        assertEquals(List.of(10L, 11L, 12L, 13L), drain(all));
+        assertEquals(4, server.getRequests().size());
+    }
+
+    @Test
+    public void streamFailsOnFailedPage() {
+        serveTwoPages("id ge 10");
+        final List<Object> ids = new ArrayList<>();
+        assertThrows(IllegalStateException.class, () -> service.query(modelSensing.etThing)
+                .stream(PARTITIONS)
+                .forEach(e -> ids.add(e.getPrimaryKeyValues().get(0))));
+        assertEquals(List.of(1L, 2L, 3L, 4L, 10L, 11L), ids);
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.model.PkValue;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import de.fraunhofer.iosb.ilt.frostclient.utils.CacheCollection;
+import de.fraunhofer.iosb.ilt.frostclient.utils.PersistentIdIndex;
+import de.fraunhofer.iosb.ilt.frostclient.utils.PropertyExtractor;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PersistentIdIndexTest {
+
+    private Path directory;
+    private Path file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("frostIndex");
+        file = directory.resolve("Things.idx");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        final UUID uuid = UUID.randomUUID();
+        try (PersistentIdIndex index = PersistentIdIndex.open(file)) {
+            index.put("a", PkValue.of(1L));
+            index.put("b", PkValue.of(2));
+            index.put("c", PkValue.of("three"));
+            index.put("d", PkValue.of(uuid));
+            index.put("a", PkValue.of(11L));
+            index.remove("b");
+        }
+        try (PersistentIdIndex index = PersistentIdIndex.open(file)) {
+            assertEquals(3, index.size());
+            assertEquals(PkValue.of(11L), index.get("a"));
+            assertNull(index.get("b"));
+            assertEquals(PkValue.of("three"), index.get("c"));
+            assertEquals(PkValue.of(uuid), index.get("d"));
+        }
+    }
+
+    @Test
+    public void testIncompleteRecord() throws IOException {
+        try (PersistentIdIndex index = PersistentIdIndex.open(file)) {
+            index.put("a", PkValue.of(1L));
+            index.put("b", PkValue.of(2L));
+        }
+        final long size = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3);
+        }
+        try (PersistentIdIndex index = PersistentIdIndex.open(file)) {
+            assertEquals(PkValue.of(1L), index.get("a"));
+            assertNull(index.get("b"));
+            // The broken tail is cut off, so new records can be read again.
+            index.put("c", PkValue.of(3L));
+        }
+        try (PersistentIdIndex index = PersistentIdIndex.open(file)) {
+            assertEquals(2, index.size());
+            assertEquals(PkValue.of(3L), index.get("c"));
+        }
+    }
+
+    @Test
+    public void testCompactWhileWriting() throws IOException {
+        try (PersistentIdIndex index = PersistentIdIndex.open(file)) {
+            index.put("a", PkValue.of(0L));
+            final long small = Files.size(file);
+            for (long i = 1; i <= 5000; i++) {
+                index.put("a", PkValue.of(i));
+            }
+            assertTrue(Files.size(file) < 1000 * small, "Index file was not compacted: " + Files.size(file) + " bytes");
+            index.put("b", PkValue.of(1L));
+        }
+        try (PersistentIdIndex index = PersistentIdIndex.open(file)) {
+            assertEquals(2, index.size());
+            assertEquals(PkValue.of(5000L), index.get("a"));
+        }
+    }
+
+    @Test
+    public void testNotAnIndex() throws IOException {
+        Files.writeString(file, "Not an index file");
+        assertThrows(IOException.class, () -> PersistentIdIndex.open(file));
+    }
+
+    @Test
+    public void testReplaceCache() throws IOException {
+        final SensorThingsV11Sensing modelSensing = new SensorThingsV11Sensing();
+        final SensorThingsService service = new SensorThingsService(modelSensing)
+                .setBaseUrl(SensorThingsService.NULL_URL_V11)
+                .init();
+        try (CacheCollection caches = new CacheCollection(service).setIndexDirectory(directory)) {
+            caches.createCache(modelSensing.etThing, CacheCollection.createNameExtractor(modelSensing.etThing), PropertyExtractor.createFilterFromName());
+            final PersistentIdIndex first = caches.getCache(modelSensing.etThing).getIdIndex();
+            first.put("a", PkValue.of(1L));
+            caches.createCache(modelSensing.etThing, CacheCollection.createNameExtractor(modelSensing.etThing), PropertyExtractor.createFilterFromName());
+            final PersistentIdIndex second = caches.getCache(modelSensing.etThing).getIdIndex();
+            assertNotSame(first, second);
+            assertEquals(PkValue.of(1L), second.get("a"));
+            assertThrows(IOException.class, () -> first.put("b", PkValue.of(2L)));
+        }
+    }
+}
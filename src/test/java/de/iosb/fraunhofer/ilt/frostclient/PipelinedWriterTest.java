@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import static de.fraunhofer.iosb.ilt.frostclient.models.CommonProperties.EP_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.dao.AsyncDao;
+import de.fraunhofer.iosb.ilt.frostclient.dao.PipelinedWriter;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import java.net.MalformedURLException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the window and ordering of the PipelinedWriter, using a Dao whose
+ * requests are completed by the test.
+ */
+public class PipelinedWriterTest {
+
+    private final SensorThingsV11Sensing modelSensing = new SensorThingsV11Sensing();
+    /**
+     * The pending requests, by the name of the entity.
+     */
+    private final Map<String, CompletableFuture<Entity>> requests = new ConcurrentHashMap<>();
+    private AsyncDao dao;
+    private ExecutorService producer;
+
+    @BeforeEach
+    public void setUp() throws MalformedURLException {
+        new SensorThingsService(modelSensing)
+                .setBaseUrl(SensorThingsService.NULL_URL_V11)
+                .init();
+        dao = mock(AsyncDao.class);
+        when(dao.create(any())).thenAnswer(invocation -> {
+            final Entity entity = invocation.getArgument(0);
+            final CompletableFuture<Entity> request = new CompletableFuture<>();
+            requests.put(entity.getProperty(EP_NAME), request);
+            return request;
+        });
+        producer = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        producer.shutdownNow();
+    }
+
+    private Entity thing(String name) {
+        return new Entity(modelSensing.etThing).setProperty(EP_NAME, name);
+    }
+
+    private void answer(String name) {
+        final CompletableFuture<Entity> request = requests.get(name);
+        request.complete(thing(name));
+    }
+
+    private static void assertBlocked(Future<?> future) throws InterruptedException, ExecutionException {
+        assertThrows(TimeoutException.class, () -> future.get(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void windowLimitsRequests() throws Exception {
+        final PipelinedWriter writer = new PipelinedWriter(dao, 2, false);
+        final CompletableFuture<Entity> first = writer.create(thing("1"));
+        writer.create(thing("2"));
+        assertEquals(2, writer.getInFlight());
+
+        final Future<CompletableFuture<Entity>> third = producer.submit(() -> writer.create(thing("3")));
+        assertBlocked(third);
+        answer("2");
+        third.get(5, TimeUnit.SECONDS);
+        assertFalse(first.isDone());
+
+        answer("1");
+        answer("3");
+        writer.close();
+        assertEquals(0, writer.getInFlight());
+    }
+
+    @Test
+    public void orderedHoldsUndelivered() throws Exception {
+        final PipelinedWriter writer = new PipelinedWriter(dao, 2, true);
+        final CompletableFuture<Entity> first = writer.create(thing("1"));
+        final CompletableFuture<Entity> second = writer.create(thing("2"));
+
+        // The second request completes first, but is not delivered before
+        // the first, and keeps its place in the window.
+        answer("2");
+        assertFalse(second.isDone());
+        assertEquals(2, writer.getInFlight());
+        final Future<CompletableFuture<Entity>> third = producer.submit(() -> writer.create(thing("3")));
+        assertBlocked(third);
+
+        answer("1");
+        assertEquals("1", first.get(5, TimeUnit.SECONDS).getProperty(EP_NAME));
+        assertTrue(second.isDone());
+        final CompletableFuture<Entity> thirdDelivered = third.get(5, TimeUnit.SECONDS);
+        assertFalse(thirdDelivered.isDone());
+        answer("3");
+        writer.close();
+        assertEquals("3", thirdDelivered.get().getProperty(EP_NAME));
+        assertEquals(0, writer.getInFlight());
+    }
+
+    @Test
+    public void orderedDeliversAfterFailure() throws Exception {
+        final PipelinedWriter writer = new PipelinedWriter(dao, 3, true);
+        final CompletableFuture<Entity> first = writer.create(thing("1"));
+        final CompletableFuture<Entity> second = writer.create(thing("2"));
+        answer("2");
+        final IllegalStateException failure = new IllegalStateException("failed");
+        requests.get("1").completeExceptionally(failure);
+
+        final ExecutionException ex = assertThrows(ExecutionException.class, first::get);
+        assertSame(failure, ex.getCause());
+        assertEquals("2", second.get(5, TimeUnit.SECONDS).getProperty(EP_NAME));
+        writer.close();
+        assertEquals(0, writer.getInFlight());
+    }
+
+}
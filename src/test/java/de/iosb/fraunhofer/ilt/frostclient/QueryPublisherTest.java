@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.model.Entity;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the demand handling and cancellation of the QueryPublisher, against a
+ * local test server.
+ */
+public class QueryPublisherTest {
+
+    private static final String COMPLETE = "complete";
+
+    private TestServer server;
+    private SensorThingsV11Sensing modelSensing;
+    private SensorThingsService service;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new TestServer();
+        modelSensing = new SensorThingsV11Sensing();
+        service = server.createService(modelSensing);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        service.close();
+        server.close();
+    }
+
+    /**
+     * Records all signals: the ids of the entities, COMPLETE, or the failure.
+     */
+    private static class Recorder implements Flow.Subscriber<Entity> {
+
+        private final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Entity item) {
+            signals.add(item.getPrimaryKeyValues().get(0));
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            signals.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            signals.add(COMPLETE);
+        }
+
+        private Object next() throws InterruptedException {
+            final Object signal = signals.poll(10, TimeUnit.SECONDS);
+            assertNotNull(signal, "No signal received");
+            return signal;
+        }
+
+        private Object none() throws InterruptedException {
+            return signals.poll(200, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Recorder subscribe() {
+        final Recorder recorder = new Recorder();
+        service.query(modelSensing.etThing).publisher().subscribe(recorder);
+        return recorder;
+    }
+
+    /**
+     * Answers with two pages of two Things.
+     */
+    private void serveTwoPages() {
+        server.setHandler(request -> {
+            if (request.path.contains("$skip=2")) {
+                return new TestServer.Response(200, "{\"value\": [{\"@iot.id\": 3}, {\"@iot.id\": 4}]}");
+            }
+            return new TestServer.Response(200, "{\"value\": [{\"@iot.id\": 1}, {\"@iot.id\": 2}],"
+                    + " \"@iot.nextLink\": \"" + server.getBaseUrl() + "Things?$skip=2\"}");
+        });
+    }
+
+    @Test
+    public void pagesFollowDemand() throws InterruptedException {
+        serveTwoPages();
+        final Recorder recorder = subscribe();
+        assertNull(recorder.none());
+        assertTrue(server.getRequests().isEmpty());
+
+        recorder.subscription.request(1);
+        assertEquals(1L, recorder.next());
+        assertNull(recorder.none());
+        assertEquals(1, server.getRequests().size());
+
+        // The rest of the first page is buffered, the second page is fetched.
+        recorder.subscription.request(2);
+        assertEquals(2L, recorder.next());
+        assertEquals(3L, recorder.next());
+        assertNull(recorder.none());
+        assertEquals(2, server.getRequests().size());
+
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertEquals(4L, recorder.next());
+        assertEquals(COMPLETE, recorder.next());
+        assertEquals(2, server.getRequests().size());
+    }
+
+    @Test
+    public void cancelStopsSignals() throws InterruptedException {
+        serveTwoPages();
+        final Recorder recorder = subscribe();
+        recorder.subscription.request(1);
+        assertEquals(1L, recorder.next());
+        recorder.subscription.cancel();
+        recorder.subscription.request(10);
+        assertNull(recorder.none());
+        assertEquals(1, server.getRequests().size());
+    }
+
+    @Test
+    public void cancelAbortsRequestInFlight() throws InterruptedException {
+        final CountDownLatch received = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        server.setHandler(request -> {
+            received.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return new TestServer.Response(200, "{\"value\": [{\"@iot.id\": 1}]}");
+        });
+        final Recorder recorder = subscribe();
+        recorder.subscription.request(1);
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        recorder.subscription.cancel();
+        release.countDown();
+        assertNull(recorder.none());
+    }
+
+    @Test
+    public void nonPositiveRequestFails() throws InterruptedException {
+        serveTwoPages();
+        final Recorder recorder = subscribe();
+        recorder.subscription.request(0);
+        assertInstanceOf(IllegalArgumentException.class, recorder.next());
+        recorder.subscription.request(1);
+        assertNull(recorder.none());
+        assertTrue(server.getRequests().isEmpty());
+    }
+
+}
@@ -29,9 +29,12 @@ import de.fraunhofer.iosb.ilt.frostclient.Version;
 import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
 import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
 import de.fraunhofer.iosb.ilt.frostclient.query.Expand.ExpandItem;
+import de.fraunhofer.iosb.ilt.frostclient.query.Partitions;
 import de.fraunhofer.iosb.ilt.frostclient.query.Query;
 import de.fraunhofer.iosb.ilt.frostclient.utils.StringHelper;
 import java.net.MalformedURLException;
+import java.time.Instant;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 
 public class QueryTest {
@@ -77,4 +80,14 @@ public class QueryTest {
         assertEquals(expectedQuery2, expandItem.toUrlAsQuery());
     }
 
+    @Test
+    public void testPartitions() {
+        assertEquals(
+                List.of("id ge 1 and id lt 5", "id ge 5 and id lt 9", "id ge 9"),
+                Partitions.ranges("id", 1, 10, 3));
+        assertEquals(
+                List.of("phenomenonTime lt 2020-01-02T00:00:00Z", "phenomenonTime ge 2020-01-02T00:00:00Z"),
+                Partitions.timeSlices("phenomenonTime", Instant.parse("2020-01-01T00:00:00Z"), Instant.parse("2020-01-03T00:00:00Z"), 2));
+    }
+
 }
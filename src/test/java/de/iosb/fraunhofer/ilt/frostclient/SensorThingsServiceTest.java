@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import java.net.MalformedURLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.junit.jupiter.api.Test;
+
+public class SensorThingsServiceTest {
+
+    private static SensorThingsService createService() throws MalformedURLException {
+        return new SensorThingsService(new SensorThingsV11Sensing())
+                .setBaseUrl(SensorThingsService.NULL_URL_V11);
+    }
+
+    @Test
+    public void testVirtualThreadsExecutor() throws Exception {
+        final SensorThingsService service = createService();
+        final ExecutorService own = service.getExecutor();
+        service.setVirtualThreads(true);
+        assertTrue(own.isShutdown());
+        final ExecutorService virtual = service.getExecutor();
+        assertNotSame(own, virtual);
+        assertEquals("done", service.submit(() -> "done").get());
+
+        // A user-set executor replaces the own one, but is never shut down.
+        final ExecutorService mine = Executors.newSingleThreadExecutor();
+        try {
+            service.setExecutor(mine);
+            assertTrue(virtual.isShutdown());
+            service.setVirtualThreads(false);
+            assertSame(mine, service.getExecutor());
+            assertFalse(mine.isShutdown());
+            service.setExecutor(null);
+            assertFalse(mine.isShutdown());
+            assertNotSame(mine, service.getExecutor());
+        } finally {
+            mine.shutdown();
+        }
+    }
+
+    @Test
+    public void testVirtualThreadsMaxConnections() throws Exception {
+        final SensorThingsService service = createService();
+        assertEquals(0, service.getMaxConnections());
+        service.setVirtualThreads(true);
+        assertEquals(SensorThingsService.VIRTUAL_THREAD_MAX_CONNECTIONS, service.getMaxConnections());
+        service.setVirtualThreads(false);
+        assertEquals(0, service.getMaxConnections());
+
+        // An explicit maximum is left alone.
+        service.setMaxConnections(50);
+        service.setVirtualThreads(true);
+        assertEquals(50, service.getMaxConnections());
+        service.setVirtualThreads(false);
+        assertEquals(50, service.getMaxConnections());
+
+        service.setMaxConnections(0);
+        service.setVirtualThreads(true);
+        service.setMaxConnections(20);
+        service.setVirtualThreads(false);
+        assertEquals(20, service.getMaxConnections());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final SensorThingsService service = createService();
+        final ExecutorService own = service.getExecutor();
+        final CloseableHttpAsyncClient asyncClient = service.getAsyncHttpClient();
+        assertTrue(asyncClient.isRunning());
+        service.close();
+        assertTrue(own.isShutdown());
+        assertFalse(asyncClient.isRunning());
+
+        // A user-set executor is not shut down, the service can be reused.
+        final ExecutorService mine = Executors.newSingleThreadExecutor();
+        try {
+            service.setExecutor(mine);
+            assertNotSame(asyncClient, service.getAsyncHttpClient());
+            service.close();
+            assertFalse(mine.isShutdown());
+        } finally {
+            mine.shutdown();
+        }
+    }
+}
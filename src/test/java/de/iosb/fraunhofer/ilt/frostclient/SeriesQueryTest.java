@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.exception.ServiceFailureException;
+import de.fraunhofer.iosb.ilt.frostclient.models.SensorThingsV11Sensing;
+import de.fraunhofer.iosb.ilt.frostclient.models.ext.DataArrayBatch;
+import de.fraunhofer.iosb.ilt.frostclient.models.ext.ObservationSeries;
+import de.fraunhofer.iosb.ilt.frostclient.query.Query;
+import java.io.IOException;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests reading Observations into columns, against a local test server.
+ */
+public class SeriesQueryTest {
+
+    private TestServer server;
+    private SensorThingsV11Sensing modelSensing;
+    private SensorThingsService service;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new TestServer();
+        modelSensing = new SensorThingsV11Sensing();
+        service = server.createService(modelSensing);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void listSeriesLeavesQueryUnchanged() throws ServiceFailureException {
+        server.setHandler(request -> {
+            if (request.path.contains("$skip=2")) {
+                return new TestServer.Response(200, """
+                        {"value": [{"phenomenonTime": "2020-01-01T00:00:02Z", "result": 3}]}""");
+            }
+            return new TestServer.Response(200, """
+                    {"value": [
+                        {"phenomenonTime": "2020-01-01T00:00:00Z", "result": 1},
+                        {"phenomenonTime": "2020-01-01T00:00:01Z", "result": 2}
+                    ], "@iot.nextLink": "%sObservations?$skip=2"}""".formatted(server.getBaseUrl()));
+        });
+        final Query query = service.query(modelSensing.etObservation).top(Integer.MAX_VALUE);
+        final ObservationSeries series = query.listSeries();
+        assertEquals(3, series.size());
+        assertEquals(3.0, series.getResult(2));
+        assertTrue(server.getRequests().get(0).path.contains("$select=phenomenonTime,resultTime,result"));
+
+        query.list();
+        assertFalse(server.getRequests().get(2).path.contains("$select"), server.getRequests().get(2).path);
+    }
+
+    @Test
+    public void listDataArrayMergesPages() throws ServiceFailureException {
+        server.setHandler(request -> {
+            if (request.path.contains("$skip=2")) {
+                return new TestServer.Response(200, """
+                        {"value": [{
+                            "Datastream@iot.navigationLink": "Datastreams(1)",
+                            "components": ["id", "result"],
+                            "dataArray": [[3, "high"]]
+                        }]}""");
+            }
+            return new TestServer.Response(200, """
+                    {"value": [{
+                        "Datastream@iot.navigationLink": "Datastreams(1)",
+                        "components": ["id", "result"],
+                        "dataArray": [[1, 1.5], [2, null]]
+                    }, {
+                        "components": ["id", "result"],
+                        "dataArray": [[4, 4]],
+                        "Datastream@iot.navigationLink": "Datastreams(2)"
+                    }], "@iot.nextLink": "%sObservations?$skip=2"}""".formatted(server.getBaseUrl()));
+        });
+        final List<DataArrayBatch> batches = service.query(modelSensing.etObservation).listDataArray();
+        assertTrue(server.getRequests().get(0).path.contains("$resultFormat=dataArray"));
+        assertEquals(2, batches.size());
+        final DataArrayBatch first = batches.get(0);
+        assertEquals("Datastreams(1)", first.getNavigationLink());
+        assertEquals(3, first.size());
+        assertArrayEquals(new Object[]{1L, 2L, 3L}, first.getColumn("id"));
+        assertArrayEquals(new Object[]{1.5, null, "high"}, first.getColumn("result"));
+        final DataArrayBatch second = batches.get(1);
+        assertEquals("Datastreams(2)", second.getNavigationLink());
+        assertEquals(4.0, second.toSeries().getResult(0));
+    }
+
+    @Test
+    public void listSeriesTimeOutOfRange() {
+        server.setHandler(request -> new TestServer.Response(200, """
+                {"value": [{"phenomenonTime": "2300-01-01T00:00:00Z", "result": 1}]}"""));
+        final Query query = service.query(modelSensing.etObservation);
+        final ServiceFailureException ex = assertThrows(ServiceFailureException.class, query::listSeries);
+        assertTrue(ex.getCause() instanceof IllegalArgumentException, String.valueOf(ex.getCause()));
+        assertThrows(IllegalArgumentException.class, () -> ObservationSeries.parseEpochNanos("1600-01-01T00:00:00Z"));
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.iosb.fraunhofer.ilt.frostclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.fraunhofer.iosb.ilt.frostclient.SensorThingsService;
+import de.fraunhofer.iosb.ilt.frostclient.models.DataModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A minimal local http server for testing request building and response
+ * handling without a FROST-Server. Records all requests, and answers them
+ * using a handler.
+ */
+public class TestServer implements AutoCloseable {
+
+    /**
+     * A recorded request.
+     */
+    public static class Request {
+
+        public final String method;
+        /**
+         * The decoded path and query, relative to the service root.
+         */
+        public final String path;
+        public final String body;
+
+        public Request(String method, String path, String body) {
+            this.method = method;
+            this.path = path;
+            this.body = body;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + path;
+        }
+    }
+
+    /**
+     * A response to send.
+     */
+    public static class Response {
+
+        public final int status;
+        public final String body;
+        public final String location;
+
+        public Response(int status, String body) {
+            this(status, body, null);
+        }
+
+        public Response(int status, String body, String location) {
+            this.status = status;
+            this.body = body;
+            this.location = location;
+        }
+    }
+
+    /**
+     * Answers a request.
+     */
+    @FunctionalInterface
+    public static interface Handler {
+
+        public Response handle(Request request) throws InterruptedException;
+    }
+
+    public static final String ROOT = "/v1.1/";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+    private volatile Handler handler = request -> new Response(404, "");
+
+    public TestServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::exchange);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public TestServer setHandler(Handler handler) {
+        this.handler = handler;
+        return this;
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + ROOT;
+    }
+
+    public List<Request> getRequests() {
+        return requests;
+    }
+
+    /**
+     * Create and initialise a service for this server.
+     *
+     * @param models The models to use.
+     * @return The initialised service.
+     * @throws IOException if the url is invalid.
+     */
+    public SensorThingsService createService(DataModel... models) throws IOException {
+        return new SensorThingsService(models)
+                .setBaseUrl(URI.create(getBaseUrl()).toURL())
+                .init();
+    }
+
+    private void exchange(HttpExchange exchange) throws IOException {
+        final String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        String path = exchange.getRequestURI().getRawPath();
+        if (path.startsWith(ROOT)) {
+            path = path.substring(ROOT.length());
+        }
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            path += "?" + query;
+        }
+        path = URLDecoder.decode(path, StandardCharsets.UTF_8);
+        final Request request = new Request(exchange.getRequestMethod(), path, body);
+        if (!path.isEmpty()) {
+            requests.add(request);
+        }
+        Response response;
+        try {
+            response = path.isEmpty() ? new Response(404, "") : handler.handle(request);
+        } catch (InterruptedException | RuntimeException ex) {
+            response = new Response(500, String.valueOf(ex));
+        }
+        final byte[] bytes = response.body == null ? new byte[0] : response.body.getBytes(StandardCharsets.UTF_8);
+        if (response.location != null) {
+            exchange.getResponseHeaders().add("Location", response.location);
+        }
+        if (bytes.length > 0) {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+        }
+        // Keep-alive connections of the test server are not reliably reusable.
+        exchange.getResponseHeaders().add("Connection", "close");
+        exchange.sendResponseHeaders(response.status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}